@@ -0,0 +1,367 @@
+package uk.nhs.cactus.common.audit;
+
+import static java.util.Comparator.comparingInt;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import com.google.common.io.CountingOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.nhs.cactus.common.audit.model.AuditEntry;
+import uk.nhs.cactus.common.audit.model.AuditSession;
+
+/**
+ * Keeps the serialised size of an audit session within a byte budget, so that a session with many
+ * large bodies still fits in a single SQS message or ElasticSearch document.
+ * Bodies are trimmed lowest priority first, down to a head and tail around an elision marker
+ * that records the original size and SHA-256 digest of the body.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class AuditBudget {
+
+  /**
+   * Groups of bodies, in the order they can be listed in {@code audit.budget.priority}
+   */
+  public enum BodyGroup {
+    SESSION_RESPONSE,
+    SESSION_REQUEST,
+    FAILED_ENTRIES,
+    ENTRIES
+  }
+
+  static final String ELIDED_ENTRIES = "elidedEntries";
+
+  private static final String ELISION_MARKER = "\n...[elided: %d bytes, sha256 %s]...\n";
+  private static final Pattern ELISION_PATTERN =
+      Pattern.compile("\n\\.\\.\\.\\[elided: (\\d+) bytes, sha256 ([0-9a-f]{64})]\\.\\.\\.\n");
+
+  // Rough allowance for field names, quotes and punctuation, used before the exact size is known
+  private static final int SESSION_OVERHEAD = 512;
+  private static final int ENTRY_OVERHEAD = 256;
+  private static final int MAX_FIT_ATTEMPTS = 4;
+
+  /**
+   * Maximum encoded size of a session in bytes. 0 disables the budget.
+   */
+  @Value("${audit.budget.max-bytes:250000}")
+  private int maxBytes;
+
+  /**
+   * Body groups in the order they should be preserved. Unlisted groups are trimmed first.
+   */
+  @Value("${audit.budget.priority:SESSION_RESPONSE,FAILED_ENTRIES,SESSION_REQUEST,ENTRIES}")
+  private List<BodyGroup> priority;
+
+  private final ObjectMapper mapper;
+
+  /**
+   * Trims bodies if the session's estimated size is over budget. Cheap enough to call each time a
+   * body is added.
+   */
+  public void enforce(AuditSession session) {
+    if (maxBytes <= 0) {
+      return;
+    }
+
+    var excess = estimateSize(session) - maxBytes;
+    if (excess > 0) {
+      reduce(session, excess);
+    }
+  }
+
+  /**
+   * Trims the completed session until its exact encoded size is within budget, dropping the
+   * lowest priority entries as a last resort.
+   */
+  public void fit(AuditSession session) {
+    if (maxBytes <= 0) {
+      return;
+    }
+    enforce(session);
+
+    for (int attempt = 0; attempt < MAX_FIT_ATTEMPTS; attempt++) {
+      var excess = encodedSize(session) - maxBytes;
+      if (excess <= 0) {
+        return;
+      }
+      if (reduce(session, excess) == 0) {
+        break;
+      }
+    }
+
+    while (encodedSize(session) > maxBytes && dropEntry(session)) {
+      // keep dropping until it fits or there is nothing left to drop
+    }
+  }
+
+  /**
+   * @return the number of bytes removed
+   */
+  private long reduce(AuditSession session, long excess) {
+    var removed = 0L;
+    for (var body : bodiesInTrimOrder(session)) {
+      if (removed >= excess) {
+        break;
+      }
+      var value = body.getter.get();
+      var size = encodedLength(value);
+      var trimmed = trim(value, size - (excess - removed));
+      if (trimmed != null) {
+        body.setter.accept(trimmed);
+        removed += size - encodedLength(trimmed);
+      }
+    }
+
+    if (removed > 0) {
+      log.debug("Trimmed {} bytes from audit session {} to fit budget",
+          removed, session.getRequestUrl());
+    }
+    return removed;
+  }
+
+  private boolean dropEntry(AuditSession session) {
+    var entries = session.getEntries();
+    if (entries == null || entries.isEmpty()) {
+      log.warn("Audit session {} exceeds budget of {} bytes with no bodies left to trim",
+          session.getRequestUrl(), maxBytes);
+      return false;
+    }
+
+    var remaining = new ArrayList<>(entries);
+    var dropped = remaining.stream()
+        .max(Comparator.<AuditEntry>comparingInt(entry -> rank(groupOf(entry)))
+            .thenComparingInt(remaining::indexOf))
+        .orElseThrow();
+    remaining.remove(dropped);
+    session.setEntries(remaining);
+    dropUnreferencedBodies(session);
+
+    var properties = new HashMap<>(session.getAdditionalProperties());
+    properties.merge(ELIDED_ENTRIES, "1",
+        (count, one) -> String.valueOf(Integer.parseInt(count) + 1));
+    session.setAdditionalProperties(properties);
+    return true;
+  }
+
+  /**
+   * Removes shared bodies that only dropped entries referred to
+   */
+  private static void dropUnreferencedBodies(AuditSession session) {
+    if (session.getBodies() == null) {
+      return;
+    }
+
+    var referenced = new HashSet<String>();
+    for (var entry : session.getEntries()) {
+      referenced.add(entry.getRequestBodyRef());
+      referenced.add(entry.getResponseBodyRef());
+    }
+    var bodies = new HashMap<>(session.getBodies());
+    bodies.keySet().retainAll(referenced);
+    session.setBodies(bodies);
+  }
+
+  private List<Body> bodiesInTrimOrder(AuditSession session) {
+    var bodies = new ArrayList<Body>();
+    bodies.add(new Body(BodyGroup.SESSION_RESPONSE,
+        session::getResponseBody, session::setResponseBody));
+    bodies.add(new Body(BodyGroup.SESSION_REQUEST,
+        session::getRequestBody, session::setRequestBody));
+    if (session.getBodies() != null) {
+      var shared = session.getBodies();
+      for (var hash : shared.keySet()) {
+        bodies.add(new Body(BodyGroup.ENTRIES,
+            () -> shared.get(hash), body -> shared.put(hash, body)));
+      }
+    }
+    if (session.getEntries() != null) {
+      for (var entry : session.getEntries()) {
+        var group = groupOf(entry);
+        bodies.add(new Body(group, entry::getResponseBody, entry::setResponseBody));
+        bodies.add(new Body(group, entry::getRequestBody, entry::setRequestBody));
+      }
+    }
+
+    bodies.removeIf(body -> body.getter.get() == null);
+    // Lowest priority group first and, within a group, largest body first
+    bodies.sort(Comparator.<Body>comparingInt(body -> rank(body.group)).reversed()
+        .thenComparing(comparingInt((Body body) -> body.getter.get().length()).reversed()));
+    return bodies;
+  }
+
+  private int rank(BodyGroup group) {
+    var index = priority.indexOf(group);
+    return index >= 0 ? index : priority.size();
+  }
+
+  private static BodyGroup groupOf(AuditEntry entry) {
+    var status = entry.getResponseStatus();
+    return status != null && (status.startsWith("2") || status.startsWith("3"))
+        ? BodyGroup.ENTRIES
+        : BodyGroup.FAILED_ENTRIES;
+  }
+
+  /**
+   * Trims a body to roughly the target encoded size, keeping equal head and tail segments.
+   * A body that has already been trimmed keeps its original size and digest.
+   *
+   * @return the trimmed body, or null if it cannot be made any smaller
+   */
+  static String trim(String body, long targetBytes) {
+    String head = body;
+    String tail = body;
+    long originalBytes;
+    String digest;
+
+    Matcher existing = ELISION_PATTERN.matcher(body);
+    if (existing.find()) {
+      head = body.substring(0, existing.start());
+      tail = body.substring(existing.end());
+      originalBytes = Long.parseLong(existing.group(1));
+      digest = existing.group(2);
+    } else {
+      originalBytes = utf8Length(body);
+      digest = Hashing.sha256().hashString(body, StandardCharsets.UTF_8).toString();
+    }
+
+    var marker = String.format(ELISION_MARKER, originalBytes, digest);
+    var available = targetBytes - encodedLength(marker);
+    var headChars = prefixWithin(head, available / 2);
+    var tailChars = suffixWithin(tail, available - encodedLength(head, 0, headChars));
+
+    var trimmed = head.substring(0, headChars) + marker
+        + tail.substring(tail.length() - tailChars);
+    return trimmed.length() < body.length() ? trimmed : null;
+  }
+
+  private static int prefixWithin(String text, long maxBytes) {
+    int length = 0;
+    long bytes = 0;
+    while (length < text.length()) {
+      var next = Character.charCount(text.codePointAt(length));
+      var nextBytes = encodedLength(text, length, length + next);
+      if (bytes + nextBytes > maxBytes) {
+        break;
+      }
+      bytes += nextBytes;
+      length += next;
+    }
+    return length;
+  }
+
+  private static int suffixWithin(String text, long maxBytes) {
+    int length = 0;
+    long bytes = 0;
+    while (length < text.length()) {
+      var end = text.length() - length;
+      var next = Character.charCount(text.codePointBefore(end));
+      var nextBytes = encodedLength(text, end - next, end);
+      if (bytes + nextBytes > maxBytes) {
+        break;
+      }
+      bytes += nextBytes;
+      length += next;
+    }
+    return length;
+  }
+
+  private long estimateSize(AuditSession session) {
+    long size = SESSION_OVERHEAD
+        + encodedLength(session.getRequestUrl())
+        + encodedLength(session.getRequestHeaders())
+        + encodedLength(session.getRequestBody())
+        + encodedLength(session.getResponseHeaders())
+        + encodedLength(session.getResponseBody());
+    if (session.getAdditionalProperties() != null) {
+      for (var property : session.getAdditionalProperties().entrySet()) {
+        size += encodedLength(property.getKey()) + encodedLength(property.getValue());
+      }
+    }
+    if (session.getBodies() != null) {
+      for (var body : session.getBodies().entrySet()) {
+        size += encodedLength(body.getKey()) + encodedLength(body.getValue());
+      }
+    }
+    if (session.getEntries() != null) {
+      for (var entry : session.getEntries()) {
+        size += ENTRY_OVERHEAD
+            + encodedLength(entry.getRequestUrl())
+            + encodedLength(entry.getRequestHeaders())
+            + encodedLength(entry.getRequestBody())
+            + encodedLength(entry.getResponseHeaders())
+            + encodedLength(entry.getResponseBody());
+      }
+    }
+    return size;
+  }
+
+  private long encodedSize(AuditSession session) {
+    try (var counter = new CountingOutputStream(OutputStream.nullOutputStream())) {
+      mapper.writeValue(counter, session);
+      return counter.getCount();
+    } catch (IOException e) {
+      log.warn("Unable to measure audit session size", e);
+      return estimateSize(session);
+    }
+  }
+
+  static long encodedLength(String text) {
+    return text == null ? 0 : encodedLength(text, 0, text.length());
+  }
+
+  /**
+   * @return the UTF-8 length of the text once escaped as a JSON string value
+   */
+  private static long encodedLength(String text, int start, int end) {
+    long length = 0;
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      if (c == '"' || c == '\\' || c == '\n' || c == '\r' || c == '\t' || c == '\b' || c == '\f') {
+        length += 2;
+      } else if (c < 0x20) {
+        length += 6;
+      } else if (c < 0x80) {
+        length += 1;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isSurrogate(c)) {
+        length += 2;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  private static long utf8Length(String text) {
+    long length = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      length += c < 0x80 ? 1 : c < 0x800 ? 2 : Character.isSurrogate(c) ? 2 : 3;
+    }
+    return length;
+  }
+
+  @RequiredArgsConstructor
+  private static class Body {
+    private final BodyGroup group;
+    private final Supplier<String> getter;
+    private final Consumer<String> setter;
+  }
+}
@@ -4,7 +4,10 @@ import ca.uhn.fhir.rest.client.api.IClientInterceptor;
 import ca.uhn.fhir.rest.client.api.IHttpRequest;
 import ca.uhn.fhir.rest.client.api.IHttpResponse;
 import java.io.IOException;
+import java.util.List;
 import lombok.RequiredArgsConstructor;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import uk.nhs.cactus.common.audit.model.HttpRequest;
 import uk.nhs.cactus.common.audit.model.HttpResponse;
@@ -13,16 +16,34 @@ import uk.nhs.cactus.common.audit.model.HttpResponse;
 @RequiredArgsConstructor
 public class AuditFhirClientInterceptor implements IClientInterceptor {
 
+  /**
+   * Comma-separated list of URL prefixes for outgoing requests that should not be audited
+   */
+  @Value("#{'${audit.client.excluded-urls:}'}")
+  private List<String> excludedUrls;
+
   private final AuditService auditService;
 
   @Override
   public void interceptRequest(IHttpRequest theRequest) {
+    if (!auditService.isAuditing() || isExcluded(theRequest.getUri())) {
+      return;
+    }
     auditService.startEntry(HttpRequest.from(theRequest));
   }
 
   @Override
   public void interceptResponse(IHttpResponse theResponse) throws IOException {
-    theResponse.bufferEntity();
+    // Nothing to do if the request wasn't audited, so avoid buffering the response
+    if (!auditService.hasOpenEntry()) {
+      return;
+    }
     auditService.endEntry(HttpResponse.from(theResponse));
   }
+
+  private boolean isExcluded(String uri) {
+    return excludedUrls != null && uri != null && excludedUrls.stream()
+        .filter(StringUtils::isNotBlank)
+        .anyMatch(uri::startsWith);
+  }
 }
@@ -0,0 +1,262 @@
+package uk.nhs.cactus.common.audit;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.nhs.cactus.common.audit.model.AuditSession;
+import uk.nhs.cactus.common.audit.sender.AuditSender;
+import uk.nhs.cactus.common.security.TokenAuthenticationService;
+
+/**
+ * Limits the rate of full audits per supplier, so that one supplier flooding the API can't use up
+ * the audit queue and consumers for everyone else. Each supplier has a token bucket, implemented
+ * lock-free as a generic cell rate algorithm over a single timestamp. Audits over the limit are
+ * either sent without bodies or routed to a cheaper overflow sender.
+ * Disabled unless {@code audit.rate-limit.enabled} is set.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class AuditRateLimiter {
+
+  public enum OverflowPolicy {
+    /**
+     * Send the audit with headers, statuses and timings only
+     */
+    HEADERS_ONLY,
+    /**
+     * Send the audit in full to the sender named in {@code audit.rate-limit.overflow-sender}
+     */
+    SENDER,
+    /**
+     * Don't send the audit
+     */
+    DROP
+  }
+
+  static final String THROTTLED = "auditThrottled";
+  private static final String ANONYMOUS = "anonymous";
+  private static final long EVICTION_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  @Value("${audit.rate-limit.enabled:false}")
+  private boolean enabled;
+
+  @Value("${audit.rate-limit.default-per-second:50}")
+  private double defaultPerSecond;
+
+  /**
+   * Per-supplier overrides of the rate, as {@code supplierId=perSecond,...}
+   */
+  @Value("${audit.rate-limit.supplier-rates:}")
+  private String supplierRates;
+
+  /**
+   * Audits a supplier can send at once before being limited to its rate
+   */
+  @Value("${audit.rate-limit.burst:100}")
+  private int burst;
+
+  @Value("${audit.rate-limit.overflow:HEADERS_ONLY}")
+  private OverflowPolicy overflowPolicy;
+
+  /**
+   * Bean name of the sender used by the {@code SENDER} overflow policy, e.g. localAuditSender
+   */
+  @Value("${audit.rate-limit.overflow-sender:}")
+  private String overflowSenderName;
+
+  @Value("${audit.rate-limit.idle-eviction-seconds:600}")
+  private long idleEvictionSeconds;
+
+  private final TokenAuthenticationService authenticationService;
+  private final Map<String, AuditSender> senders;
+
+  private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, LongAdder> throttled = new ConcurrentHashMap<>();
+  private final AtomicLong nextEvictionNanos = new AtomicLong();
+  private Map<String, Double> ratesBySupplier = Map.of();
+  private AuditSender overflowSender;
+  LongSupplier nanoTime = System::nanoTime;
+
+  @PostConstruct
+  public void init() {
+    if (!isValidRate(defaultPerSecond)) {
+      throw new IllegalStateException("Invalid audit.rate-limit.default-per-second '"
+          + defaultPerSecond + "', expected a positive number");
+    }
+    ratesBySupplier = parseRates(supplierRates);
+    nextEvictionNanos.set(nanoTime.getAsLong() + EVICTION_INTERVAL_NANOS);
+    if (overflowPolicy == OverflowPolicy.SENDER) {
+      overflowSender = senders.get(overflowSenderName);
+      if (overflowSender == null) {
+        throw new IllegalStateException("No audit sender named '" + overflowSenderName
+            + "' for audit.rate-limit.overflow-sender, expected one of " + senders.keySet());
+      }
+    }
+  }
+
+  /**
+   * Takes a token for the current supplier
+   *
+   * @return whether the supplier's audit can be sent in full
+   */
+  public boolean tryAcquire() {
+    if (!enabled) {
+      return true;
+    }
+
+    var supplierId = authenticationService.getCurrentSupplierId().orElse(ANONYMOUS);
+    var now = nanoTime.getAsLong();
+    evictIdle(now);
+
+    var bucket = buckets.computeIfAbsent(supplierId, this::newBucket);
+    if (bucket.tryAcquire(now)) {
+      return true;
+    }
+    throttled.computeIfAbsent(supplierId, key -> new LongAdder()).increment();
+    return false;
+  }
+
+  /**
+   * Sends an audit for a supplier that is over its limit, as the overflow policy says
+   */
+  public void sendThrottled(AuditSession session, AuditSender sender) {
+    switch (overflowPolicy) {
+      case SENDER:
+        overflowSender.sendAudit(session);
+        break;
+      case HEADERS_ONLY:
+        sender.sendAudit(headersOnly(session));
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * @return the number of audits throttled for each supplier since startup
+   */
+  public Map<String, Long> getThrottledCounts() {
+    var counts = new TreeMap<String, Long>();
+    throttled.forEach((supplierId, count) -> counts.put(supplierId, count.sum()));
+    return counts;
+  }
+
+  private static AuditSession headersOnly(AuditSession session) {
+    session.setRequestBody(null);
+    session.setResponseBody(null);
+    session.setBodies(null);
+    if (session.getEntries() != null) {
+      for (var entry : session.getEntries()) {
+        entry.setRequestBody(null);
+        entry.setResponseBody(null);
+        entry.setRequestBodyRef(null);
+        entry.setResponseBodyRef(null);
+      }
+    }
+
+    var properties = new HashMap<>(session.getAdditionalProperties());
+    properties.put(THROTTLED, "true");
+    session.setAdditionalProperties(properties);
+    return session;
+  }
+
+  private Bucket newBucket(String supplierId) {
+    var perSecond = ratesBySupplier.getOrDefault(supplierId, defaultPerSecond);
+    var intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+    return new Bucket(intervalNanos, intervalNanos * (Math.max(burst, 1) - 1), nanoTime.getAsLong());
+  }
+
+  private void evictIdle(long now) {
+    var next = nextEvictionNanos.get();
+    if (now - next < 0 || !nextEvictionNanos.compareAndSet(next, now + EVICTION_INTERVAL_NANOS)) {
+      return;
+    }
+    var idleNanos = TimeUnit.SECONDS.toNanos(idleEvictionSeconds);
+    // A bucket idle this long is full again, so a new one behaves the same
+    buckets.values().removeIf(bucket -> now - bucket.lastUsedNanos > idleNanos);
+  }
+
+  Map<String, Double> parseRates(String rates) {
+    var parsed = new HashMap<String, Double>();
+    if (isBlank(rates)) {
+      return parsed;
+    }
+
+    for (var supplier : rates.split(",")) {
+      if (isBlank(supplier)) {
+        continue;
+      }
+      var supplierAndRate = supplier.split("=", 2);
+      if (isBlank(supplierAndRate[0]) || supplierAndRate.length != 2) {
+        throw invalidRate(supplier);
+      }
+      double perSecond;
+      try {
+        perSecond = Double.parseDouble(supplierAndRate[1].trim());
+      } catch (NumberFormatException e) {
+        throw invalidRate(supplier);
+      }
+      if (!isValidRate(perSecond)) {
+        throw invalidRate(supplier);
+      }
+      parsed.put(supplierAndRate[0].trim(), perSecond);
+    }
+    return parsed;
+  }
+
+  /**
+   * A rate of zero or less has no interval between audits, and would overflow the bucket
+   */
+  private static boolean isValidRate(double perSecond) {
+    return Double.isFinite(perSecond) && perSecond > 0;
+  }
+
+  private static IllegalStateException invalidRate(String supplier) {
+    return new IllegalStateException("Invalid entry '" + supplier.trim()
+        + "' in audit.rate-limit.supplier-rates, expected supplierId=perSecond with a positive"
+        + " perSecond");
+  }
+
+  private static class Bucket {
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    // Theoretical arrival time: when the next audit is due if sent at exactly the rate
+    private final AtomicLong theoreticalArrival;
+    private volatile long lastUsedNanos;
+
+    Bucket(long intervalNanos, long toleranceNanos, long now) {
+      this.intervalNanos = intervalNanos;
+      this.toleranceNanos = toleranceNanos;
+      this.theoreticalArrival = new AtomicLong(now);
+      this.lastUsedNanos = now;
+    }
+
+    boolean tryAcquire(long now) {
+      lastUsedNanos = now;
+      while (true) {
+        var arrival = theoreticalArrival.get();
+        var start = now - arrival > 0 ? now : arrival;
+        if (start - now > toleranceNanos) {
+          return false;
+        }
+        if (theoreticalArrival.compareAndSet(arrival, start + intervalNanos)) {
+          return true;
+        }
+      }
+    }
+  }
+}
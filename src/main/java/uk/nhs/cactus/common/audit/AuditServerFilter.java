@@ -8,6 +8,8 @@ import javax.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 import org.springframework.web.util.ContentCachingRequestWrapper;
@@ -16,6 +18,8 @@ import uk.nhs.cactus.common.audit.model.AuditSession;
 import uk.nhs.cactus.common.audit.model.HttpRequest;
 import uk.nhs.cactus.common.audit.model.HttpResponse;
 import uk.nhs.cactus.common.audit.sender.AuditSender;
+import uk.nhs.cactus.common.timing.RequestTimer;
+import uk.nhs.cactus.common.timing.RequestTimer.Phase;
 
 @Component
 @RequiredArgsConstructor
@@ -26,6 +30,9 @@ public class AuditServerFilter extends OncePerRequestFilter {
 
   private final AuditService auditService;
   private final AuditSender auditSender;
+  private final AuditRateLimiter auditRateLimiter;
+  private final RequestTimer requestTimer;
+  private final ServerTimingHeader serverTimingHeader;
 
   @Override
   protected void doFilterInternal(
@@ -33,13 +40,20 @@ public class AuditServerFilter extends OncePerRequestFilter {
       @NonNull HttpServletResponse response,
       @NonNull FilterChain filterChain) throws ServletException, IOException {
 
-    ContentCachingRequestWrapper requestWrapper;
+    requestTimer.start();
+    var captureStart = System.nanoTime();
+
+    HttpServletRequest requestWrapper;
     ContentCachingResponseWrapper responseWrapper;
 
-    if (request instanceof ContentCachingRequestWrapper) {
-      requestWrapper = (ContentCachingRequestWrapper) request;
-    } else {
+    if (request instanceof ContentCachingRequestWrapper
+        || request instanceof CapturingRequestWrapper) {
+      requestWrapper = request;
+    } else if (isFormPost(request)) {
+      // Form bodies may be consumed by getParameter, which only ContentCachingRequestWrapper sees
       requestWrapper = new ContentCachingRequestWrapper(request, CONTENT_CACHE_LIMIT);
+    } else {
+      requestWrapper = new CapturingRequestWrapper(request, CONTENT_CACHE_LIMIT);
     }
 
     if (response instanceof ContentCachingResponseWrapper) {
@@ -48,20 +62,46 @@ public class AuditServerFilter extends OncePerRequestFilter {
       responseWrapper = new ContentCachingResponseWrapper(response);
     }
 
-    auditService.startAuditSession(HttpRequest.from(requestWrapper));
+    // Headers are captured once up front and shared with the completed session
+    var auditRequest = HttpRequest.headersFrom(requestWrapper);
+    auditService.startAuditSession(auditRequest);
+    requestTimer.add(Phase.AUDIT, System.nanoTime() - captureStart);
 
     try {
       filterChain.doFilter(requestWrapper, responseWrapper);
     } finally {
-      var content = responseWrapper.getContentAsByteArray();
-      responseWrapper.copyBodyToResponse();
+      try {
+        // The body is still buffered, so headers can be added until it is copied
+        serverTimingHeader.addTo(responseWrapper);
+        var content = responseWrapper.getContentAsByteArray();
+        responseWrapper.copyBodyToResponse();
 
+        AuditSession auditSession = auditService
+            .completeAuditSession(auditRequest.withBody(requestBody(requestWrapper)),
+                HttpResponse.from(responseWrapper, content));
 
-      AuditSession auditSession = auditService
-          .completeAuditSession(HttpRequest.from(requestWrapper),
-              HttpResponse.from(responseWrapper, content));
+        if (auditRateLimiter.tryAcquire()) {
+          auditSender.sendAudit(auditSession);
+        } else {
+          auditRateLimiter.sendThrottled(auditSession, auditSender);
+        }
+      } finally {
+        requestTimer.stop();
+      }
+    }
+  }
 
-      auditSender.sendAudit(auditSession);
+  private static byte[] requestBody(HttpServletRequest request) {
+    if (request instanceof CapturingRequestWrapper) {
+      return ((CapturingRequestWrapper) request).getContent();
     }
+    return ((ContentCachingRequestWrapper) request).getContentAsByteArray();
+  }
+
+  private static boolean isFormPost(HttpServletRequest request) {
+    var contentType = request.getContentType();
+    return contentType != null
+        && contentType.contains(MediaType.APPLICATION_FORM_URLENCODED_VALUE)
+        && HttpMethod.POST.matches(request.getMethod());
   }
 }
@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -16,6 +17,8 @@ import uk.nhs.cactus.common.audit.model.AuditSession;
 import uk.nhs.cactus.common.audit.model.HttpRequest;
 import uk.nhs.cactus.common.audit.model.HttpResponse;
 import uk.nhs.cactus.common.security.TokenAuthenticationService;
+import uk.nhs.cactus.common.timing.RequestTimer;
+import uk.nhs.cactus.common.timing.RequestTimer.Phase;
 
 @Service
 @Slf4j
@@ -28,12 +31,31 @@ public class AuditService {
   private final AuditThreadStore auditThreadStore;
   private final HttpExchangeHelper exchangeHelper;
   private final TokenAuthenticationService authenticationService;
+  private final AuditBudget auditBudget;
+  private final EntryDeduplicator entryDeduplicator;
+  private final OutboundLatencyHistograms latencyHistograms;
+  private final RequestTimer requestTimer;
+
+  /**
+   * @return true if an audit session is active on the current thread
+   */
+  public boolean isAuditing() {
+    return auditThreadStore.getCurrentAuditSession().isPresent();
+  }
+
+  /**
+   * @return true if an outgoing FHIR request is currently being audited on this thread
+   */
+  public boolean hasOpenEntry() {
+    return auditThreadStore.getCurrentEntry().isPresent();
+  }
 
   /**
    * Start an audit entry to record an outgoing FHIR request
    * @param request the request that initiated the audit entry
    */
   public void startEntry(HttpRequest request) {
+    var captureStart = System.nanoTime();
     auditThreadStore.getCurrentEntry()
         .ifPresent(entry -> {
           log.warn("Unclosed audit entry");
@@ -43,6 +65,7 @@ public class AuditService {
     AuditEntry entry = AuditEntry.builder()
         .dateOfEntry(Instant.now())
         .requestBody(exchangeHelper.getBodyString(request, request.getUri()))
+        .requestBodyDigest(exchangeHelper.getBodyDigest(request))
         .requestHeaders(exchangeHelper.getHeadersString(request))
         .requestUrl(request.getUri())
         .requestMethod(request.getMethod())
@@ -55,6 +78,10 @@ public class AuditService {
         .build();
     auditThreadStore.setCurrentSession(session);
     auditThreadStore.setCurrentEntry(entry);
+
+    // Last, so that capturing the request isn't counted as part of the call
+    entry.setStartNanos(System.nanoTime());
+    requestTimer.add(Phase.AUDIT, entry.getStartNanos() - captureStart);
   }
 
   /**
@@ -64,11 +91,28 @@ public class AuditService {
   public void endEntry(HttpResponse response) {
     AuditEntry entry = auditThreadStore.getCurrentEntry()
         .orElseThrow(IllegalStateException::new);
+    // Before rendering the response for the audit, which isn't part of the call
+    var endNanos = System.nanoTime();
+    entry.setEndNanos(endNanos);
+    entry.setTimeToFirstByteMillis(response.getTimeToFirstByteMillis());
+    if (entry.getStartNanos() != null) {
+      var durationNanos = endNanos - entry.getStartNanos();
+      entry.setDurationMillis(TimeUnit.NANOSECONDS.toMillis(durationNanos));
+      latencyHistograms.record(entry.getRequestUrl(), durationNanos);
+      requestTimer.add(Phase.FHIR, durationNanos);
+    }
+
     entry.setResponseStatus(String.valueOf(response.getStatus()));
     entry.setResponseBody(exchangeHelper.getBodyString(response, entry.getRequestUrl()));
+    entry.setResponseBodyDigest(exchangeHelper.getBodyDigest(response));
     entry.setResponseHeaders(exchangeHelper.getHeadersString(response));
 
+    auditThreadStore.getCurrentAuditSession().ifPresent(session -> {
+      entryDeduplicator.apply(session, entry);
+      auditBudget.enforce(session);
+    });
     auditThreadStore.removeCurrentEntry();
+    requestTimer.add(Phase.AUDIT, System.nanoTime() - endNanos);
   }
 
   /**
@@ -91,6 +135,7 @@ public class AuditService {
         .entries(new ArrayList<>())
         .additionalProperties(new HashMap<>())
         .createdDate(Instant.now())
+        .startNanos(System.nanoTime())
         .requestUrl(request.getUri())
         .requestMethod(request.getMethod())
         .requestHeaders(exchangeHelper.getHeadersString(request))
@@ -102,12 +147,14 @@ public class AuditService {
   }
 
   /**
-   * Complete audit session - the interaction with this service is completed
+   * Complete audit session - the interaction with this service is completed. The request's timing
+   * breakdown is recorded before the session is fitted to the audit budget.
    * @param request the request that initiated the session
    * @param response the response given by this server
    * @return the completed audit session with all FHIR audits to other services
    */
   public AuditSession completeAuditSession(HttpRequest request, HttpResponse response) {
+    var completionStart = System.nanoTime();
     AuditSession session = auditThreadStore.getCurrentAuditSession()
         .orElseThrow(IllegalStateException::new);
 
@@ -118,10 +165,20 @@ public class AuditService {
             auditThreadStore.removeCurrentEntry();
           });
 
+      if (session.getStartNanos() != null) {
+        session.setDurationMillis(
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - session.getStartNanos()));
+      }
       session.setRequestBody(exchangeHelper.getBodyString(request, request.getUri()));
+      session.setRequestBodyDigest(exchangeHelper.getBodyDigest(request));
       session.setResponseStatus(String.valueOf(response.getStatus()));
       session.setResponseHeaders(exchangeHelper.getHeadersString(response));
       session.setResponseBody(exchangeHelper.getBodyString(response, session.getRequestUrl()));
+      session.setResponseBodyDigest(exchangeHelper.getBodyDigest(response));
+
+      requestTimer.add(Phase.AUDIT, System.nanoTime() - completionStart);
+      requestTimer.breakdown().ifPresent(session::setTimings);
+      auditBudget.fit(session);
     } finally {
       auditThreadStore.removeCurrentSession();
     }
@@ -0,0 +1,94 @@
+package uk.nhs.cactus.common.audit;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.Instant;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import uk.nhs.cactus.common.audit.model.AuditEntry;
+import uk.nhs.cactus.common.audit.model.AuditSession;
+import uk.nhs.cactus.common.elasticsearch.ElasticSearchClient;
+
+/**
+ * Once the application has started, creates the audit clients that are otherwise created lazily,
+ * connects them, and primes the mapper's serialisers for audit sessions, so that the first
+ * audited request doesn't pay for it. Runs in the background, and only if
+ * {@code audit.warmup.enabled} is set.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "audit.warmup.enabled", havingValue = "true")
+public class AuditWarmup {
+
+  @Value("${sqs.audit.queue:}")
+  private String loggingQueue;
+
+  private final ObjectMapper mapper;
+  private final ObjectProvider<AmazonSQS> sqsClient;
+  private final ObjectProvider<ElasticSearchClient> elasticSearchClient;
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void warmUp() {
+    var thread = new Thread(this::run, "audit-warmup");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  void run() {
+    var start = System.nanoTime();
+    primeMapper();
+    sqsClient.ifAvailable(this::connectSqs);
+    elasticSearchClient.ifAvailable(this::connectElasticSearch);
+    log.info("Audit warm-up finished in {}ms", (System.nanoTime() - start) / 1_000_000);
+  }
+
+  private void primeMapper() {
+    var session = AuditSession.builder()
+        .createdDate(Instant.now())
+        .requestUrl("warmup")
+        .additionalProperty("warmup", "true")
+        .entry(AuditEntry.builder()
+            .dateOfEntry(Instant.now())
+            .requestUrl("warmup")
+            .build())
+        .build();
+    try {
+      mapper.readValue(mapper.writeValueAsBytes(session), AuditSession.class);
+    } catch (Exception e) {
+      log.warn("Unable to prime audit session serialisation", e);
+    }
+  }
+
+  private void connectSqs(AmazonSQS sqs) {
+    if (isBlank(loggingQueue)) {
+      return;
+    }
+    try {
+      sqs.getQueueAttributes(new GetQueueAttributesRequest(loggingQueue)
+          .withAttributeNames(QueueAttributeName.QueueArn));
+    } catch (Exception e) {
+      log.warn("Unable to connect to audit queue {}: {}", loggingQueue, e.getMessage());
+    }
+  }
+
+  private void connectElasticSearch(ElasticSearchClient client) {
+    try {
+      if (!client.ping()) {
+        log.warn("ElasticSearch audit cluster did not respond");
+      }
+    } catch (Exception e) {
+      log.warn("Unable to connect to ElasticSearch audit cluster: {}", e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package uk.nhs.cactus.common.audit;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * Request wrapper that records the request body as it is read, up to a limit.
+ * Unlike {@link org.springframework.web.util.ContentCachingRequestWrapper}, the buffer is sized
+ * from the Content-Length header and handed out as is, so a fully read body is never copied.
+ * Form posts, whose body may be consumed through {@code getParameter}, should still use
+ * {@code ContentCachingRequestWrapper}.
+ */
+class CapturingRequestWrapper extends HttpServletRequestWrapper {
+
+  private static final int DEFAULT_CAPACITY = 1024;
+
+  private final CaptureBuffer capture;
+  private final int limit;
+
+  private ServletInputStream inputStream;
+  private BufferedReader reader;
+
+  CapturingRequestWrapper(HttpServletRequest request, int limit) {
+    super(request);
+    this.limit = limit;
+
+    var contentLength = request.getContentLengthLong();
+    this.capture = new CaptureBuffer(contentLength >= 0
+        ? (int) Math.min(contentLength, limit)
+        : Math.min(DEFAULT_CAPACITY, limit));
+  }
+
+  @Override
+  public ServletInputStream getInputStream() throws IOException {
+    if (inputStream == null) {
+      inputStream = new CapturingInputStream(getRequest().getInputStream());
+    }
+    return inputStream;
+  }
+
+  @Override
+  public BufferedReader getReader() throws IOException {
+    if (reader == null) {
+      reader = new BufferedReader(new InputStreamReader(getInputStream(), charset()));
+    }
+    return reader;
+  }
+
+  /**
+   * @return the body read so far. This is the capture buffer itself when it is exactly full
+   * (the usual case when Content-Length is given), so must not be modified.
+   */
+  byte[] getContent() {
+    return capture.contents();
+  }
+
+  private Charset charset() {
+    var encoding = getCharacterEncoding();
+    return encoding != null ? Charset.forName(encoding) : StandardCharsets.ISO_8859_1;
+  }
+
+  private static class CaptureBuffer extends ByteArrayOutputStream {
+
+    CaptureBuffer(int size) {
+      super(size);
+    }
+
+    synchronized byte[] contents() {
+      return count == buf.length ? buf : Arrays.copyOf(buf, count);
+    }
+  }
+
+  private class CapturingInputStream extends ServletInputStream {
+
+    private final ServletInputStream delegate;
+
+    CapturingInputStream(ServletInputStream delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public int read() throws IOException {
+      var ch = delegate.read();
+      if (ch != -1 && capture.size() < limit) {
+        capture.write(ch);
+      }
+      return ch;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      var count = delegate.read(b, off, len);
+      if (count > 0) {
+        var remaining = limit - capture.size();
+        if (remaining > 0) {
+          capture.write(b, off, Math.min(count, remaining));
+        }
+      }
+      return count;
+    }
+
+    @Override
+    public boolean isFinished() {
+      return delegate.isFinished();
+    }
+
+    @Override
+    public boolean isReady() {
+      return delegate.isReady();
+    }
+
+    @Override
+    public void setReadListener(ReadListener readListener) {
+      delegate.setReadListener(readListener);
+    }
+  }
+}
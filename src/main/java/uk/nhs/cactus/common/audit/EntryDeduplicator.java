@@ -0,0 +1,115 @@
+package uk.nhs.cactus.common.audit;
+
+import static org.apache.commons.lang3.ObjectUtils.defaultIfNull;
+
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.nhs.cactus.common.audit.model.AuditEntry;
+import uk.nhs.cactus.common.audit.model.AuditSession;
+
+/**
+ * Removes repetition from the entries of a session, for services that poll or re-fetch the same
+ * resources.
+ * With {@code audit.body.dedup.enabled}, entry bodies are moved to the session's body table,
+ * so that a body shared by many entries is stored once, and the entries refer to it by its hash.
+ * With {@code audit.entries.collapse-repeats}, a call identical to the one before it, in method,
+ * URL, bodies and response status (headers are not compared), is folded into the earlier entry
+ * as a repeat count with min, average and max durations.
+ */
+@Component
+@Slf4j
+public class EntryDeduplicator {
+
+  @Value("${audit.body.dedup.enabled:false}")
+  private boolean dedupBodies;
+
+  /**
+   * Bodies smaller than this stay in their entries, as their hash would save little
+   */
+  @Value("${audit.body.dedup.min-bytes:256}")
+  private int minBodyBytes;
+
+  @Value("${audit.entries.collapse-repeats:false}")
+  private boolean collapseRepeats;
+
+  /**
+   * Deduplicates a completed entry, which must be the last in the session
+   */
+  public void apply(AuditSession session, AuditEntry entry) {
+    if (dedupBodies) {
+      entry.setRequestBody(intern(session, entry.getRequestBody(), entry::setRequestBodyRef));
+      entry.setResponseBody(intern(session, entry.getResponseBody(), entry::setResponseBodyRef));
+    }
+    if (collapseRepeats) {
+      collapseRepeat(session, entry);
+    }
+  }
+
+  /**
+   * @return the body to leave in the entry
+   */
+  private String intern(AuditSession session, String body, Consumer<String> setRef) {
+    if (body == null || body.length() < minBodyBytes) {
+      return body;
+    }
+
+    if (session.getBodies() == null) {
+      session.setBodies(new HashMap<>());
+    }
+    var hash = Hashing.sha256().hashString(body, StandardCharsets.UTF_8).toString();
+    session.getBodies().putIfAbsent(hash, body);
+    setRef.accept(hash);
+    return null;
+  }
+
+  private void collapseRepeat(AuditSession session, AuditEntry entry) {
+    var entries = session.getEntries();
+    if (entries == null || entries.size() < 2 || entries.get(entries.size() - 1) != entry) {
+      return;
+    }
+
+    var previous = entries.get(entries.size() - 2);
+    if (!isRepeat(previous, entry)) {
+      return;
+    }
+
+    addRepeat(previous, entry.getDurationMillis());
+    var remaining = new ArrayList<>(entries);
+    remaining.remove(remaining.size() - 1);
+    session.setEntries(remaining);
+    log.debug("Collapsed repeated call to {} ({} times)",
+        previous.getRequestUrl(), previous.getRepeatCount());
+  }
+
+  private static boolean isRepeat(AuditEntry previous, AuditEntry entry) {
+    return Objects.equals(previous.getRequestMethod(), entry.getRequestMethod())
+        && Objects.equals(previous.getRequestUrl(), entry.getRequestUrl())
+        && Objects.equals(previous.getRequestBody(), entry.getRequestBody())
+        && Objects.equals(previous.getRequestBodyRef(), entry.getRequestBodyRef())
+        && Objects.equals(previous.getResponseStatus(), entry.getResponseStatus())
+        && Objects.equals(previous.getResponseBody(), entry.getResponseBody())
+        && Objects.equals(previous.getResponseBodyRef(), entry.getResponseBodyRef());
+  }
+
+  private static void addRepeat(AuditEntry previous, Long duration) {
+    int count = defaultIfNull(previous.getRepeatCount(), 1);
+    var firstDuration = previous.getDurationMillis();
+
+    if (duration != null && firstDuration != null) {
+      long min = defaultIfNull(previous.getMinDurationMillis(), firstDuration);
+      long max = defaultIfNull(previous.getMaxDurationMillis(), firstDuration);
+      double avg = defaultIfNull(previous.getAvgDurationMillis(), firstDuration.doubleValue());
+      previous.setMinDurationMillis(Math.min(min, duration));
+      previous.setMaxDurationMillis(Math.max(max, duration));
+      previous.setAvgDurationMillis((avg * count + duration) / (count + 1));
+    }
+    previous.setRepeatCount(count + 1);
+  }
+}
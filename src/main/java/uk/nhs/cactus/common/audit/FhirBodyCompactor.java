@@ -0,0 +1,217 @@
+package uk.nhs.cactus.common.audit;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+/**
+ * Minifies FHIR JSON and XML bodies for audit, optionally dropping resource narratives
+ * ({@code text}), which are rarely looked at in audits but are often most of a resource.
+ * Bodies are streamed through rather than parsed into resources, and anything that can't be
+ * parsed, e.g. a truncated body, is left as it is.
+ * Disabled unless {@code audit.body.compact.enabled} is set.
+ */
+@Component
+@Slf4j
+public class FhirBodyCompactor {
+
+  private static final String FHIR_NAMESPACE = "http://hl7.org/fhir";
+  private static final String XHTML_NAMESPACE = "http://www.w3.org/1999/xhtml";
+  private static final String NARRATIVE = "text";
+
+  // Including the DSTU2 style types still sent by some clients
+  private static final List<MediaType> JSON_TYPES = List.of(
+      MediaType.parseMediaType("application/fhir+json"),
+      MediaType.parseMediaType("application/json+fhir"));
+  private static final List<MediaType> XML_TYPES = List.of(
+      MediaType.parseMediaType("application/fhir+xml"),
+      MediaType.parseMediaType("application/xml+fhir"));
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final XMLInputFactory XML_INPUT_FACTORY = xmlInputFactory();
+  private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+
+  @Value("${audit.body.compact.enabled:false}")
+  private boolean enabled;
+
+  @Value("${audit.body.compact.strip-narrative:true}")
+  private boolean stripNarrative;
+
+  public boolean isCompactable(MediaType mediaType) {
+    return enabled && (isJson(mediaType) || isXml(mediaType));
+  }
+
+  /**
+   * @return the compacted body, or the body unchanged if it is not FHIR or can't be parsed
+   */
+  public String compact(String body, MediaType mediaType) {
+    if (!enabled || body == null || body.isEmpty()) {
+      return body;
+    }
+
+    try {
+      if (isJson(mediaType)) {
+        return compactJson(body);
+      }
+      if (isXml(mediaType)) {
+        return compactXml(body);
+      }
+    } catch (IOException | XMLStreamException e) {
+      log.debug("Unable to compact {} body, storing as received: {}", mediaType, e.getMessage());
+    }
+    return body;
+  }
+
+  private String compactJson(String body) throws IOException {
+    var out = new StringWriter(body.length() / 2);
+    try (var parser = JSON_FACTORY.createParser(body);
+        var generator = JSON_FACTORY.createGenerator(out)) {
+      JsonToken token;
+      while ((token = parser.nextToken()) != null) {
+        if (token == JsonToken.FIELD_NAME && stripNarrative
+            && NARRATIVE.equals(parser.getCurrentName())) {
+          // Only the narrative is an object: other text fields, e.g. CodeableConcept.text, are strings
+          if (parser.nextToken() == JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            continue;
+          }
+          generator.writeFieldName(NARRATIVE);
+        }
+
+        if (parser.currentToken() == JsonToken.VALUE_NUMBER_INT
+            || parser.currentToken() == JsonToken.VALUE_NUMBER_FLOAT) {
+          // As written, as FHIR decimals are significant to the digit
+          generator.writeNumber(parser.getText());
+        } else {
+          generator.copyCurrentEvent(parser);
+        }
+      }
+    }
+    return out.toString();
+  }
+
+  private String compactXml(String body) throws XMLStreamException {
+    var out = new StringWriter(body.length() / 2);
+    var reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(body));
+    var writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(out);
+    try {
+      // Whitespace is kept within narrative XHTML, where it can be significant
+      int xhtmlDepth = 0;
+      while (reader.hasNext()) {
+        switch (reader.next()) {
+          case XMLStreamConstants.START_ELEMENT:
+            if (stripNarrative && isNarrative(reader)) {
+              skipElement(reader);
+              break;
+            }
+            if (xhtmlDepth > 0 || XHTML_NAMESPACE.equals(reader.getNamespaceURI())) {
+              xhtmlDepth++;
+            }
+            copyStartElement(reader, writer);
+            break;
+          case XMLStreamConstants.END_ELEMENT:
+            if (xhtmlDepth > 0) {
+              xhtmlDepth--;
+            }
+            writer.writeEndElement();
+            break;
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.SPACE:
+            if (xhtmlDepth > 0 || !reader.isWhiteSpace()) {
+              writer.writeCharacters(reader.getTextCharacters(),
+                  reader.getTextStart(), reader.getTextLength());
+            }
+            break;
+          case XMLStreamConstants.CDATA:
+            writer.writeCData(reader.getText());
+            break;
+          default:
+            // Comments, processing instructions and the declaration are dropped
+            break;
+        }
+      }
+      writer.flush();
+    } finally {
+      reader.close();
+      writer.close();
+    }
+    return out.toString();
+  }
+
+  /**
+   * The narrative has child elements, whereas other text elements only have a value attribute
+   */
+  private static boolean isNarrative(XMLStreamReader reader) {
+    return NARRATIVE.equals(reader.getLocalName())
+        && FHIR_NAMESPACE.equals(reader.getNamespaceURI())
+        && reader.getAttributeValue(null, "value") == null;
+  }
+
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      var event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+  private static void copyStartElement(XMLStreamReader reader, XMLStreamWriter writer)
+      throws XMLStreamException {
+    var prefix = reader.getPrefix() == null ? "" : reader.getPrefix();
+    var namespace = reader.getNamespaceURI() == null ? "" : reader.getNamespaceURI();
+    writer.writeStartElement(prefix, reader.getLocalName(), namespace);
+
+    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+      var declaredPrefix = reader.getNamespacePrefix(i);
+      if (declaredPrefix == null || declaredPrefix.isEmpty()) {
+        writer.writeDefaultNamespace(reader.getNamespaceURI(i));
+      } else {
+        writer.writeNamespace(declaredPrefix, reader.getNamespaceURI(i));
+      }
+    }
+    for (int i = 0; i < reader.getAttributeCount(); i++) {
+      var attributePrefix = reader.getAttributePrefix(i);
+      var attributeNamespace = reader.getAttributeNamespace(i);
+      if (attributeNamespace == null || attributeNamespace.isEmpty()) {
+        writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+      } else {
+        writer.writeAttribute(attributePrefix == null ? "" : attributePrefix, attributeNamespace,
+            reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+      }
+    }
+  }
+
+  private static boolean isJson(MediaType mediaType) {
+    return mediaType != null && JSON_TYPES.stream().anyMatch(mediaType::isCompatibleWith);
+  }
+
+  private static boolean isXml(MediaType mediaType) {
+    return mediaType != null && XML_TYPES.stream().anyMatch(mediaType::isCompatibleWith);
+  }
+
+  private static XMLInputFactory xmlInputFactory() {
+    var factory = XMLInputFactory.newFactory();
+    // Audited bodies are untrusted, so never resolve DTDs or external entities
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    return factory;
+  }
+}
@@ -1,5 +1,6 @@
 package uk.nhs.cactus.common.audit;
 
+import com.google.common.hash.Hashing;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Base64;
@@ -11,9 +12,11 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.ObjectUtils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
+import uk.nhs.cactus.common.audit.model.BodyDigest;
 import uk.nhs.cactus.common.audit.model.HttpExchange;
 
 @Component
@@ -21,7 +24,16 @@ import uk.nhs.cactus.common.audit.model.HttpExchange;
 @RequiredArgsConstructor
 public class HttpExchangeHelper {
 
+  private static final String TRUNCATION_MARKER = "...[truncated, captured %d of %d]";
+
+  /**
+   * Bodies longer than this are truncated when captured for audit. 0 captures bodies in full.
+   */
+  @Value("${audit.body.max-bytes:1048576}")
+  private int maxBodyBytes;
+
   private final GzipDecoder gzipDecoder;
+  private final FhirBodyCompactor bodyCompactor;
 
   private static final List<MediaType> TEXT_FORMATS = Arrays.asList(
       MediaType.parseMediaType("text/*"),
@@ -29,7 +41,10 @@ public class HttpExchangeHelper {
       MediaType.parseMediaType("application/javascript"),
       MediaType.parseMediaType("application/xml"),
       MediaType.parseMediaType("application/*+json"),
-      MediaType.parseMediaType("application/*+xml")
+      MediaType.parseMediaType("application/*+xml"),
+      // Pre-STU3 FHIR types, which put the suffix the other way round
+      MediaType.parseMediaType("application/json+fhir"),
+      MediaType.parseMediaType("application/xml+fhir")
   );
 
   public Collection<String> getHeaders(HttpExchange exchange, String name) {
@@ -45,22 +60,133 @@ public class HttpExchangeHelper {
   }
 
   public String getBodyString(HttpExchange exchange, String path) {
+    var contentType = getContentType(exchange);
+    var compactable = contentType.filter(bodyCompactor::isCompactable);
+
+    String bodyText = exchange.getBodyText();
+    if (bodyText != null) {
+      return bodyText.isEmpty() ? null : truncate(compact(bodyText, compactable));
+    }
+
     byte[] body = exchange.getBody();
     if (ArrayUtils.isEmpty(body)) {
       return null;
     }
 
-    var getAsText = getHeader(exchange, HttpHeaders.CONTENT_TYPE)
-        .map(MediaType::parseMediaType)
+    int length = capturedLength(body.length);
+    String marker = length < body.length ? truncationMarker(length, body.length) : "";
+
+    var getAsText = contentType
         .filter(mediaType -> TEXT_FORMATS.stream().anyMatch(mediaType::isCompatibleWith))
-        .map(mediaType -> new String(body,
-            ObjectUtils.defaultIfNull(mediaType.getCharset(), StandardCharsets.UTF_8)));
+        .map(mediaType -> {
+          var charset = ObjectUtils.defaultIfNull(mediaType.getCharset(), StandardCharsets.UTF_8);
+          // Compacted in full before truncating, as a truncated body can't be parsed
+          if (compactable.isPresent()) {
+            return truncate(compact(new String(body, charset), compactable));
+          }
+          if (length < body.length && charset.equals(StandardCharsets.UTF_8)) {
+            int end = characterBoundary(body, length);
+            return new String(body, 0, end, charset) + truncationMarker(end, body.length);
+          }
+          return new String(body, 0, length, charset) + marker;
+        });
     var getAsGzip = getHeader(exchange, HttpHeaders.CONTENT_ENCODING)
-        .map(contentEncoding -> gzipDecoder.decode(body, path, contentEncoding));
+        .map(contentEncoding -> gzipDecoder.decode(body, path, contentEncoding))
+        .map(text -> compact(text, compactable))
+        .map(this::truncate);
 
     return getAsGzip
         .or(() -> getAsText)
-        .orElseGet(() -> Base64.getEncoder().encodeToString(body));
+        .orElseGet(() -> Base64.getEncoder()
+            .encodeToString(length < body.length ? Arrays.copyOf(body, length) : body) + marker);
+  }
+
+  /**
+   * @return the size and digest of the body as received, if it is stored compacted
+   */
+  public BodyDigest getBodyDigest(HttpExchange exchange) {
+    if (getContentType(exchange).filter(bodyCompactor::isCompactable).isEmpty()) {
+      return null;
+    }
+
+    byte[] body = exchange.getBodyText() != null
+        ? exchange.getBodyText().getBytes(StandardCharsets.UTF_8)
+        : exchange.getBody();
+    if (ArrayUtils.isEmpty(body)) {
+      return null;
+    }
+    return BodyDigest.builder()
+        .bytes(body.length)
+        .sha256(Hashing.sha256().hashBytes(body).toString())
+        .build();
+  }
+
+  private Optional<MediaType> getContentType(HttpExchange exchange) {
+    return getHeader(exchange, HttpHeaders.CONTENT_TYPE)
+        .map(MediaType::parseMediaType);
+  }
+
+  private String compact(String text, Optional<MediaType> compactable) {
+    return compactable
+        .map(mediaType -> bodyCompactor.compact(text, mediaType))
+        .orElse(text);
+  }
+
+  private int capturedLength(int length) {
+    return maxBodyBytes > 0 ? Math.min(length, maxBodyBytes) : length;
+  }
+
+  /**
+   * Truncates to at most {@code maxBodyBytes} when encoded as UTF-8, without splitting a character
+   */
+  private String truncate(String text) {
+    // No character takes more than 3 bytes per UTF-16 char, so short text needs no counting
+    if (maxBodyBytes <= 0 || text.length() <= maxBodyBytes / 3) {
+      return text;
+    }
+
+    int bytes = 0;
+    int end = -1;
+    int captured = 0;
+    for (int i = 0; i < text.length(); ) {
+      int codePoint = text.codePointAt(i);
+      int size = utf8Length(codePoint);
+      if (end < 0 && bytes + size > maxBodyBytes) {
+        end = i;
+        captured = bytes;
+      }
+      bytes += size;
+      i += Character.charCount(codePoint);
+    }
+    return end < 0 ? text : text.substring(0, end) + truncationMarker(captured, bytes);
+  }
+
+  private static int utf8Length(int codePoint) {
+    if (codePoint < 0x80 || Character.isSurrogate((char) codePoint)) {
+      // Unpaired surrogates are encoded as a single '?'
+      return 1;
+    } else if (codePoint < 0x800) {
+      return 2;
+    } else if (codePoint < 0x10000) {
+      return 3;
+    }
+    return 4;
+  }
+
+  /**
+   * @return the largest length up to {@code length} that doesn't split a UTF-8 character
+   */
+  private static int characterBoundary(byte[] utf8, int length) {
+    int end = length;
+    // Back up over continuation bytes (10xxxxxx) to the start of the split character
+    while (end > 0 && (utf8[end] & 0xC0) == 0x80) {
+      end--;
+    }
+    return end;
+  }
+
+  private static String truncationMarker(int captured, int total) {
+    return String.format(TRUNCATION_MARKER, captured, total);
   }
 
   public String getHeadersString(HttpExchange exchange) {
@@ -0,0 +1,109 @@
+package uk.nhs.cactus.common.audit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * A fixed-size, lock-free latency histogram with the log-linear layout of an HDR histogram: each
+ * power of two of microseconds is split into {@value #SUB_BUCKETS} equal buckets, so every
+ * recorded latency is kept to within about 3%, from a microsecond up to about 19 hours, in
+ * around 8KB however many latencies are recorded.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 36;
+  private static final long MAX_MICROS = (1L << (MAX_EXPONENT + 1)) - 1;
+  private static final int BUCKETS = SUB_BUCKETS * (MAX_EXPONENT - SUB_BUCKET_BITS + 2);
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalMicros = new LongAdder();
+  private final LongAccumulator maxMicros = new LongAccumulator(Long::max, 0);
+
+  public void record(long nanos) {
+    var micros = Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0), MAX_MICROS);
+    counts.incrementAndGet(bucketOf(micros));
+    count.increment();
+    totalMicros.add(micros);
+    maxMicros.accumulate(micros);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the latency in milliseconds that the given percentage of recorded latencies are at
+   * or under, rounded up to the top of its bucket, or 0 if none are recorded
+   */
+  public double getPercentileMillis(double percentile) {
+    var total = 0L;
+    var bucketCounts = new long[BUCKETS];
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      bucketCounts[bucket] = counts.get(bucket);
+      total += bucketCounts[bucket];
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    var target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    var seen = 0L;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      seen += bucketCounts[bucket];
+      if (seen >= target) {
+        return Math.min(highestInBucket(bucket), maxMicros.get()) / 1000.0;
+      }
+    }
+    return maxMicros.get() / 1000.0;
+  }
+
+  public Snapshot snapshot() {
+    var recorded = count.sum();
+    return Snapshot.builder()
+        .count(recorded)
+        .meanMillis(recorded == 0 ? 0 : totalMicros.sum() / 1000.0 / recorded)
+        .p50Millis(getPercentileMillis(50))
+        .p90Millis(getPercentileMillis(90))
+        .p99Millis(getPercentileMillis(99))
+        .maxMillis(maxMicros.get() / 1000.0)
+        .build();
+  }
+
+  static int bucketOf(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    var exponent = 63 - Long.numberOfLeadingZeros(micros);
+    var shift = exponent - SUB_BUCKET_BITS;
+    var subBucket = (int) (micros >>> shift) - SUB_BUCKETS;
+    return SUB_BUCKETS * (shift + 1) + subBucket;
+  }
+
+  static long highestInBucket(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    var shift = bucket / SUB_BUCKETS - 1;
+    var lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  @Value
+  @Builder
+  public static class Snapshot {
+    long count;
+    double meanMillis;
+    double p50Millis;
+    double p90Millis;
+    double p99Millis;
+    double maxMillis;
+  }
+}
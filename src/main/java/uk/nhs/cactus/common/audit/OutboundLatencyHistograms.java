@@ -0,0 +1,91 @@
+package uk.nhs.cactus.common.audit;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.nhs.cactus.common.audit.LatencyHistogram.Snapshot;
+
+/**
+ * Latency histograms of outgoing FHIR calls, one per server base URL, to find slow downstream
+ * servers at runtime. The base URL is the call's URL up to the first resource type, operation or
+ * other FHIR path segment. Memory is fixed: servers beyond {@code audit.latency.max-servers}
+ * share one histogram under {@value #OTHER}.
+ */
+@Component
+public class OutboundLatencyHistograms {
+
+  static final String OTHER = "other";
+
+  @Value("${audit.latency.enabled:true}")
+  private boolean enabled;
+
+  @Value("${audit.latency.max-servers:100}")
+  private int maxServers;
+
+  private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+  public void record(String url, long nanos) {
+    if (!enabled || url == null) {
+      return;
+    }
+
+    var baseUrl = baseUrl(url);
+    var histogram = histograms.get(baseUrl);
+    if (histogram == null) {
+      histogram = histograms.size() < maxServers
+          ? histograms.computeIfAbsent(baseUrl, key -> new LatencyHistogram())
+          : histograms.computeIfAbsent(OTHER, key -> new LatencyHistogram());
+    }
+    histogram.record(nanos);
+  }
+
+  /**
+   * @return latency statistics for each base URL called since startup
+   */
+  public Map<String, Snapshot> getSnapshots() {
+    var snapshots = new TreeMap<String, Snapshot>();
+    histograms.forEach((baseUrl, histogram) -> snapshots.put(baseUrl, histogram.snapshot()));
+    return snapshots;
+  }
+
+  static String baseUrl(String url) {
+    URI uri;
+    try {
+      uri = URI.create(url);
+    } catch (IllegalArgumentException e) {
+      return OTHER;
+    }
+    if (uri.getRawAuthority() == null) {
+      return OTHER;
+    }
+
+    var base = new StringBuilder()
+        .append(uri.getScheme()).append("://").append(uri.getRawAuthority());
+    var path = uri.getRawPath();
+    if (path != null) {
+      for (var segment : path.split("/")) {
+        if (segment.isEmpty()) {
+          continue;
+        }
+        if (isFhirSegment(segment)) {
+          break;
+        }
+        base.append('/').append(segment);
+      }
+    }
+    return base.toString();
+  }
+
+  /**
+   * Resource types are capitalised; operations, metadata and system interactions are not part of
+   * the base either
+   */
+  private static boolean isFhirSegment(String segment) {
+    var first = segment.charAt(0);
+    return Character.isUpperCase(first) || first == '$' || first == '_'
+        || segment.equals("metadata");
+  }
+}
@@ -0,0 +1,69 @@
+package uk.nhs.cactus.common.audit;
+
+import java.util.List;
+import java.util.Locale;
+import javax.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.nhs.cactus.common.security.TokenAuthenticationService;
+import uk.nhs.cactus.common.timing.RequestTimer;
+import uk.nhs.cactus.common.timing.TimingBreakdown;
+
+/**
+ * Tells callers where the time handling their request went, with a W3C {@code Server-Timing}
+ * header, so client teams can tell our latency from that of the servers we call.
+ * Timings reveal something of how we work, so are only given to the suppliers listed in
+ * {@code audit.server-timing.trusted-suppliers}, or to every authenticated supplier if it is
+ * {@code *}. Disabled unless {@code audit.server-timing.enabled} is set.
+ */
+@Component
+@RequiredArgsConstructor
+public class ServerTimingHeader {
+
+  static final String HEADER = "Server-Timing";
+  private static final String ANY_SUPPLIER = "*";
+
+  @Value("${audit.server-timing.enabled:false}")
+  private boolean enabled;
+
+  @Value("${audit.server-timing.trusted-suppliers:}")
+  private List<String> trustedSuppliers;
+
+  private final RequestTimer requestTimer;
+  private final TokenAuthenticationService authenticationService;
+
+  /**
+   * Adds the current request's timings to the response, if the caller is trusted and the
+   * response is not yet committed
+   */
+  public void addTo(HttpServletResponse response) {
+    if (!enabled || response.isCommitted() || !isTrusted()) {
+      return;
+    }
+    requestTimer.breakdown()
+        .ifPresent(timings -> response.addHeader(HEADER, format(timings)));
+  }
+
+  private boolean isTrusted() {
+    return authenticationService.getCurrentSupplierId()
+        .filter(supplierId -> trustedSuppliers != null
+            && (trustedSuppliers.contains(ANY_SUPPLIER) || trustedSuppliers.contains(supplierId)))
+        .isPresent();
+  }
+
+  static String format(TimingBreakdown timings) {
+    return String.join(", ",
+        metric("total", timings.getTotalMillis(), null),
+        metric("fhir", timings.getFhirMillis(), "FHIR calls (" + timings.getFhirCalls() + ")"),
+        metric("token", timings.getTokenExchangeMillis(),
+            "Token exchange (" + timings.getTokenExchanges() + ")"),
+        metric("audit", timings.getAuditMillis(), "Audit capture"),
+        metric("app", timings.getApplicationMillis(), "Application"));
+  }
+
+  private static String metric(String name, double millis, String description) {
+    var metric = String.format(Locale.ROOT, "%s;dur=%.1f", name, millis);
+    return description == null ? metric : metric + ";desc=\"" + description + "\"";
+  }
+}
@@ -1,19 +1,43 @@
 package uk.nhs.cactus.common.audit.config;
 
-import com.amazonaws.regions.Regions;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
 import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Profile;
 
 @Configuration
 public class AWSConfig {
 
+  @Value("${aws.region:eu-west-2}")
+  private String region;
+
+  /**
+   * Overrides the SQS endpoint, e.g. for a local stand-in
+   */
+  @Value("${aws.sqs.endpoint:}")
+  private String sqsEndpoint;
+
+  /**
+   * Only needed by the SQS audit sender, which injects it lazily, so the client and its
+   * credentials chain are not set up until the first audit is sent.
+   */
   @Bean
+  @Lazy
+  @Profile({"!dev & !audit-file", "audit-fanout"})
   public AmazonSQS sqsClient() {
-    return AmazonSQSClientBuilder.standard()
-        .withRegion(Regions.EU_WEST_2)
-        .build();
+    var builder = AmazonSQSClientBuilder.standard();
+    if (isNotBlank(sqsEndpoint)) {
+      builder.withEndpointConfiguration(new EndpointConfiguration(sqsEndpoint, region));
+    } else {
+      builder.withRegion(region);
+    }
+    return builder.build();
   }
 
 }
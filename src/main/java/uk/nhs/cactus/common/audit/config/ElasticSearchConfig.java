@@ -1,9 +1,14 @@
 package uk.nhs.cactus.common.audit.config;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 
+/**
+ * Sets up the ElasticSearch audit sink, only when an endpoint is configured in {@code es.audit}
+ */
 @Configuration
+@ConditionalOnProperty("es.audit")
 @ComponentScan("uk.nhs.cactus.common.elasticsearch")
 public class ElasticSearchConfig {
 
@@ -0,0 +1,85 @@
+package uk.nhs.cactus.common.audit.config;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Builder;
+import lombok.Value;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+/**
+ * A pooling connection manager that records how often connections are leased and how long
+ * callers wait for them, so the pool can be sized from {@link #getMetrics()}.
+ */
+public class InstrumentedConnectionManager extends PoolingHttpClientConnectionManager {
+
+  private final LongAdder leases = new LongAdder();
+  private final LongAdder leaseTimeouts = new LongAdder();
+  private final LongAdder totalWaitNanos = new LongAdder();
+  private final LongAccumulator maxWaitNanos = new LongAccumulator(Long::max, 0);
+
+  @Override
+  public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+    var request = super.requestConnection(route, state);
+
+    return new ConnectionRequest() {
+      @Override
+      public HttpClientConnection get(long timeout, TimeUnit unit)
+          throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+        long start = System.nanoTime();
+        try {
+          var connection = request.get(timeout, unit);
+          leases.increment();
+          return connection;
+        } catch (ConnectionPoolTimeoutException e) {
+          leaseTimeouts.increment();
+          throw e;
+        } finally {
+          long waited = System.nanoTime() - start;
+          totalWaitNanos.add(waited);
+          maxWaitNanos.accumulate(waited);
+        }
+      }
+
+      @Override
+      public boolean cancel() {
+        return request.cancel();
+      }
+    };
+  }
+
+  public PoolMetrics getMetrics() {
+    var stats = getTotalStats();
+    long leaseCount = leases.sum();
+    long attempts = leaseCount + leaseTimeouts.sum();
+
+    return PoolMetrics.builder()
+        .leased(stats.getLeased())
+        .pending(stats.getPending())
+        .available(stats.getAvailable())
+        .max(stats.getMax())
+        .leaseCount(leaseCount)
+        .leaseTimeouts(leaseTimeouts.sum())
+        .averageWaitMillis(attempts == 0 ? 0 : totalWaitNanos.sum() / 1e6 / attempts)
+        .maxWaitMillis(maxWaitNanos.get() / 1e6)
+        .build();
+  }
+
+  @Value
+  @Builder
+  public static class PoolMetrics {
+    int leased;
+    int pending;
+    int available;
+    int max;
+    long leaseCount;
+    long leaseTimeouts;
+    double averageWaitMillis;
+    double maxWaitMillis;
+  }
+}
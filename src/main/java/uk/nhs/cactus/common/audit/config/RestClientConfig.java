@@ -1,25 +1,130 @@
 package uk.nhs.cactus.common.audit.config;
 
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import lombok.RequiredArgsConstructor;
-import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
 @Configuration
 @RequiredArgsConstructor
 public class RestClientConfig {
 
+    // Currently only used for local-only services (i.e. audit server)
+    // a timeout of 50 should be acceptable locally
+    @Value("${cactus.http.connect-timeout:50}")
+    private int connectTimeout;
+
+    @Value("${cactus.http.read-timeout:50}")
+    private int readTimeout;
+
+    @Value("${cactus.http.lease-timeout:200}")
+    private int leaseTimeout;
+
+    /**
+     * Per-host timeout overrides, as a comma-separated list of
+     * {@code host=connectTimeout/readTimeout} (both in milliseconds).
+     */
+    @Value("${cactus.http.target-timeouts:}")
+    private String targetTimeouts;
+
+    @Value("${cactus.http.pool.max-total:50}")
+    private int maxTotal;
+
+    @Value("${cactus.http.pool.max-per-route:20}")
+    private int maxPerRoute;
+
+    @Value("${cactus.http.pool.idle-timeout-seconds:30}")
+    private long idleTimeoutSeconds;
+
+    @Bean
+    public InstrumentedConnectionManager auditConnectionManager() {
+        var connectionManager = new InstrumentedConnectionManager();
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        return connectionManager;
+    }
+
     @Bean
     public RestTemplate auditRestTemplate() {
-        // Currently only used for local-only services (i.e. audit server)
-        // a timeout of 50 should be acceptable locally
-        var timeout = 50; // using deprecated methods for compatibility with the EMS
-        // (which is on an older spring boot version)
-        return new RestTemplateBuilder()
-                .setConnectTimeout(timeout)
-                .setReadTimeout(timeout)
-                .build();
+        var httpClient = HttpClients.custom()
+            .setConnectionManager(auditConnectionManager())
+            .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+            .evictIdleConnections(idleTimeoutSeconds, TimeUnit.SECONDS)
+            .evictExpiredConnections()
+            .build();
+
+        var requestFactory = new TargetTimeoutRequestFactory(parseTargetTimeouts(targetTimeouts));
+        requestFactory.setHttpClient(httpClient);
+        requestFactory.setConnectTimeout(connectTimeout);
+        requestFactory.setReadTimeout(readTimeout);
+        requestFactory.setConnectionRequestTimeout(leaseTimeout);
+
+        return new RestTemplate(requestFactory);
+    }
+
+    Map<String, RequestConfig> parseTargetTimeouts(String targetTimeouts) {
+        var configs = new HashMap<String, RequestConfig>();
+        if (isBlank(targetTimeouts)) {
+            return configs;
+        }
+
+        for (var target : targetTimeouts.split(",")) {
+            var hostAndTimeouts = target.split("=", 2);
+            var timeouts = hostAndTimeouts.length == 2 ? hostAndTimeouts[1].split("/", 2) : null;
+            if (isBlank(hostAndTimeouts[0]) || timeouts == null || timeouts.length != 2) {
+                throw invalidTargetTimeout(target);
+            }
+            try {
+                configs.put(hostAndTimeouts[0].trim(), RequestConfig.custom()
+                    .setConnectTimeout(Integer.parseInt(timeouts[0].trim()))
+                    .setSocketTimeout(Integer.parseInt(timeouts[1].trim()))
+                    .setConnectionRequestTimeout(leaseTimeout)
+                    .build());
+            } catch (NumberFormatException e) {
+                throw invalidTargetTimeout(target);
+            }
+        }
+        return configs;
+    }
+
+    private static IllegalStateException invalidTargetTimeout(String target) {
+        return new IllegalStateException("Invalid entry '" + target.trim()
+            + "' in cactus.http.target-timeouts, expected host=connectTimeout/readTimeout");
+    }
+
+    /**
+     * Applies per-host timeouts, falling back to the factory defaults for other hosts.
+     */
+    @RequiredArgsConstructor
+    static class TargetTimeoutRequestFactory extends HttpComponentsClientHttpRequestFactory {
+
+        private final Map<String, RequestConfig> targetConfigs;
+
+        @Override
+        protected HttpContext createHttpContext(HttpMethod httpMethod, URI uri) {
+            var config = targetConfigs.get(uri.getHost());
+            if (config == null) {
+                return null;
+            }
+
+            var context = HttpClientContext.create();
+            context.setRequestConfig(config);
+            return context;
+        }
     }
 
 }
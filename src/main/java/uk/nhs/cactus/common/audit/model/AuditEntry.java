@@ -1,5 +1,6 @@
 package uk.nhs.cactus.common.audit.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.time.Instant;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
@@ -22,11 +23,43 @@ public class AuditEntry {
   String requestMethod;
   String requestHeaders;
   String requestBody;
+  BodyDigest requestBodyDigest;
+  /**
+   * Key of the request body in the session's body table, if it is stored there
+   */
+  String requestBodyRef;
 
   String responseStatus;
   String responseHeaders;
   String responseBody;
+  BodyDigest responseBodyDigest;
+  String responseBodyRef;
 
   Instant dateOfEntry;
+  /**
+   * From the request being sent to the response being read, from the monotonic clock
+   */
+  Long durationMillis;
+  /**
+   * From the request being sent to the response headers arriving, where the FHIR client exposes it
+   */
+  Long timeToFirstByteMillis;
+
+  /**
+   * {@link System#nanoTime()} readings, only meaningful within this process
+   */
+  @JsonIgnore
+  Long startNanos;
+  @JsonIgnore
+  Long endNanos;
+
+  /**
+   * Number of identical consecutive calls this entry stands for, if more than one, along with
+   * their timings
+   */
+  Integer repeatCount;
+  Long minDurationMillis;
+  Long maxDurationMillis;
+  Double avgDurationMillis;
 
 }
@@ -1,5 +1,6 @@
 package uk.nhs.cactus.common.audit.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
@@ -10,6 +11,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.Singular;
 import lombok.experimental.FieldDefaults;
+import uk.nhs.cactus.common.timing.TimingBreakdown;
 
 /**
  * Represents a call to this server containing calls to other servers
@@ -26,15 +28,33 @@ public class AuditSession {
   String requestMethod;
   String requestHeaders;
   String requestBody;
+  BodyDigest requestBodyDigest;
 
   String responseStatus;
   String responseHeaders;
   String responseBody;
+  BodyDigest responseBodyDigest;
 
   Instant createdDate;
+  /**
+   * From the request being received to the response being written, from the monotonic clock
+   */
+  Long durationMillis;
+  /**
+   * {@link System#nanoTime()} when the request was received, only meaningful within this process
+   */
+  @JsonIgnore
+  Long startNanos;
+  TimingBreakdown timings;
+
   @Singular
   List<AuditEntry> entries;
   @Singular
   Map<String, String> additionalProperties;
 
+  /**
+   * Entry bodies, stored once however many entries share them, keyed by SHA-256
+   */
+  Map<String, String> bodies;
+
 }
@@ -0,0 +1,23 @@
+package uk.nhs.cactus.common.audit.model;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Identifies the exact bytes of a body that was stored in a compacted form
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Builder
+public class BodyDigest {
+
+  long bytes;
+  String sha256;
+
+}
@@ -9,4 +9,11 @@ public interface HttpExchange {
 
   byte[] getBody();
 
+  /**
+   * @return the body, if it was captured as text rather than bytes
+   */
+  default String getBodyText() {
+    return null;
+  }
+
 }
@@ -1,21 +1,18 @@
 package uk.nhs.cactus.common.audit.model;
 
-import static java.util.function.Function.identity;
-import static java.util.stream.Collectors.toMap;
-
 import ca.uhn.fhir.rest.client.api.IHttpRequest;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
 import lombok.Builder;
 import lombok.Singular;
 import lombok.Value;
 import org.springframework.web.util.ContentCachingRequestWrapper;
 
 @Value
-@Builder
+@Builder(toBuilder = true)
 public class HttpRequest implements HttpExchange {
 
   String remoteHost;
@@ -23,16 +20,15 @@ public class HttpRequest implements HttpExchange {
   String uri;
   String error;
   byte[] body;
+  String bodyText;
   @Singular
   Map<String, List<String>> headers;
 
   public static HttpRequest from(IHttpRequest theRequest) {
     HttpRequestBuilder builder = HttpRequest.builder();
     try {
-      String requestBody = theRequest.getRequestBodyFromStream();
-      if (requestBody != null) {
-        builder.body(requestBody.getBytes(StandardCharsets.UTF_8));
-      }
+      // HAPI already holds the body as a String, so keep it rather than round-tripping bytes
+      builder.bodyText(theRequest.getRequestBodyFromStream());
     } catch (IOException e) {
       builder.error(e.getMessage());
     }
@@ -44,18 +40,32 @@ public class HttpRequest implements HttpExchange {
   }
 
   public static HttpRequest from(ContentCachingRequestWrapper requestWrapper) {
-    Map<String, List<String>> headers = Collections.list(requestWrapper.getHeaderNames())
-        .stream()
-        .collect(toMap(identity(),
-            name -> Collections.list(requestWrapper.getHeaders(name))));
+    return headersFrom(requestWrapper).withBody(requestWrapper.getContentAsByteArray());
+  }
 
-    return HttpRequest.builder()
-        .headers(headers)
-        .method(requestWrapper.getMethod())
-        .uri(requestWrapper.getRequestURI())
-        .body(requestWrapper.getContentAsByteArray())
-        .remoteHost(requestWrapper.getRemoteHost())
-        .build();
+  /**
+   * Snapshot of an inbound request's line and headers. The body is not read, as it will not have
+   * been consumed yet - see {@link #withBody(byte[])}.
+   */
+  public static HttpRequest headersFrom(HttpServletRequest request) {
+    var builder = HttpRequest.builder()
+        .remoteHost(request.getRemoteHost())
+        .method(request.getMethod())
+        .uri(request.getRequestURI());
+
+    var headerNames = request.getHeaderNames();
+    while (headerNames.hasMoreElements()) {
+      var name = headerNames.nextElement();
+      builder.header(name, Collections.list(request.getHeaders(name)));
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return a copy of this request with the given body
+   */
+  public HttpRequest withBody(byte[] body) {
+    return toBuilder().body(body).build();
   }
 
   public static HttpRequest from(org.springframework.http.HttpRequest request, byte[] body) {
@@ -9,10 +9,13 @@ import ca.uhn.fhir.rest.client.api.IHttpResponse;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import lombok.Builder;
 import lombok.Value;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.web.util.ContentCachingResponseWrapper;
 
@@ -24,19 +27,29 @@ public class HttpResponse implements HttpExchange {
   String statusText;
   byte[] body;
   Map<String, List<String>> headers;
+  /**
+   * For FHIR client responses, the time from sending the request to receiving the response headers
+   */
+  Long timeToFirstByteMillis;
 
+  /**
+   * Captures a FHIR client response. Where the response is backed by Apache HttpClient, the entity
+   * is read once and replaced with a repeatable entity over the same array, which HAPI then parses.
+   * This avoids buffering the entity in HAPI and copying it again for the audit.
+   */
   public static HttpResponse from(IHttpResponse response) throws IOException {
-    try (InputStream input = response.readEntity()) {
-
-      byte[] body = input != null ? input.readAllBytes() : null;
+    // HAPI starts the stop watch as the request is sent, and gets the response once its headers
+    // arrive, so read it before the body
+    var stopWatch = response.getRequestStopWatch();
+    Long timeToFirstByteMillis = stopWatch != null ? stopWatch.getMillis() : null;
 
-      return HttpResponse.builder()
-          .body(body)
-          .status(response.getStatus())
-          .statusText(response.getStatusInfo())
-          .headers(response.getAllHeaders())
-          .build();
-    }
+    return HttpResponse.builder()
+        .timeToFirstByteMillis(timeToFirstByteMillis)
+        .body(readSharedBody(response))
+        .status(response.getStatus())
+        .statusText(response.getStatusInfo())
+        .headers(response.getAllHeaders())
+        .build();
   }
 
   public static HttpResponse from(ContentCachingResponseWrapper responseWrapper, byte[] content) {
@@ -62,6 +75,46 @@ public class HttpResponse implements HttpExchange {
         .build();
   }
 
+  private static byte[] readSharedBody(IHttpResponse response) throws IOException {
+    if (response.getResponse() instanceof org.apache.http.HttpResponse) {
+      var apacheResponse = (org.apache.http.HttpResponse) response.getResponse();
+      var entity = apacheResponse.getEntity();
+      if (entity == null) {
+        return null;
+      }
+
+      byte[] body = readEntity(entity);
+      var sharedEntity = new ByteArrayEntity(body);
+      sharedEntity.setContentType(entity.getContentType());
+      sharedEntity.setContentEncoding(entity.getContentEncoding());
+      apacheResponse.setEntity(sharedEntity);
+      return body;
+    }
+
+    response.bufferEntity();
+    try (InputStream input = response.readEntity()) {
+      return input != null ? input.readAllBytes() : null;
+    }
+  }
+
+  private static byte[] readEntity(HttpEntity entity) throws IOException {
+    try (InputStream input = entity.getContent()) {
+      if (input == null) {
+        return new byte[0];
+      }
+
+      long length = entity.getContentLength();
+      if (length < 0 || length > Integer.MAX_VALUE) {
+        return input.readAllBytes();
+      }
+
+      // Read straight into an exactly sized array when the length is known
+      byte[] body = new byte[(int) length];
+      int read = input.readNBytes(body, 0, body.length);
+      return read == body.length ? body : Arrays.copyOf(body, read);
+    }
+  }
+
   private static List<String> mergeLists(List<String> a, List<String> b) {
     return concat(a.stream(), b.stream()).collect(toUnmodifiableList());
   }
@@ -0,0 +1,194 @@
+package uk.nhs.cactus.common.audit.replay;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.RateLimiter;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import uk.nhs.cactus.common.audit.config.MapperConfig;
+import uk.nhs.cactus.common.audit.model.AuditSession;
+
+/**
+ * Replays exported audit sessions (NDJSON, optionally gzipped, as written by the file audit
+ * sender) into a {@link ReplayTarget} such as ElasticSearch or SQS.
+ * Files are read in order and published in batches by a pool of workers, optionally rate
+ * limited. Progress is checkpointed so that an interrupted replay resumes where it stopped.
+ * Delivery is at least once: batches in flight when a replay stops are published again on resume.
+ */
+@Slf4j
+@Builder
+public class AuditReplayer {
+
+  @NonNull
+  private final ReplayTarget target;
+
+  @Builder.Default
+  private final ObjectMapper mapper = new MapperConfig().registryObjectMapper();
+
+  @Builder.Default
+  private final int parallelism = 4;
+
+  @Builder.Default
+  private final int batchSize = 500;
+
+  /**
+   * Maximum sessions published per second. 0 is unlimited.
+   */
+  @Builder.Default
+  private final double sessionsPerSecond = 0;
+
+  /**
+   * File recording progress. If null, progress is not kept between runs.
+   */
+  private final Path checkpointFile;
+
+  @Value
+  @Builder
+  public static class ReplayResult {
+    long read;
+    long published;
+    long failed;
+    long unreadable;
+  }
+
+  public ReplayResult replay(List<Path> files) throws IOException, InterruptedException {
+    var checkpoint = ReplayCheckpoint.load(checkpointFile);
+    var rateLimiter = sessionsPerSecond > 0 ? RateLimiter.create(sessionsPerSecond) : null;
+    var progress = new Progress();
+
+    var threadCount = new AtomicInteger();
+    ExecutorService workers = Executors.newFixedThreadPool(parallelism, runnable -> {
+      var thread = new Thread(runnable, "audit-replay-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    // Bounds the sessions held in memory to a couple of batches per worker
+    var inFlight = new Semaphore(parallelism * 2);
+
+    try {
+      for (var file : files) {
+        replayFile(file, checkpoint, rateLimiter, progress, workers, inFlight);
+      }
+      workers.shutdown();
+      workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } finally {
+      workers.shutdownNow();
+    }
+
+    var result = progress.toResult();
+    log.info("Audit replay finished: {}", result);
+    return result;
+  }
+
+  private void replayFile(Path file, ReplayCheckpoint checkpoint, RateLimiter rateLimiter,
+      Progress progress, ExecutorService workers, Semaphore inFlight)
+      throws IOException, InterruptedException {
+    var source = file.toAbsolutePath().normalize().toString();
+    var skip = checkpoint.linesDone(source);
+    if (skip > 0) {
+      log.info("Resuming replay of {} after line {}", file, skip);
+    }
+
+    try (var reader = open(file)) {
+      long lineNumber = 0;
+      long batchStart = skip;
+      var batch = new ArrayList<AuditSession>(batchSize);
+
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        if (lineNumber++ < skip || line.isBlank()) {
+          continue;
+        }
+
+        try {
+          batch.add(mapper.readValue(line, AuditSession.class));
+          progress.read.incrementAndGet();
+        } catch (IOException e) {
+          log.warn("Skipping unreadable audit session at {}:{}", file, lineNumber, e);
+          progress.unreadable.incrementAndGet();
+        }
+
+        if (batch.size() >= batchSize) {
+          submit(source, batchStart, lineNumber, batch, checkpoint, rateLimiter, progress,
+              workers, inFlight);
+          batch = new ArrayList<>(batchSize);
+          batchStart = lineNumber;
+        }
+      }
+
+      if (lineNumber > batchStart) {
+        submit(source, batchStart, lineNumber, batch, checkpoint, rateLimiter, progress,
+            workers, inFlight);
+      }
+    }
+  }
+
+  private void submit(String source, long from, long to, List<AuditSession> batch,
+      ReplayCheckpoint checkpoint, RateLimiter rateLimiter, Progress progress,
+      ExecutorService workers, Semaphore inFlight) throws InterruptedException {
+    if (rateLimiter != null && !batch.isEmpty()) {
+      rateLimiter.acquire(batch.size());
+    }
+    inFlight.acquire();
+
+    workers.execute(() -> {
+      try {
+        var failed = batch.isEmpty() ? 0 : target.publish(batch);
+        progress.published.addAndGet(batch.size() - failed);
+        progress.failed.addAndGet(failed);
+        if (failed == 0) {
+          checkpoint.complete(source, from, to);
+        }
+      } catch (Exception e) {
+        log.error("Unable to replay lines {}-{} of {}", from + 1, to, source, e);
+        progress.failed.addAndGet(batch.size());
+      } finally {
+        inFlight.release();
+      }
+    });
+  }
+
+  private static BufferedReader open(Path file) throws IOException {
+    InputStream in = Files.newInputStream(file);
+    if (file.getFileName().toString().endsWith(".gz")) {
+      in = new GZIPInputStream(in, 1 << 16);
+    }
+    return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+  }
+
+  private static class Progress {
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong unreadable = new AtomicLong();
+
+    ReplayResult toResult() {
+      return ReplayResult.builder()
+          .read(read.get())
+          .published(published.get())
+          .failed(failed.get())
+          .unreadable(unreadable.get())
+          .build();
+    }
+  }
+}
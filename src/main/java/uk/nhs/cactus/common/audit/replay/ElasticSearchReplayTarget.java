@@ -0,0 +1,93 @@
+package uk.nhs.cactus.common.audit.replay;
+
+import static java.util.stream.Collectors.groupingBy;
+import static uk.nhs.cactus.common.audit.model.AuditProperties.SUPPLIER_ID;
+
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.RequiredArgsConstructor;
+import uk.nhs.cactus.common.audit.model.AuditProperties;
+import uk.nhs.cactus.common.audit.model.AuditSession;
+import uk.nhs.cactus.common.elasticsearch.AuditIndexManager;
+import uk.nhs.cactus.common.elasticsearch.ElasticSearchClient;
+
+/**
+ * Reloads sessions into ElasticSearch with one bulk request per supplier index in each batch.
+ * Documents get the same metadata as those written by the local audit sender, with
+ * {@code @timestamp} taken from when the session was created rather than when it was replayed.
+ * Document IDs are derived from the sessions, so replaying a batch again, e.g. on resuming,
+ * leaves the documents already stored as they are rather than adding duplicates.
+ */
+@RequiredArgsConstructor
+public class ElasticSearchReplayTarget implements ReplayTarget {
+
+  private static final String UNKNOWN_SUPPLIER = "anonymous";
+  private static final int ID_DIGEST_DIGITS = 24;
+
+  private final ElasticSearchClient elasticSearchClient;
+  private final AuditIndexManager indexManager;
+  private final String owner;
+
+  @Override
+  public int publish(List<AuditSession> batch) throws IOException {
+    var bySupplier = batch.stream()
+        .collect(groupingBy(ElasticSearchReplayTarget::supplierId));
+
+    var failed = 0;
+    for (var supplierSessions : bySupplier.entrySet()) {
+      var index = indexManager.writeIndexFor(supplierSessions.getKey());
+      // Used as both the document ID and requestId, as by the local audit sender
+      var sessionsById = new LinkedHashMap<String, AuditSession>();
+      for (var session : supplierSessions.getValue()) {
+        sessionsById.put(documentId(session), session);
+      }
+      failed += elasticSearchClient.storeAll(index, sessionsById, this::metadata);
+    }
+    return failed;
+  }
+
+  private Map<String, Serializable> metadata(String id, AuditSession session) {
+    var createdDate = session.getCreatedDate();
+    return Map.of(
+        "requestId", id,
+        "@timestamp", createdDate != null ? createdDate : Instant.now(),
+        "@owner", owner);
+  }
+
+  /**
+   * The session's creation time, so IDs still sort by time, followed by a digest of the same
+   * identity the SQS sender deduplicates on. Sessions with no creation time fall back to a digest
+   * of what was requested and answered.
+   */
+  static String documentId(AuditSession session) {
+    var createdDate = session.getCreatedDate();
+    var properties = session.getAdditionalProperties();
+    var identity = createdDate != null
+        ? String.join("|",
+            properties == null ? "" : properties.getOrDefault(AuditProperties.INTERACTION_ID, ""),
+            createdDate.toString(),
+            String.valueOf(session.getRequestMethod()),
+            String.valueOf(session.getRequestUrl()))
+        : String.join("|",
+            String.valueOf(session.getRequestMethod()),
+            String.valueOf(session.getRequestUrl()),
+            String.valueOf(session.getRequestBody()),
+            String.valueOf(session.getResponseStatus()),
+            String.valueOf(session.getResponseBody()));
+    var digest = Hashing.sha256().hashString(identity, StandardCharsets.UTF_8).toString();
+    var millis = createdDate != null ? createdDate.toEpochMilli() : 0;
+    return String.format("%012x%s", millis, digest.substring(0, ID_DIGEST_DIGITS));
+  }
+
+  private static String supplierId(AuditSession session) {
+    var properties = session.getAdditionalProperties();
+    var supplierId = properties == null ? null : properties.get(SUPPLIER_ID);
+    return supplierId != null ? supplierId : UNKNOWN_SUPPLIER;
+  }
+}
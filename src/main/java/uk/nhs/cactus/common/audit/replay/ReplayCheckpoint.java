@@ -0,0 +1,91 @@
+package uk.nhs.cactus.common.audit.replay;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Records, for each replayed file, how many lines have been published with no gaps, so that an
+ * interrupted replay can resume from there. Batches finish out of order, so ranges that complete
+ * ahead of an earlier batch are held until the gap closes. A batch that fails leaves a gap, so it
+ * and everything after it in that file are replayed again on resume.
+ */
+class ReplayCheckpoint {
+
+  private final Path file;
+  private final Map<String, Long> committed = new HashMap<>();
+  private final Map<String, TreeMap<Long, Long>> pending = new HashMap<>();
+
+  private ReplayCheckpoint(Path file) {
+    this.file = file;
+  }
+
+  /**
+   * Loads the checkpoint from the given file if it exists. A null file keeps progress in memory
+   * only.
+   */
+  static ReplayCheckpoint load(Path file) throws IOException {
+    var checkpoint = new ReplayCheckpoint(file);
+    if (file != null && Files.exists(file)) {
+      var properties = new Properties();
+      try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        properties.load(reader);
+      }
+      properties.forEach((key, value) ->
+          checkpoint.committed.put((String) key, Long.parseLong((String) value)));
+    }
+    return checkpoint;
+  }
+
+  /**
+   * @return the number of lines of the source already published
+   */
+  synchronized long linesDone(String source) {
+    return committed.getOrDefault(source, 0L);
+  }
+
+  /**
+   * Marks lines {@code [from, to)} of the source as published, saving the checkpoint if that
+   * advanced it.
+   */
+  synchronized void complete(String source, long from, long to) throws IOException {
+    var ranges = pending.computeIfAbsent(source, key -> new TreeMap<>());
+    ranges.put(from, to);
+
+    var done = linesDone(source);
+    var advanced = false;
+    while (ranges.containsKey(done)) {
+      done = ranges.remove(done);
+      advanced = true;
+    }
+
+    if (advanced) {
+      committed.put(source, done);
+      save();
+    }
+  }
+
+  private void save() throws IOException {
+    if (file == null) {
+      return;
+    }
+
+    var properties = new Properties();
+    committed.forEach((source, lines) -> properties.setProperty(source, String.valueOf(lines)));
+
+    // Write then move, so an interruption never leaves a half-written checkpoint
+    var temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+      properties.store(writer, "Audit replay checkpoint");
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
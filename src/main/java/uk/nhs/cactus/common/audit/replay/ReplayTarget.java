@@ -0,0 +1,19 @@
+package uk.nhs.cactus.common.audit.replay;
+
+import java.io.IOException;
+import java.util.List;
+import uk.nhs.cactus.common.audit.model.AuditSession;
+
+/**
+ * Destination for audit sessions replayed by {@link AuditReplayer}
+ */
+public interface ReplayTarget {
+
+  /**
+   * Publishes a batch of sessions. Called concurrently from the replay workers.
+   *
+   * @return the number of sessions in the batch that could not be published
+   * @throws IOException if the batch as a whole could not be published
+   */
+  int publish(List<AuditSession> batch) throws IOException;
+}
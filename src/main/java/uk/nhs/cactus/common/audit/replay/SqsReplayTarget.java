@@ -0,0 +1,20 @@
+package uk.nhs.cactus.common.audit.replay;
+
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import uk.nhs.cactus.common.audit.model.AuditSession;
+import uk.nhs.cactus.common.audit.sender.AWSAuditSender;
+
+/**
+ * Re-drives sessions into the audit SQS queue using batched sends
+ */
+@RequiredArgsConstructor
+public class SqsReplayTarget implements ReplayTarget {
+
+  private final AWSAuditSender auditSender;
+
+  @Override
+  public int publish(List<AuditSession> batch) {
+    return auditSender.sendBatch(batch);
+  }
+}
@@ -1,30 +1,60 @@
 package uk.nhs.cactus.common.audit.sender;
 
+import static java.util.stream.Collectors.toMap;
+import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotEmpty;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
 import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.model.AmazonSQSException;
 import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
 import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
-import java.util.UUID;
+import com.google.common.base.Utf8;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
+import uk.nhs.cactus.common.audit.model.AuditProperties;
 import uk.nhs.cactus.common.audit.model.AuditSession;
 import uk.nhs.cactus.common.security.TokenAuthenticationService;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
-@Profile("!dev")
+@Profile({"!dev & !audit-file", "audit-fanout"})
 public class AWSAuditSender implements AuditSender {
 
     private static final String SENDER = "sender";
     private static final String SUPPLIER = "supplierId";
+    private static final int MAX_BATCH_SIZE = 10;
+    // SQS limits the combined size of the messages in a batch, as well as each message, to 256KB
+    private static final int MAX_BATCH_BYTES = 256 * 1024;
+    private static final String GROUP_SHARD_SEPARATOR = "#";
 
     @Value("${sqs.audit.queue}")
     private String loggingQueue;
@@ -32,42 +62,386 @@ public class AWSAuditSender implements AuditSender {
     @Value("${service.name}")
     private String serviceName;
 
+    /**
+     * Number of FIFO message groups each supplier's audits are spread across. Audits for the same
+     * interaction always share a group, so stay in order.
+     */
+    @Value("${sqs.audit.group-shards:1}")
+    private int groupShards;
+
+    /**
+     * Per-supplier overrides of {@code sqs.audit.group-shards}, as {@code supplierId=shards,...}
+     */
+    @Value("${sqs.audit.supplier-group-shards:}")
+    private String supplierGroupShards;
+
+    /**
+     * Attempts at each send, including the first. Only throttling, server and network errors are
+     * retried; the deduplication ID keeps a retry of a send that did arrive from being stored twice.
+     */
+    @Value("${sqs.audit.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${sqs.audit.retry-base-delay-millis:100}")
+    private long retryBaseDelayMillis;
+
+    @Value("${sqs.audit.retry-max-delay-millis:2000}")
+    private long retryMaxDelayMillis;
+
+    /**
+     * Audits waiting to be sent again after a transient error. Beyond this, for example during an
+     * SQS outage, failed audits are logged rather than held in memory.
+     */
+    @Value("${sqs.audit.max-pending-retries:1000}")
+    private int maxPendingRetries;
+
+    private Map<String, Integer> shardsBySupplier = Map.of();
+    private final ScheduledExecutorService retryExecutor = retryExecutor();
+    private final AtomicInteger pendingRetries = new AtomicInteger();
+
     private final ObjectMapper mapper;
+    @Lazy
     private final AmazonSQS sqsClient;
     private final TokenAuthenticationService authenticationService;
 
+    @PostConstruct
+    public void init() {
+        shardsBySupplier = parseGroupShards(supplierGroupShards);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        var dropped = retryExecutor.shutdownNow().size();
+        if (dropped > 0) {
+            log.warn("dropped {} audits waiting to be sent again to SQS", dropped);
+        }
+    }
+
+    private static ScheduledExecutorService retryExecutor() {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "audit-sqs-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
     @Override
     public void sendAudit(AuditSession session) {
+        sendAudit(session, (byte[]) null);
+    }
+
+    @Override
+    public void sendAudit(AuditSession session, byte[] json) {
         Preconditions.checkArgument(isNotEmpty(loggingQueue), "SQS Queue url must be provided");
 
         authenticationService.getCurrentSupplierId()
             .ifPresentOrElse(
-                supplierId -> sendRequest(session, supplierId),
+                supplierId -> sendRequest(session, json, supplierId),
                 () -> log.info("No supplier id found, not sending audit: {}", session)
             );
     }
 
-    private void sendRequest(AuditSession session, String supplierId) {
+    private void sendRequest(AuditSession session, byte[] json, String supplierId) {
         try {
+            String body = json != null
+                ? new String(json, StandardCharsets.UTF_8)
+                : mapper.writeValueAsString(session);
             SendMessageRequest request = new SendMessageRequest()
-                .withMessageGroupId(supplierId)
-                .withMessageDeduplicationId(UUID.randomUUID().toString())
+                .withMessageGroupId(messageGroupId(session, supplierId))
+                .withMessageDeduplicationId(deduplicationId(session, body))
                 .addMessageAttributesEntry(SENDER, stringAttribute(serviceName))
                 .addMessageAttributesEntry(SUPPLIER, stringAttribute(supplierId))
                 .withQueueUrl(loggingQueue)
-                .withMessageBody(mapper.writeValueAsString(session));
+                .withMessageBody(body);
+            send(request, session, 1);
+        } catch (Exception e) {
+            log.error("an error occurred sending audit session {} to SQS", format(session), e);
+        }
+    }
+
+    /**
+     * Sends once on the calling thread, which may be serving a request, so never waits to retry.
+     * Transient failures are instead retried after a backoff on {@link #retryExecutor}.
+     */
+    private void send(SendMessageRequest request, AuditSession session, int attempt) {
+        try {
             sqsClient.sendMessage(request);
-        } catch (AmazonSQSException e) {
-            if (e.getStatusCode() == 413) {
-                log.warn("Audit request exceeded max size SQS can handle", e);
-                //TODO: CDSCT-338 - Should we be auditing/paging audit search audits or excluding things
+        } catch (AmazonClientException e) {
+            var retrying = attempt < attempts() && isTransient(e)
+                && scheduleRetry(request, session, attempt, e);
+            if (retrying) {
+                return;
+            }
+            if (e instanceof AmazonSQSException) {
+                var sqsException = (AmazonSQSException) e;
+                if (sqsException.getStatusCode() == 413) {
+                    log.warn("Audit request exceeded max size SQS can handle", e);
+                    //TODO: CDSCT-338 - Should we be auditing/paging audit search audits or excluding things
+                }
+                log.error("an error occurred sending audit session {} to SQS: {}", format(session),
+                    sqsException.getErrorMessage());
+            } else {
+                log.error("an error occurred sending audit session {} to SQS", format(session), e);
             }
-            log.error("an error occurred sending audit session {} to SQS: {}", format(session), e.getErrorMessage());
         } catch (Exception e) {
             log.error("an error occurred sending audit session {} to SQS", format(session), e);
         }
     }
 
+    private boolean scheduleRetry(SendMessageRequest request, AuditSession session, int attempt,
+        AmazonClientException error) {
+        if (pendingRetries.incrementAndGet() > maxPendingRetries) {
+            pendingRetries.decrementAndGet();
+            log.warn("too many audits waiting to retry, not retrying: {}", error.getMessage());
+            return false;
+        }
+
+        var delay = backoffMillis(attempt);
+        log.warn("transient error sending audit to SQS, attempt {} of {}, retrying in {}ms: {}",
+            attempt, attempts(), delay, error.getMessage());
+        try {
+            retryExecutor.schedule(() -> {
+                pendingRetries.decrementAndGet();
+                send(request, session, attempt + 1);
+            }, delay, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            pendingRetries.decrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Sends sessions recorded earlier, e.g. when replaying an export, in batches of up to
+     * {@value #MAX_BATCH_SIZE} messages and {@value #MAX_BATCH_BYTES} bytes. A session too large
+     * to share a batch is sent on its own. The supplier is taken from each session rather than the
+     * current security context.
+     *
+     * @return the number of sessions that could not be sent
+     */
+    public int sendBatch(List<AuditSession> sessions) {
+        Preconditions.checkArgument(isNotEmpty(loggingQueue), "SQS Queue url must be provided");
+
+        var failed = 0;
+        var entries = new ArrayList<SendMessageBatchRequestEntry>(MAX_BATCH_SIZE);
+        var batchBytes = 0;
+        for (var session : sessions) {
+            var supplierId = session.getAdditionalProperties() == null ? null
+                : session.getAdditionalProperties().get(AuditProperties.SUPPLIER_ID);
+            if (supplierId == null) {
+                log.info("No supplier id found, not sending audit: {}", format(session));
+                failed++;
+                continue;
+            }
+
+            SendMessageBatchRequestEntry entry;
+            try {
+                var body = mapper.writeValueAsString(session);
+                entry = new SendMessageBatchRequestEntry()
+                    .withMessageGroupId(messageGroupId(session, supplierId))
+                    .withMessageDeduplicationId(deduplicationId(session, body))
+                    .addMessageAttributesEntry(SENDER, stringAttribute(serviceName))
+                    .addMessageAttributesEntry(SUPPLIER, stringAttribute(supplierId))
+                    .withMessageBody(body);
+            } catch (JsonProcessingException e) {
+                log.error("an error occurred serialising audit session {}", format(session), e);
+                failed++;
+                continue;
+            }
+
+            var entryBytes = messageBytes(entry);
+            var full = entries.size() == MAX_BATCH_SIZE
+                || batchBytes + entryBytes > MAX_BATCH_BYTES;
+            if (!entries.isEmpty() && full) {
+                failed += sendEntries(entries);
+                entries = new ArrayList<>(MAX_BATCH_SIZE);
+                batchBytes = 0;
+            }
+            entries.add(entry.withId(String.valueOf(entries.size())));
+            batchBytes += entryBytes;
+        }
+        if (!entries.isEmpty()) {
+            failed += sendEntries(entries);
+        }
+        return failed;
+    }
+
+    /**
+     * @return the size SQS counts towards its limits: the body and message attributes
+     */
+    private static int messageBytes(SendMessageBatchRequestEntry entry) {
+        var bytes = Utf8.encodedLength(entry.getMessageBody());
+        for (var attribute : entry.getMessageAttributes().entrySet()) {
+            bytes += Utf8.encodedLength(attribute.getKey())
+                + Utf8.encodedLength(attribute.getValue().getDataType())
+                + Utf8.encodedLength(attribute.getValue().getStringValue());
+        }
+        return bytes;
+    }
+
+    /**
+     * Sends a batch, sending again any entries that failed through no fault of their own
+     *
+     * @return the number of entries that could not be sent
+     */
+    private int sendEntries(List<SendMessageBatchRequestEntry> entries) {
+        var pending = entries;
+        var failed = 0;
+        try {
+            for (int attempt = 1; !pending.isEmpty(); attempt++) {
+                var batch = pending;
+                var result = withRetries(() -> sqsClient.sendMessageBatch(new SendMessageBatchRequest()
+                    .withQueueUrl(loggingQueue)
+                    .withEntries(batch)));
+
+                var byId = batch.stream()
+                    .collect(toMap(SendMessageBatchRequestEntry::getId, entry -> entry));
+                var retry = new ArrayList<SendMessageBatchRequestEntry>();
+                for (var failure : result.getFailed()) {
+                    if (!failure.isSenderFault() && attempt < attempts()) {
+                        retry.add(byId.get(failure.getId()));
+                    } else {
+                        log.error("an error occurred sending audit batch entry to SQS: {}", failure.getMessage());
+                        failed++;
+                    }
+                }
+                if (!retry.isEmpty()) {
+                    Thread.sleep(backoffMillis(attempt));
+                }
+                pending = retry;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("interrupted sending audit batch of {} to SQS", pending.size());
+            failed += pending.size();
+        } catch (Exception e) {
+            log.error("an error occurred sending audit batch of {} to SQS", pending.size(), e);
+            failed += pending.size();
+        }
+        return failed;
+    }
+
+    /**
+     * Sends, waiting on the calling thread to retry transient errors. Only for background sends
+     * such as replays; the request path retries without waiting, see
+     * {@link #send(SendMessageRequest, AuditSession, int)}.
+     */
+    private <T> T withRetries(Supplier<T> send) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return send.get();
+            } catch (AmazonClientException e) {
+                if (attempt >= attempts() || !isTransient(e)) {
+                    throw e;
+                }
+                var delay = backoffMillis(attempt);
+                log.warn("transient error sending audit to SQS, attempt {} of {}, retrying in {}ms: {}",
+                    attempt, attempts(), delay, e.getMessage());
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    private int attempts() {
+        return Math.max(1, maxAttempts);
+    }
+
+    /**
+     * Full jitter: a random delay up to an exponentially growing cap, so that senders retrying
+     * after the same throttling spread out rather than arriving together again
+     */
+    private long backoffMillis(int attempt) {
+        var cap = Math.min(retryMaxDelayMillis, retryBaseDelayMillis << Math.min(attempt - 1, 20));
+        return cap <= 0 ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    private static boolean isTransient(AmazonClientException e) {
+        if (e instanceof AmazonServiceException) {
+            return RetryUtils.isThrottlingException((AmazonServiceException) e)
+                || RetryUtils.isRetryableServiceException((AmazonServiceException) e);
+        }
+        return e.getCause() instanceof IOException;
+    }
+
+    /**
+     * Derived from the session's identity rather than generated, so that however many times a
+     * session is sent within the queue's deduplication window it is only delivered once.
+     * Sessions with no creation time fall back to a digest of the body.
+     */
+    private static String deduplicationId(AuditSession session, String body) {
+        if (session.getCreatedDate() == null) {
+            return Hashing.sha256().hashString(body, StandardCharsets.UTF_8).toString();
+        }
+
+        var properties = session.getAdditionalProperties();
+        var identity = String.join("|",
+            properties == null ? "" : properties.getOrDefault(AuditProperties.INTERACTION_ID, ""),
+            session.getCreatedDate().toString(),
+            String.valueOf(session.getRequestMethod()),
+            String.valueOf(session.getRequestUrl()));
+        return Hashing.sha256().hashString(identity, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * @return the supplier ID, with a shard suffix if the supplier's audits are sharded
+     */
+    String messageGroupId(AuditSession session, String supplierId) {
+        var shards = shardsBySupplier.getOrDefault(supplierId, groupShards);
+        if (shards <= 1) {
+            return supplierId;
+        }
+
+        var hash = Hashing.murmur3_32().hashString(correlationKey(session), StandardCharsets.UTF_8);
+        return supplierId + GROUP_SHARD_SEPARATOR + Math.floorMod(hash.asInt(), shards);
+    }
+
+    /**
+     * Sessions for the same interaction share a key. Others have no ordering to keep, so are
+     * spread by when and where they were made.
+     */
+    private static String correlationKey(AuditSession session) {
+        var properties = session.getAdditionalProperties();
+        var interactionId = properties == null ? null : properties.get(AuditProperties.INTERACTION_ID);
+        return interactionId != null
+            ? interactionId
+            : session.getCreatedDate() + session.getRequestUrl();
+    }
+
+    Map<String, Integer> parseGroupShards(String groupShards) {
+        var shards = new HashMap<String, Integer>();
+        if (isBlank(groupShards)) {
+            return shards;
+        }
+
+        for (var supplier : groupShards.split(",")) {
+            if (isBlank(supplier)) {
+                continue;
+            }
+            var supplierAndShards = supplier.split("=", 2);
+            if (isBlank(supplierAndShards[0]) || supplierAndShards.length != 2) {
+                throw invalidGroupShards(supplier);
+            }
+            int supplierShards;
+            try {
+                supplierShards = Integer.parseInt(supplierAndShards[1].trim());
+            } catch (NumberFormatException e) {
+                throw invalidGroupShards(supplier);
+            }
+            if (supplierShards < 1) {
+                throw invalidGroupShards(supplier);
+            }
+            shards.put(supplierAndShards[0].trim(), supplierShards);
+        }
+        return shards;
+    }
+
+    private static IllegalStateException invalidGroupShards(String supplier) {
+        return new IllegalStateException("Invalid entry '" + supplier.trim()
+            + "' in sqs.audit.supplier-group-shards, expected supplierId=shards with shards of at"
+            + " least 1");
+    }
+
     private String format(AuditSession session) {
         final var MAX_LENGTH = 1 << 10;
         String sessionString = session.toString();
@@ -5,4 +5,14 @@ import uk.nhs.cactus.common.audit.model.AuditSession;
 
 public interface AuditSender {
     void sendAudit(AuditSession session);
+
+    /**
+     * Sends a session that has already been serialised, so that senders sharing a session don't
+     * each encode it again. Senders that can't use the encoded form ignore it.
+     *
+     * @param json the session as UTF-8 JSON from the audit ObjectMapper
+     */
+    default void sendAudit(AuditSession session, byte[] json) {
+        sendAudit(session);
+    }
 }
@@ -0,0 +1,218 @@
+package uk.nhs.cactus.common.audit.sender;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.Builder;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+import org.springframework.stereotype.Service;
+import org.springframework.util.ClassUtils;
+import uk.nhs.cactus.common.audit.model.AuditSession;
+
+/**
+ * Sends each audit session to every other {@link AuditSender} in the context, e.g. to SQS and a
+ * local ElasticSearch during a migration. Each sink has its own bounded queue and worker thread,
+ * so a slow or failing sink cannot hold up the others or the request thread.
+ * The session is serialised once and the encoded bytes shared by all sinks.
+ */
+@Service
+@Primary
+@Slf4j
+@RequiredArgsConstructor
+@Profile("audit-fanout")
+public class CompositeAuditSender implements AuditSender {
+
+    public enum OverflowPolicy {
+        /**
+         * Discard the session for a sink whose queue is full
+         */
+        DROP,
+        /**
+         * Wait up to the block timeout for space in the queue, then discard
+         */
+        BLOCK
+    }
+
+    private static final long DROP_LOG_INTERVAL = 1000;
+
+    @Value("${audit.fanout.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${audit.fanout.overflow:DROP}")
+    private OverflowPolicy overflowPolicy;
+
+    @Value("${audit.fanout.block-timeout-millis:100}")
+    private long blockTimeoutMillis;
+
+    @Value("${audit.fanout.shutdown-timeout-seconds:5}")
+    private long shutdownTimeoutSeconds;
+
+    // Spring excludes this bean from its own collection injection, so these are the delegates
+    private final List<AuditSender> senders;
+    private final ObjectMapper mapper;
+
+    private List<Sink> sinks;
+
+    @PostConstruct
+    public void start() {
+        sinks = senders.stream()
+            .map(sender -> new Sink(ClassUtils.getUserClass(sender).getSimpleName(), sender))
+            .collect(toList());
+        log.info("Fanning out audits to {}", sinks.stream().map(sink -> sink.name).collect(toList()));
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        for (var sink : sinks) {
+            sink.executor.shutdown();
+        }
+        for (var sink : sinks) {
+            if (!sink.executor.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS)) {
+                log.warn("Audit sink {} did not drain in time, {} audits lost",
+                    sink.name, sink.executor.shutdownNow().size());
+            }
+        }
+    }
+
+    @Override
+    public void sendAudit(AuditSession session) {
+        byte[] json = null;
+        try {
+            json = mapper.writeValueAsBytes(session);
+        } catch (JsonProcessingException e) {
+            log.error("Unable to serialise audit session, sinks will serialise it themselves", e);
+        }
+        sendAudit(session, json);
+    }
+
+    @Override
+    public void sendAudit(AuditSession session, byte[] json) {
+        for (var sink : sinks) {
+            sink.submit(session, json);
+        }
+    }
+
+    /**
+     * @return delivery statistics for each sink, keyed by sink name
+     */
+    public Map<String, SinkStats> getStats() {
+        return sinks.stream()
+            .collect(toMap(sink -> sink.name, Sink::stats, (a, b) -> a, LinkedHashMap::new));
+    }
+
+    @lombok.Value
+    @Builder
+    public static class SinkStats {
+        int queued;
+        long sent;
+        long failed;
+        long dropped;
+        double averageLatencyMillis;
+        double maxLatencyMillis;
+    }
+
+    private class Sink {
+
+        private final String name;
+        private final AuditSender sender;
+        private final ThreadPoolExecutor executor;
+
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final AtomicLong dropped = new AtomicLong();
+        private final LongAdder totalLatencyNanos = new LongAdder();
+        private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+        Sink(String name, AuditSender sender) {
+            this.name = name;
+            this.sender = sender;
+            this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    var thread = new Thread(runnable, "audit-sink-" + name);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            // Started up front so that BLOCK can offer straight to the queue
+            executor.prestartAllCoreThreads();
+        }
+
+        void submit(AuditSession session, byte[] json) {
+            var enqueued = System.nanoTime();
+            // Senders look up the supplier from the security context, so carry it to the worker
+            Runnable task = new DelegatingSecurityContextRunnable(() -> deliver(session, json, enqueued));
+
+            try {
+                if (overflowPolicy == OverflowPolicy.BLOCK) {
+                    if (executor.isShutdown()
+                        || !executor.getQueue().offer(task, blockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                        drop();
+                    }
+                } else {
+                    executor.execute(task);
+                }
+            } catch (RejectedExecutionException e) {
+                drop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                drop();
+            }
+        }
+
+        private void deliver(AuditSession session, byte[] json, long enqueued) {
+            try {
+                sender.sendAudit(session, json);
+                sent.increment();
+            } catch (Exception e) {
+                failed.increment();
+                log.error("Audit sink {} failed to send audit session", name, e);
+            } finally {
+                var latency = System.nanoTime() - enqueued;
+                totalLatencyNanos.add(latency);
+                maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            }
+        }
+
+        private void drop() {
+            if (dropped.incrementAndGet() % DROP_LOG_INTERVAL == 1) {
+                log.warn("Audit sink {} is full, {} audits dropped so far", name, dropped.get());
+            }
+        }
+
+        private double toMillis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+
+        SinkStats stats() {
+            var sentCount = sent.sum();
+            var failedCount = failed.sum();
+            var delivered = sentCount + failedCount;
+            return SinkStats.builder()
+                .queued(executor.getQueue().size())
+                .sent(sentCount)
+                .failed(failedCount)
+                .dropped(dropped.get())
+                .averageLatencyMillis(delivered == 0 ? 0 : toMillis(totalLatencyNanos.sum() / delivered))
+                .maxLatencyMillis(toMillis(maxLatencyNanos.get()))
+                .build();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package uk.nhs.cactus.common.audit.sender;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import uk.nhs.cactus.common.audit.model.AuditSession;
+
+/**
+ * Writes audit sessions as newline-delimited JSON to rolling segment files, for environments with
+ * no SQS or ElasticSearch. Sessions are serialised on the calling thread and written by a single
+ * writer thread through a large buffer, so the request thread never waits on disk.
+ * Segments roll over by size and age, and may be gzipped.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+@Profile("audit-file")
+public class FileAuditSender implements AuditSender {
+
+    public enum FsyncPolicy {
+        /**
+         * Leave it to the OS. Buffers are still flushed whenever the writer is idle
+         */
+        NONE,
+        /**
+         * Sync at most once per fsync interval
+         */
+        INTERVAL,
+        /**
+         * Sync after every session. Durable, but limited by the disk's sync rate
+         */
+        EVERY_RECORD
+    }
+
+    private static final byte NEWLINE = '\n';
+    private static final int BATCH_SIZE = 1024;
+    private static final long IDLE_POLL_MILLIS = 100;
+    private static final long DROP_LOG_INTERVAL = 1000;
+    private static final DateTimeFormatter SEGMENT_TIMESTAMP =
+        DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
+
+    @Value("${audit.file.directory:audits}")
+    private String directory;
+
+    @Value("${audit.file.prefix:audit}")
+    private String prefix;
+
+    @Value("${audit.file.gzip:false}")
+    private boolean gzip;
+
+    /**
+     * Segment size limit, counted before compression
+     */
+    @Value("${audit.file.max-segment-bytes:268435456}")
+    private long maxSegmentBytes;
+
+    @Value("${audit.file.max-segment-age-seconds:3600}")
+    private long maxSegmentAgeSeconds;
+
+    @Value("${audit.file.fsync:INTERVAL}")
+    private FsyncPolicy fsyncPolicy;
+
+    @Value("${audit.file.fsync-interval-millis:1000}")
+    private long fsyncIntervalMillis;
+
+    @Value("${audit.file.buffer-bytes:1048576}")
+    private int bufferBytes;
+
+    @Value("${audit.file.queue-capacity:65536}")
+    private int queueCapacity;
+
+    private final ObjectMapper mapper;
+    private final Clock clock;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private BlockingQueue<byte[]> queue;
+    private Thread writer;
+    private volatile boolean running;
+
+    // Writer thread state
+    private Segment segment;
+    private int segmentSequence;
+    private long lastSyncMillis;
+
+    @PostConstruct
+    public void start() throws IOException {
+        Files.createDirectories(Paths.get(directory));
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        running = true;
+        writer = new Thread(this::writeLoop, "audit-file-writer");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("Writing audits to {}", Paths.get(directory).toAbsolutePath());
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (writer != null) {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    @Override
+    public void sendAudit(AuditSession session) {
+        try {
+            enqueue(mapper.writeValueAsBytes(session));
+        } catch (IOException e) {
+            log.error("Unable to serialise audit session", e);
+        }
+    }
+
+    @Override
+    public void sendAudit(AuditSession session, byte[] json) {
+        if (json == null) {
+            sendAudit(session);
+        } else {
+            enqueue(json);
+        }
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void enqueue(byte[] json) {
+        if (!running || !queue.offer(json)) {
+            if (dropped.incrementAndGet() % DROP_LOG_INTERVAL == 1) {
+                log.warn("Audit file queue full, {} audits dropped so far", dropped.get());
+            }
+        }
+    }
+
+    private void writeLoop() {
+        var batch = new ArrayList<byte[]>(BATCH_SIZE);
+        try {
+            while (running || !queue.isEmpty()) {
+                var first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    flushIdle();
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                write(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeSegment();
+        }
+    }
+
+    private void write(List<byte[]> batch) {
+        for (var json : batch) {
+            try {
+                if (segment == null || isDue(segment)) {
+                    closeSegment();
+                    segment = openSegment();
+                }
+                segment.out.write(json);
+                segment.out.write(NEWLINE);
+                segment.bytes += json.length + 1;
+                segment.dirty = true;
+                written.incrementAndGet();
+
+                if (fsyncPolicy == FsyncPolicy.EVERY_RECORD) {
+                    segment.sync();
+                }
+            } catch (IOException e) {
+                log.error("Unable to write audit session to {}",
+                    segment != null ? segment.path : directory, e);
+                closeSegment();
+            }
+        }
+
+        var now = clock.millis();
+        if (fsyncPolicy == FsyncPolicy.INTERVAL && segment != null
+            && now - lastSyncMillis >= fsyncIntervalMillis) {
+            try {
+                segment.sync();
+            } catch (IOException e) {
+                log.error("Unable to sync audit file {}", segment.path, e);
+            }
+            lastSyncMillis = now;
+        }
+    }
+
+    private void flushIdle() {
+        if (segment == null) {
+            return;
+        }
+        if (segment.dirty) {
+            try {
+                if (fsyncPolicy == FsyncPolicy.NONE) {
+                    segment.out.flush();
+                    segment.dirty = false;
+                } else {
+                    segment.sync();
+                    lastSyncMillis = clock.millis();
+                }
+            } catch (IOException e) {
+                log.error("Unable to flush audit file {}", segment.path, e);
+            }
+        }
+        if (isDue(segment)) {
+            closeSegment();
+        }
+    }
+
+    private boolean isDue(Segment segment) {
+        return segment.bytes >= maxSegmentBytes
+            || clock.millis() - segment.openedMillis >= TimeUnit.SECONDS.toMillis(maxSegmentAgeSeconds);
+    }
+
+    private Segment openSegment() throws IOException {
+        var opened = clock.millis();
+        var name = String.format("%s-%s-%04d.ndjson%s", prefix,
+            SEGMENT_TIMESTAMP.format(clock.instant()), segmentSequence++, gzip ? ".gz" : "");
+        var path = Paths.get(directory, name);
+
+        var file = new FileOutputStream(path.toFile(), true);
+        // Sync flush so that flushed data can be read back before the segment is closed
+        var compressed = gzip ? new GZIPOutputStream(file, bufferBytes, true) : null;
+        var out = new BufferedOutputStream(compressed != null ? compressed : file, bufferBytes);
+        log.debug("Opened audit segment {}", path);
+        return new Segment(path, file, compressed, out, opened);
+    }
+
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.out.flush();
+            if (segment.compressed != null) {
+                segment.compressed.finish();
+            }
+            if (fsyncPolicy != FsyncPolicy.NONE) {
+                segment.file.getFD().sync();
+            }
+            segment.out.close();
+        } catch (IOException e) {
+            log.error("Unable to close audit file {}", segment.path, e);
+        }
+        segment = null;
+    }
+
+    @RequiredArgsConstructor
+    private static class Segment {
+        private final Path path;
+        private final FileOutputStream file;
+        private final GZIPOutputStream compressed;
+        private final OutputStream out;
+        private final long openedMillis;
+        private long bytes;
+        private boolean dirty;
+
+        void sync() throws IOException {
+            out.flush();
+            file.getFD().sync();
+            dirty = false;
+        }
+    }
+}
@@ -4,26 +4,31 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.time.Instant;
 import java.util.Map;
-import java.util.UUID;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 import uk.nhs.cactus.common.audit.model.AuditSession;
+import uk.nhs.cactus.common.elasticsearch.AuditIndexManager;
 import uk.nhs.cactus.common.elasticsearch.ElasticSearchClient;
+import uk.nhs.cactus.common.elasticsearch.TimeOrderedIdGenerator;
 import uk.nhs.cactus.common.security.TokenAuthenticationService;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
-@Profile("dev")
+@Profile({"dev & !audit-file", "audit-fanout"})
+@ConditionalOnProperty("es.audit")
 public class LocalAuditSender implements AuditSender {
 
     private final ObjectMapper mapper;
     private final ElasticSearchClient elasticSearchClient;
+    private final AuditIndexManager indexManager;
     private final TokenAuthenticationService authenticationService;
+    private final TimeOrderedIdGenerator idGenerator;
 
     @Value("${service.name}")
     private String serviceName;
@@ -31,16 +36,28 @@ public class LocalAuditSender implements AuditSender {
     @Override
     public void sendAudit(AuditSession audit) {
         var supplierId = authenticationService.getCurrentSupplierId().orElse("anonymous");
+        // Used as both the document ID and requestId. Stored only if the ID is new, so an audit
+        // given an ID already in use is logged below rather than dropped or overwriting another
+        var id = idGenerator.next();
         var metadata = Map.of(
-            "requestId", UUID.randomUUID(),
+            "requestId", id,
             "@timestamp", Instant.now(),
             "@owner", serviceName);
 
+        String index;
         try {
-            elasticSearchClient.store(supplierId + "-audit", audit, metadata);
+            index = indexManager.writeIndexFor(supplierId);
         } catch (IOException e) {
             logAudit(audit);
+            return;
         }
+
+        elasticSearchClient.storeAsync(index, id, audit, metadata)
+            .whenComplete((result, error) -> {
+                if (error != null) {
+                    logAudit(audit);
+                }
+            });
     }
 
     @SneakyThrows
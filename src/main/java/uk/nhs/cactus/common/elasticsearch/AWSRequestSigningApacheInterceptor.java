@@ -6,22 +6,29 @@ import com.amazonaws.DefaultRequest;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.Signer;
 import com.amazonaws.http.HttpMethodName;
+import com.amazonaws.util.BinaryUtils;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import lombok.RequiredArgsConstructor;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.BufferedHttpEntity;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.protocol.HttpContext;
 
@@ -78,11 +85,7 @@ public class AWSRequestSigningApacheInterceptor implements HttpRequestIntercepto
     }
 
     if (request instanceof HttpEntityEnclosingRequest) {
-      HttpEntityEnclosingRequest httpEntityEnclosingRequest =
-          (HttpEntityEnclosingRequest) request;
-      if (httpEntityEnclosingRequest.getEntity() != null) {
-        signableRequest.setContent(httpEntityEnclosingRequest.getEntity().getContent());
-      }
+      preparePayload((HttpEntityEnclosingRequest) request, signableRequest);
     }
     signableRequest.setParameters(nvpToMapParams(uriBuilder.getQueryParams()));
     signableRequest.setHeaders(headerArrayToMap(request.getAllHeaders()));
@@ -90,17 +93,52 @@ public class AWSRequestSigningApacheInterceptor implements HttpRequestIntercepto
     // Sign it
     signer.sign(signableRequest, awsCredentialsProvider.getCredentials());
 
-    // Now copy everything back
+    // Now copy the signed headers back. The entity is left in place, so repeatable entities
+    // stay repeatable and nothing is re-buffered.
     request.setHeaders(mapToHeaderArray(signableRequest.getHeaders()));
-    if (request instanceof HttpEntityEnclosingRequest) {
-      HttpEntityEnclosingRequest httpEntityEnclosingRequest =
-          (HttpEntityEnclosingRequest) request;
-      if (httpEntityEnclosingRequest.getEntity() != null) {
-        BasicHttpEntity basicHttpEntity = new BasicHttpEntity();
-        basicHttpEntity.setContent(signableRequest.getContent());
-        httpEntityEnclosingRequest.setEntity(basicHttpEntity);
-      }
+  }
+
+  /**
+   * Makes the request payload available to the signer. For a {@link PayloadHashingAWS4Signer},
+   * the SHA-256 of the payload is computed by streaming the entity through a digest, with no
+   * copy. Other signers are given a fresh content stream to read. Non-repeatable entities are
+   * buffered once and replaced so the payload can still be sent after signing.
+   */
+  private void preparePayload(HttpEntityEnclosingRequest request,
+      DefaultRequest<?> signableRequest) throws IOException {
+    HttpEntity entity = request.getEntity();
+    if (entity == null) {
+      return;
+    }
+
+    if (!entity.isRepeatable()) {
+      entity = new BufferedHttpEntity(entity);
+      request.setEntity(entity);
+    }
+
+    if (signer instanceof PayloadHashingAWS4Signer) {
+      signableRequest.addHandlerContext(
+          PayloadHashingAWS4Signer.PAYLOAD_SHA256, sha256Hex(entity));
+      // Never read, but without content the signer takes a POST's query parameters for its body
+      // and leaves them out of the canonical query string
+      signableRequest.setContent(new ByteArrayInputStream(new byte[0]));
+    } else {
+      signableRequest.setContent(entity.getContent());
+    }
+  }
+
+  private static String sha256Hex(HttpEntity entity) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+    try (var digestStream = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+      entity.writeTo(digestStream);
     }
+    return BinaryUtils.toHex(digest.digest());
   }
 
   /**
@@ -0,0 +1,231 @@
+package uk.nhs.cactus.common.elasticsearch;
+
+import static java.util.stream.Collectors.groupingBy;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Manages the time-partitioned audit indices written by the local audit sender.
+ * Each supplier gets a series of indices named {@code <supplierId>-audit-000001},
+ * {@code <supplierId>-audit-000002}, etc. Writes go through {@link #writeAlias(String)}, which
+ * rolls over to a new index daily or by size. Searches go through {@link #readAlias(String)},
+ * which spans every index in the series as well as any legacy {@code <supplierId>-audit} index.
+ * An index in a series is deleted once it has had no writes for the retention period, that is
+ * once that long has passed since rollover created the next index in the series. The newest
+ * index in each series is never deleted. Any other indices matching the template pattern are
+ * left alone.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+@Profile({"dev & !audit-file", "audit-fanout"})
+@ConditionalOnProperty("es.audit")
+public class AuditIndexManager {
+
+  static final String TEMPLATE_NAME = "cactus-audit";
+  private static final String INDEX_PATTERN = "*-audit-*";
+  private static final String FIRST_INDEX_SUFFIX = "-audit-000001";
+  // Only indices named by rollover belong to a series, other services may share the pattern
+  private static final Pattern SERIES_INDEX = Pattern.compile("(.+-audit)-\\d{6}");
+
+  private static final Map<String, Object> UNINDEXED = Map.of(
+      "type", "keyword",
+      "index", false,
+      "doc_values", false);
+  private static final Map<String, Object> DATE = Map.of("type", "date");
+  // Stored but not parsed, so keys such as body hashes don't each add a field to the mapping
+  private static final Map<String, Object> UNMAPPED_OBJECT = Map.of(
+      "type", "object",
+      "enabled", false);
+
+  @Value("${es.audit.rollover.max-age:1d}")
+  private String maxAge;
+
+  @Value("${es.audit.rollover.max-size:50gb}")
+  private String maxSize;
+
+  @Value("${es.audit.retention:30d}")
+  private String retention;
+
+  @Value("${es.audit.maintenance-interval-minutes:60}")
+  private long maintenanceIntervalMinutes;
+
+  private final ElasticSearchClient elasticSearchClient;
+  private final SearchResultCache searchCache;
+
+  private final Set<String> bootstrappedSuppliers = ConcurrentHashMap.newKeySet();
+  private volatile boolean templateInstalled;
+  private ScheduledExecutorService scheduler;
+
+  public static String writeAlias(String supplierId) {
+    return supplierId + "-audit-write";
+  }
+
+  public static String readAlias(String supplierId) {
+    return supplierId + "-audit-read";
+  }
+
+  private static String legacyIndex(String supplierId) {
+    return supplierId + "-audit";
+  }
+
+  @PostConstruct
+  public void start() {
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      var thread = new Thread(runnable, "audit-index-maintenance");
+      thread.setDaemon(true);
+      return thread;
+    });
+    // In the background, so that startup doesn't wait on connecting to ElasticSearch
+    scheduler.execute(() -> {
+      try {
+        installTemplate();
+      } catch (IOException e) {
+        log.warn("Unable to install audit index template, will retry: {}", e.getMessage());
+      }
+    });
+    scheduler.scheduleWithFixedDelay(this::maintain,
+        maintenanceIntervalMinutes, maintenanceIntervalMinutes, TimeUnit.MINUTES);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  /**
+   * Ensures the supplier's index series exists.
+   *
+   * @return the alias that audits for this supplier should be written to
+   */
+  public String writeIndexFor(String supplierId) throws IOException {
+    if (!bootstrappedSuppliers.contains(supplierId)) {
+      bootstrap(supplierId);
+    }
+    return writeAlias(supplierId);
+  }
+
+  private synchronized void bootstrap(String supplierId) throws IOException {
+    if (bootstrappedSuppliers.contains(supplierId)) {
+      return;
+    }
+    if (!templateInstalled) {
+      installTemplate();
+    }
+
+    var writeAlias = writeAlias(supplierId);
+    var readAlias = readAlias(supplierId);
+    searchCache.link(writeAlias, readAlias);
+    if (!elasticSearchClient.aliasExists(writeAlias)) {
+      log.info("Creating audit index series for supplier {}", supplierId);
+      elasticSearchClient.createRolloverIndex(supplierId + FIRST_INDEX_SUFFIX, writeAlias, readAlias);
+
+      var legacyIndex = legacyIndex(supplierId);
+      if (elasticSearchClient.indexExists(legacyIndex)) {
+        elasticSearchClient.addAlias(legacyIndex, readAlias);
+      }
+    }
+    bootstrappedSuppliers.add(supplierId);
+  }
+
+  private void installTemplate() throws IOException {
+    var bodyFields = Map.<String, Object>of(
+        "requestHeaders", UNINDEXED,
+        "requestBody", UNINDEXED,
+        "responseHeaders", UNINDEXED,
+        "responseBody", UNINDEXED);
+
+    var properties = Map.<String, Object>of(
+        "requestHeaders", UNINDEXED,
+        "requestBody", UNINDEXED,
+        "responseHeaders", UNINDEXED,
+        "responseBody", UNINDEXED,
+        "entries", Map.of("properties", bodyFields),
+        "bodies", UNMAPPED_OBJECT,
+        "createdDate", DATE,
+        "@timestamp", DATE);
+
+    elasticSearchClient.putTemplate(TEMPLATE_NAME, List.of(INDEX_PATTERN),
+        Map.of("properties", properties));
+    templateInstalled = true;
+  }
+
+  void maintain() {
+    try {
+      if (!templateInstalled) {
+        installTemplate();
+      }
+      rollover();
+      deleteExpired();
+    } catch (Exception e) {
+      log.error("Audit index maintenance failed", e);
+    }
+  }
+
+  private void rollover() throws IOException {
+    var maxAgeValue = TimeValue.parseTimeValue(maxAge, "es.audit.rollover.max-age");
+    var maxSizeValue = ByteSizeValue.parseBytesSizeValue(maxSize, "es.audit.rollover.max-size");
+
+    for (var supplierId : bootstrappedSuppliers) {
+      if (elasticSearchClient.rollover(
+          writeAlias(supplierId), maxAgeValue, maxSizeValue, readAlias(supplierId))) {
+        log.info("Rolled over audit index for supplier {}", supplierId);
+      }
+    }
+  }
+
+  void deleteExpired() throws IOException {
+    var cutoff = Instant.now().minusMillis(
+        TimeValue.parseTimeValue(retention, "es.audit.retention").millis());
+
+    var series = elasticSearchClient.indexCreationDates(INDEX_PATTERN).entrySet().stream()
+        .filter(entry -> SERIES_INDEX.matcher(entry.getKey()).matches())
+        .collect(groupingBy(entry -> seriesName(entry.getKey())));
+
+    var expired = new ArrayList<String>();
+    for (var indices : series.values()) {
+      indices.sort(Map.Entry.comparingByKey());
+      // Each index stopped receiving writes when rollover created the next one, and the newest
+      // (write) index has no next one so is never deleted. Creation dates alone would delete an
+      // index written to just before it rolled over, e.g. after a supplier's long quiet spell.
+      for (int i = 0; i < indices.size() - 1; i++) {
+        if (indices.get(i + 1).getValue().isBefore(cutoff)) {
+          expired.add(indices.get(i).getKey());
+        }
+      }
+    }
+
+    if (!expired.isEmpty()) {
+      log.info("Deleting expired audit indices {}", expired);
+      elasticSearchClient.deleteIndices(expired);
+    }
+  }
+
+  private static String seriesName(String index) {
+    var matcher = SERIES_INDEX.matcher(index);
+    matcher.matches();
+    return matcher.group(1);
+  }
+}
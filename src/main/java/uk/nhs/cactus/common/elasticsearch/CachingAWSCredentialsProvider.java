@@ -0,0 +1,125 @@
+package uk.nhs.cactus.common.elasticsearch;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Caches credentials from a (possibly slow) delegate provider.
+ * Once cached credentials are older than {@code refreshAfter}, callers keep getting them while a
+ * single background refresh runs. They are only reloaded on the calling thread if they are older
+ * than {@code expireAfter}, for example after a failed refresh.
+ * If the credentials report when they expire, both are brought forward so that refreshing starts
+ * {@link #EXPIRY_REFRESH_AHEAD} before expiry and cached credentials are never handed out within
+ * {@link #EXPIRY_MARGIN} of it.
+ */
+@Slf4j
+public class CachingAWSCredentialsProvider implements AWSCredentialsProvider {
+
+  static final Duration EXPIRY_REFRESH_AHEAD = Duration.ofMinutes(5);
+  static final Duration EXPIRY_MARGIN = Duration.ofMinutes(1);
+
+  private final AWSCredentialsProvider delegate;
+  private final long refreshAfterNanos;
+  private final long expireAfterNanos;
+  private final Executor refreshExecutor;
+  private final Function<AWSCredentials, Optional<Instant>> expiration;
+  private final Clock clock;
+  private final LongSupplier nanoTime;
+
+  private final AtomicBoolean refreshing = new AtomicBoolean();
+  private volatile CachedCredentials cached;
+
+  /**
+   * @param expiration when the given credentials expire, if they say
+   */
+  public CachingAWSCredentialsProvider(AWSCredentialsProvider delegate,
+      Duration refreshAfter, Duration expireAfter, Executor refreshExecutor,
+      Function<AWSCredentials, Optional<Instant>> expiration) {
+    this(delegate, refreshAfter, expireAfter, refreshExecutor, expiration,
+        Clock.systemUTC(), System::nanoTime);
+  }
+
+  CachingAWSCredentialsProvider(AWSCredentialsProvider delegate,
+      Duration refreshAfter, Duration expireAfter, Executor refreshExecutor,
+      Function<AWSCredentials, Optional<Instant>> expiration,
+      Clock clock, LongSupplier nanoTime) {
+    this.delegate = delegate;
+    this.refreshAfterNanos = refreshAfter.toNanos();
+    this.expireAfterNanos = expireAfter.toNanos();
+    this.refreshExecutor = refreshExecutor;
+    this.expiration = expiration;
+    this.clock = clock;
+    this.nanoTime = nanoTime;
+  }
+
+  @Override
+  public AWSCredentials getCredentials() {
+    var current = cached;
+    long now = nanoTime.getAsLong();
+
+    if (current == null || now - current.getExpireAt() >= 0) {
+      return loadNow();
+    }
+
+    if (now - current.getRefreshAt() >= 0 && refreshing.compareAndSet(false, true)) {
+      refreshExecutor.execute(() -> {
+        try {
+          load();
+        } catch (RuntimeException e) {
+          log.warn("Background refresh of AWS credentials failed: {}", e.getMessage());
+        } finally {
+          refreshing.set(false);
+        }
+      });
+    }
+    return current.getCredentials();
+  }
+
+  @Override
+  public void refresh() {
+    delegate.refresh();
+    cached = null;
+  }
+
+  private synchronized AWSCredentials loadNow() {
+    var current = cached;
+    if (current != null && nanoTime.getAsLong() - current.getExpireAt() < 0) {
+      return current.getCredentials();
+    }
+    return load();
+  }
+
+  private AWSCredentials load() {
+    var credentials = delegate.getCredentials();
+    long loadedAt = nanoTime.getAsLong();
+    long refreshAt = loadedAt + refreshAfterNanos;
+    long expireAt = loadedAt + expireAfterNanos;
+
+    var expiresAt = expiration.apply(credentials);
+    if (expiresAt.isPresent()) {
+      long remainingNanos = Duration.between(clock.instant(), expiresAt.get()).toNanos();
+      refreshAt = Math.min(refreshAt, loadedAt + remainingNanos - EXPIRY_REFRESH_AHEAD.toNanos());
+      expireAt = Math.min(expireAt, loadedAt + remainingNanos - EXPIRY_MARGIN.toNanos());
+    }
+
+    cached = new CachedCredentials(credentials, refreshAt, expireAt);
+    return credentials;
+  }
+
+  @Value
+  private static class CachedCredentials {
+    AWSCredentials credentials;
+    long refreshAt;
+    long expireAt;
+  }
+}
@@ -1,22 +1,44 @@
 package uk.nhs.cactus.common.elasticsearch;
 
+import static java.util.stream.Collectors.toList;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import static org.apache.http.protocol.HttpCoreContext.HTTP_TARGET_HOST;
 
-import com.amazonaws.auth.AWS4Signer;
+import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.google.common.base.Preconditions;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Pattern;
+import javax.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.elasticsearch.client.Node;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer;
+import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer.Scheme;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
 @Component
 @Slf4j
+@ConditionalOnProperty("es.audit")
 public class ElasticRestClientFactory {
 
   private static final String ES_SERVICE_NAME = "es";
@@ -26,44 +48,154 @@ public class ElasticRestClientFactory {
   private static final String EMPTY_ENDPOINT_MESSAGE =
       "Expected non-empty endpoint for ElasticSearch client";
 
-  public RestHighLevelClient highLevelClient(String endpoint) {
-    Preconditions.checkState(isNotBlank(endpoint), EMPTY_ENDPOINT_MESSAGE);
+  // Credentials are looked up at most once a minute rather than on every signed request.
+  // The SDK's credentials don't say when they expire, but the default chain hands out
+  // replacements at least 5 minutes before expiry, so cached ones are never used for that long.
+  private static final Duration CREDENTIALS_REFRESH_AFTER = Duration.ofMinutes(1);
+  private static final Duration CREDENTIALS_EXPIRE_AFTER = Duration.ofMinutes(4);
+
+  private final ExecutorService credentialsRefreshExecutor = credentialsRefresher();
+  private final AWSCredentialsProvider credentialsProvider = new CachingAWSCredentialsProvider(
+      new DefaultAWSCredentialsProviderChain(),
+      CREDENTIALS_REFRESH_AFTER,
+      CREDENTIALS_EXPIRE_AFTER,
+      credentialsRefreshExecutor,
+      credentials -> Optional.empty());
+  private final Map<String, AWSRequestSigningApacheInterceptor> interceptors =
+      new ConcurrentHashMap<>();
+  private final List<Sniffer> sniffers = new CopyOnWriteArrayList<>();
+
+  @Value("${es.sniff.enabled:false}")
+  private boolean sniffEnabled;
+
+  @Value("${es.sniff.interval-millis:300000}")
+  private int sniffIntervalMillis;
+
+  @Value("${es.sniff.after-failure-delay-millis:60000}")
+  private int sniffAfterFailureDelayMillis;
+
+  /**
+   * Builds a client over one or more comma-separated endpoints. Requests are spread round-robin
+   * across the endpoints, and an endpoint that fails is skipped with increasing backoff until it
+   * recovers. If {@code es.sniff.enabled} is set, the endpoint list is also refreshed from the
+   * cluster's nodes periodically and after failures (not supported for AWS domains, whose nodes
+   * are not directly reachable).
+   */
+  public RestHighLevelClient highLevelClient(String endpoints) {
+    var hosts = hosts(endpoints);
+    var interceptor = signingInterceptor(hosts);
+    var sniffing = sniffEnabled && interceptor.isEmpty();
+    if (sniffEnabled && !sniffing) {
+      log.warn("Not sniffing ElasticSearch nodes for AWS endpoints {}", endpoints);
+    }
 
-    var baseClientBuilder = RestClient.builder(HttpHost.create(endpoint));
+    var sniffOnFailure = new SniffOnFailureListener();
+    var baseClientBuilder = RestClient.builder(hosts.toArray(HttpHost[]::new))
+        .setFailureListener(sniffing ? sniffOnFailure : new LoggingFailureListener());
 
-    interceptor(endpoint).ifPresent(interceptor ->
+    interceptor.ifPresent(signing ->
         baseClientBuilder.setHttpClientConfigCallback(clientConfig ->
-            clientConfig.addInterceptorLast(interceptor)));
-
-    return new RestHighLevelClient(baseClientBuilder);
+            clientConfig.addInterceptorLast(signing)));
+
+    var client = new RestHighLevelClient(baseClientBuilder);
+    if (sniffing) {
+      var nodesSniffer = new ElasticsearchNodesSniffer(client.getLowLevelClient(),
+          ElasticsearchNodesSniffer.DEFAULT_SNIFF_REQUEST_TIMEOUT,
+          Scheme.valueOf(hosts.get(0).getSchemeName().toUpperCase()));
+      var sniffer = Sniffer.builder(client.getLowLevelClient())
+          .setNodesSniffer(nodesSniffer)
+          .setSniffIntervalMillis(sniffIntervalMillis)
+          .setSniffAfterFailureDelayMillis(sniffAfterFailureDelayMillis)
+          .build();
+      sniffOnFailure.setSniffer(sniffer);
+      sniffers.add(sniffer);
+    }
+    return client;
   }
 
-  public CloseableHttpClient httpClient(String endpoint) {
-    Preconditions.checkState(isNotBlank(endpoint), EMPTY_ENDPOINT_MESSAGE);
-
+  public CloseableHttpClient httpClient(String endpoints) {
     HttpClientBuilder httpClientBuilder = HttpClientBuilder.create();
 
-    interceptor(endpoint)
+    signingInterceptor(hosts(endpoints))
         .map(httpClientBuilder::addInterceptorFirst);
 
     return httpClientBuilder.build();
   }
 
+  static List<HttpHost> hosts(String endpoints) {
+    Preconditions.checkState(isNotBlank(endpoints), EMPTY_ENDPOINT_MESSAGE);
+
+    return Arrays.stream(endpoints.split(","))
+        .map(String::trim)
+        .filter(endpoint -> !endpoint.isEmpty())
+        .map(HttpHost::create)
+        .collect(toList());
+  }
+
+  /**
+   * @return an interceptor signing requests to the AWS hosts, or empty if none of the hosts are
+   * AWS domains
+   */
+  Optional<HttpRequestInterceptor> signingInterceptor(List<HttpHost> hosts) {
+    // Keyed by host name, as the target host seen by interceptors may have its port filled in
+    var interceptorsByHost = new HashMap<String, AWSRequestSigningApacheInterceptor>();
+    for (var host : hosts) {
+      interceptor(host.toURI()).ifPresent(interceptor ->
+          interceptorsByHost.put(host.getHostName(), interceptor));
+    }
+
+    if (interceptorsByHost.isEmpty()) {
+      return Optional.empty();
+    }
+    if (interceptorsByHost.size() == hosts.size()
+        && new HashSet<>(interceptorsByHost.values()).size() == 1) {
+      // All in one region, so there's no need to route
+      return Optional.of(interceptorsByHost.values().iterator().next());
+    }
+    return Optional.of((request, context) -> {
+      var target = (HttpHost) context.getAttribute(HTTP_TARGET_HOST);
+      var interceptor = target != null ? interceptorsByHost.get(target.getHostName()) : null;
+      if (interceptor != null) {
+        interceptor.process(request, context);
+      }
+    });
+  }
+
   private Optional<AWSRequestSigningApacheInterceptor> interceptor(String endpoint) {
     var awsEndpointMatcher = AWS_ES_PATTERN.matcher(endpoint);
     if (awsEndpointMatcher.matches()) {
       log.info("Creating an ElasticSearchClient for an AWS endpoint");
 
-      var signer = new AWS4Signer();
-      signer.setServiceName(ES_SERVICE_NAME);
-      signer.setRegionName(awsEndpointMatcher.group(1));
+      return Optional.of(interceptors.computeIfAbsent(awsEndpointMatcher.group(1), region -> {
+        var signer = new PayloadHashingAWS4Signer();
+        signer.setServiceName(ES_SERVICE_NAME);
+        signer.setRegionName(region);
 
-      return Optional.of(new AWSRequestSigningApacheInterceptor(
-          ES_SERVICE_NAME,
-          signer,
-          new DefaultAWSCredentialsProviderChain()));
+        return new AWSRequestSigningApacheInterceptor(ES_SERVICE_NAME, signer, credentialsProvider);
+      }));
     }
     return Optional.empty();
   }
 
+  private static class LoggingFailureListener extends RestClient.FailureListener {
+    @Override
+    public void onFailure(Node node) {
+      log.warn("ElasticSearch node {} failed, retrying it after a backoff", node.getHost());
+    }
+  }
+
+  private static ExecutorService credentialsRefresher() {
+    return Executors.newSingleThreadExecutor(runnable -> {
+      var thread = new Thread(runnable, "aws-credentials-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    sniffers.forEach(Sniffer::close);
+    credentialsRefreshExecutor.shutdownNow();
+  }
+
 }
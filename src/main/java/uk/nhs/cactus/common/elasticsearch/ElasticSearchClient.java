@@ -1,40 +1,479 @@
 package uk.nhs.cactus.common.elasticsearch;
 
+import static java.util.stream.Collectors.toList;
+
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.io.Serializable;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest.OpType;
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Cancellable;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.Requests;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.client.indices.PutIndexTemplateRequest;
+import org.elasticsearch.client.indices.rollover.RolloverRequest;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.TermsValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.Percentiles;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
+import uk.nhs.cactus.common.elasticsearch.model.AuditFields;
+import uk.nhs.cactus.common.elasticsearch.model.CompositePage;
+import uk.nhs.cactus.common.elasticsearch.model.DateCount;
+import uk.nhs.cactus.common.elasticsearch.model.TermCount;
 
 @Component
 @RequiredArgsConstructor
+@ConditionalOnProperty("es.audit")
+@Slf4j
 public class ElasticSearchClient {
 
+  private static final String CREATION_DATE_SETTING = "index.creation_date";
+  private static final String AGGREGATION = "result";
+
   @Value("${es.audit}")
   private String endpoint;
 
+  @Value("${es.async.max-in-flight:64}")
+  private int maxInFlight;
+
+  @Value("${es.async.timeout-millis:10000}")
+  private long timeoutMillis;
+
   private final ElasticRestClientFactory clientFactory;
   private final ObjectMapper objectMapper;
+  private final SearchResultCache searchCache;
+
+  private volatile RestHighLevelClient client;
+  private Semaphore inFlight;
+
+  @PostConstruct
+  public void init() {
+    inFlight = new Semaphore(maxInFlight);
+  }
+
+  @PreDestroy
+  public void close() throws IOException {
+    if (client != null) {
+      client.close();
+    }
+  }
+
+  /**
+   * Connects to the cluster if not yet connected.
+   *
+   * @return whether the cluster responded
+   */
+  public boolean ping() throws IOException {
+    return client().ping(RequestOptions.DEFAULT);
+  }
 
+  /**
+   * Searches the index. If the query cache is enabled, identical searches within its TTL share one
+   * result.
+   */
   public List<SearchHit> search(String index, SearchSourceBuilder source) throws IOException {
-    var request = Requests.searchRequest(index).source(source);
+    return searchCache.get(index, source, () -> searchUncached(index, source));
+  }
 
-    var response = clientFactory.highLevelClient(endpoint)
-        .search(request, RequestOptions.DEFAULT);
-    return Arrays.asList(response.getHits().getHits());
+  /**
+   * As {@link #search(String, SearchSourceBuilder)}, caching this query's result for the given
+   * time instead of the configured default. A zero TTL bypasses the cache.
+   */
+  public List<SearchHit> search(String index, SearchSourceBuilder source, Duration ttl)
+      throws IOException {
+    return searchCache.get(index, source, ttl, () -> searchUncached(index, source));
   }
 
   public void store(String index, Object source, Map<String, ? extends Serializable> additionalProperties)
       throws IOException {
+    store(index, null, source, additionalProperties);
+  }
+
+  /**
+   * Stores the document under the given ID, failing with a {@code CONFLICT} status if a document
+   * with that ID already exists rather than replacing it.
+   */
+  public void store(String index, String id, Object source,
+      Map<String, ? extends Serializable> additionalProperties) throws IOException {
+    try {
+      client().index(indexRequest(index, id, source, additionalProperties), RequestOptions.DEFAULT);
+    } finally {
+      searchCache.invalidate(index);
+    }
+  }
+
+  /**
+   * Indexes many documents into one index with a single bulk request, for example to replay them.
+   * IDs must be derived from the documents themselves: a document whose ID is already stored is
+   * taken to have been stored before, so is left as it is and not counted as failed.
+   *
+   * @param sourcesById the documents to store, keyed by the ID to store each under
+   * @param additionalProperties the fields to add to a document, given its ID and source
+   * @return the number of documents that failed to index
+   */
+  public <T> int storeAll(String index, Map<String, T> sourcesById,
+      BiFunction<String, ? super T, Map<String, ? extends Serializable>> additionalProperties)
+      throws IOException {
+    if (sourcesById.isEmpty()) {
+      return 0;
+    }
+
+    var request = new BulkRequest();
+    sourcesById.forEach((id, source) ->
+        request.add(indexRequest(index, id, source, additionalProperties.apply(id, source))));
+
+    BulkResponse response;
+    try {
+      response = client().bulk(request, RequestOptions.DEFAULT);
+    } finally {
+      searchCache.invalidate(index);
+    }
+    if (!response.hasFailures()) {
+      return 0;
+    }
+    var conflicts = Arrays.stream(response.getItems())
+        .filter(item -> item.isFailed() && item.getFailure().getStatus() == RestStatus.CONFLICT)
+        .count();
+    if (conflicts > 0) {
+      log.info("{} documents were already stored in {}", conflicts, index);
+    }
+    var failed = (int) Arrays.stream(response.getItems())
+        .filter(item -> item.isFailed() && item.getFailure().getStatus() != RestStatus.CONFLICT)
+        .count();
+    if (failed > 0) {
+      log.warn("Bulk store to {} partially failed: {}", index, response.buildFailureMessage());
+    }
+    return failed;
+  }
+
+  /**
+   * Installs (or replaces) a legacy index template applied to new indices matching the patterns.
+   */
+  public void putTemplate(String name, List<String> patterns, Map<String, Object> mappings)
+      throws IOException {
+    var request = new PutIndexTemplateRequest(name)
+        .patterns(patterns)
+        .mapping(mappings);
+    client().indices().putTemplate(request, RequestOptions.DEFAULT);
+  }
+
+  public boolean indexExists(String index) throws IOException {
+    return client().indices().exists(new GetIndexRequest(index), RequestOptions.DEFAULT);
+  }
+
+  public boolean aliasExists(String alias) throws IOException {
+    return client().indices().existsAlias(new GetAliasesRequest(alias), RequestOptions.DEFAULT);
+  }
+
+  /**
+   * Creates the first index of a rollover series, pointing the write alias (as its write index)
+   * and any read aliases at it.
+   */
+  public void createRolloverIndex(String index, String writeAlias, String... readAliases)
+      throws IOException {
+    var request = new CreateIndexRequest(index)
+        .alias(new Alias(writeAlias).writeIndex(true));
+    for (var readAlias : readAliases) {
+      request.alias(new Alias(readAlias));
+    }
+    client().indices().create(request, RequestOptions.DEFAULT);
+  }
+
+  public void addAlias(String index, String alias) throws IOException {
+    var request = new IndicesAliasesRequest()
+        .addAliasAction(AliasActions.add().index(index).alias(alias));
+    client().indices().updateAliases(request, RequestOptions.DEFAULT);
+  }
+
+  /**
+   * Rolls the write alias over to a new index if the current write index is older or larger than
+   * the given limits. The new index also joins the given read aliases.
+   *
+   * @return true if a new index was created
+   */
+  public boolean rollover(String writeAlias, TimeValue maxAge, ByteSizeValue maxSize,
+      String... readAliases) throws IOException {
+    var request = new RolloverRequest(writeAlias, null)
+        .addMaxIndexAgeCondition(maxAge)
+        .addMaxIndexSizeCondition(maxSize);
+    for (var readAlias : readAliases) {
+      request.getCreateIndexRequest().alias(new Alias(readAlias));
+    }
+    return client().indices().rollover(request, RequestOptions.DEFAULT).isRolledOver();
+  }
+
+  /**
+   * @return the creation time of every index matching the pattern, keyed by index name
+   */
+  public Map<String, Instant> indexCreationDates(String pattern) throws IOException {
+    var response = client().indices().get(new GetIndexRequest(pattern), RequestOptions.DEFAULT);
+
+    var creationDates = new HashMap<String, Instant>();
+    for (var index : response.getIndices()) {
+      var creationDate = response.getSetting(index, CREATION_DATE_SETTING);
+      if (creationDate != null) {
+        creationDates.put(index, Instant.ofEpochMilli(Long.parseLong(creationDate)));
+      }
+    }
+    return creationDates;
+  }
+
+  public void deleteIndices(Collection<String> indices) throws IOException {
+    if (indices.isEmpty()) {
+      return;
+    }
+    var request = new DeleteIndexRequest(indices.toArray(String[]::new));
+    client().indices().delete(request, RequestOptions.DEFAULT);
+  }
+
+  /**
+   * Counts documents matching the query by each value of a field, most common first.
+   * Like the other aggregation methods, no documents are returned, only the counts.
+   *
+   * @param field a keyword or numeric field, see {@link AuditFields}
+   * @param size the maximum number of values to return
+   */
+  public List<TermCount> countBy(String index, QueryBuilder query, String field, int size)
+      throws IOException {
+    var aggregation = AggregationBuilders.terms(AGGREGATION).field(field).size(size);
+    Terms terms = aggregate(index, query, aggregation).get(AGGREGATION);
+
+    return terms.getBuckets().stream()
+        .map(bucket -> new TermCount(bucket.getKeyAsString(), bucket.getDocCount()))
+        .collect(toList());
+  }
+
+  /**
+   * Counts documents matching the query in each calendar interval of a date field
+   */
+  public List<DateCount> countByDate(String index, QueryBuilder query, String dateField,
+      DateHistogramInterval interval) throws IOException {
+    var aggregation = AggregationBuilders.dateHistogram(AGGREGATION)
+        .field(dateField)
+        .calendarInterval(interval);
+    Histogram histogram = aggregate(index, query, aggregation).get(AGGREGATION);
+
+    return histogram.getBuckets().stream()
+        .map(bucket -> new DateCount(
+            ((ZonedDateTime) bucket.getKey()).toInstant(), bucket.getDocCount()))
+        .collect(toList());
+  }
+
+  /**
+   * Estimates percentiles of a numeric field over documents matching the query
+   *
+   * @return the value at each requested percentile, in the order requested. Values are NaN if no
+   * documents matched.
+   */
+  public Map<Double, Double> percentiles(String index, QueryBuilder query, String field,
+      double... percents) throws IOException {
+    var aggregation = AggregationBuilders.percentiles(AGGREGATION)
+        .field(field)
+        .percentiles(percents);
+    Percentiles percentiles = aggregate(index, query, aggregation).get(AGGREGATION);
+
+    var values = new LinkedHashMap<Double, Double>();
+    for (var percent : percents) {
+      values.put(percent, percentiles.percentile(percent));
+    }
+    return values;
+  }
+
+  /**
+   * Counts documents matching the query by each combination of values of the fields, a page at a
+   * time. Unlike {@link #countBy}, this pages through every combination, so suits high-cardinality
+   * breakdowns such as supplier by operation.
+   *
+   * @param afterKey the previous page's {@link CompositePage#getAfterKey()}, or null for the first
+   * page
+   */
+  public CompositePage countByComposite(String index, QueryBuilder query, List<String> fields,
+      int pageSize, Map<String, Object> afterKey) throws IOException {
+    var sources = fields.stream()
+        .<CompositeValuesSourceBuilder<?>>map(field -> new TermsValuesSourceBuilder(field).field(field))
+        .collect(toList());
+    var aggregation = new CompositeAggregationBuilder(AGGREGATION, sources).size(pageSize);
+    if (afterKey != null) {
+      aggregation.aggregateAfter(afterKey);
+    }
+    CompositeAggregation composite = aggregate(index, query, aggregation).get(AGGREGATION);
+
+    var buckets = composite.getBuckets().stream()
+        .map(bucket -> new CompositePage.Bucket(bucket.getKey(), bucket.getDocCount()))
+        .collect(toList());
+    var nextAfterKey = buckets.size() < pageSize ? null : composite.afterKey();
+    return new CompositePage(buckets, nextAfterKey);
+  }
+
+  private Aggregations aggregate(String index, QueryBuilder query, AggregationBuilder aggregation)
+      throws IOException {
+    var source = new SearchSourceBuilder()
+        .query(query != null ? query : QueryBuilders.matchAllQuery())
+        .size(0)
+        .trackTotalHits(false)
+        .aggregation(aggregation);
+    return client().search(searchRequest(index, source), RequestOptions.DEFAULT).getAggregations();
+  }
+
+  /**
+   * Non-blocking variant of {@link #search(String, SearchSourceBuilder)}. The request runs on the
+   * client's IO reactor, so no caller thread is held for the round trip.
+   *
+   * @return a future completing with the search hits. It fails with a
+   * {@link RejectedExecutionException} if too many requests are already in flight, or a
+   * {@link TimeoutException} if no response arrives in time. Cancelling the future aborts the
+   * underlying HTTP request.
+   */
+  public CompletableFuture<List<SearchHit>> searchAsync(String index, SearchSourceBuilder source) {
+    var request = searchRequest(index, source);
+    return execute(
+        (client, listener) -> client.searchAsync(request, RequestOptions.DEFAULT, listener),
+        ElasticSearchClient::hits);
+  }
+
+  /**
+   * Non-blocking variant of {@link #store(String, Object, Map)}, with the same in-flight limit,
+   * timeout and cancellation behaviour as {@link #searchAsync(String, SearchSourceBuilder)}.
+   */
+  public CompletableFuture<Void> storeAsync(String index, Object source,
+      Map<String, ? extends Serializable> additionalProperties) {
+    return storeAsync(index, null, source, additionalProperties);
+  }
+
+  /**
+   * Non-blocking variant of {@link #store(String, String, Object, Map)}.
+   */
+  public CompletableFuture<Void> storeAsync(String index, String id, Object source,
+      Map<String, ? extends Serializable> additionalProperties) {
+    var request = indexRequest(index, id, source, additionalProperties);
+    var indexing = this.<IndexResponse, Void>execute(
+        (client, listener) -> client.indexAsync(request, RequestOptions.DEFAULT, listener),
+        response -> null);
+    var stored = indexing.handle((result, error) -> {
+      searchCache.invalidate(index);
+      if (error != null) {
+        throw error instanceof CompletionException
+            ? (CompletionException) error
+            : new CompletionException(error);
+      }
+      return (Void) null;
+    });
+    // Cancelling the returned future must still abort the request
+    stored.whenComplete((result, error) -> {
+      if (stored.isCancelled()) {
+        indexing.cancel(true);
+      }
+    });
+    return stored;
+  }
+
+  private <R, T> CompletableFuture<T> execute(AsyncCall<R> call, Function<R, T> mapper) {
+    var future = new CompletableFuture<T>();
+    if (!inFlight.tryAcquire()) {
+      future.completeExceptionally(new RejectedExecutionException(
+          "Too many in-flight ElasticSearch requests (limit " + maxInFlight + ")"));
+      return future;
+    }
+
+    Cancellable cancellable;
+    try {
+      cancellable = call.execute(client(), ActionListener.wrap(
+          response -> future.complete(mapper.apply(response)),
+          future::completeExceptionally));
+    } catch (RuntimeException e) {
+      inFlight.release();
+      future.completeExceptionally(e);
+      return future;
+    }
+
+    future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+        .whenComplete((result, error) -> {
+          inFlight.release();
+          if (future.isCancelled() || error instanceof TimeoutException) {
+            cancellable.cancel();
+          }
+        });
+    return future;
+  }
+
+  private List<SearchHit> searchUncached(String index, SearchSourceBuilder source)
+      throws IOException {
+    var response = client().search(searchRequest(index, source), RequestOptions.DEFAULT);
+    return hits(response);
+  }
+
+  private RestHighLevelClient client() {
+    var current = client;
+    if (current == null) {
+      synchronized (this) {
+        current = client;
+        if (current == null) {
+          client = current = clientFactory.highLevelClient(endpoint);
+        }
+      }
+    }
+    return current;
+  }
+
+  private SearchRequest searchRequest(String index, SearchSourceBuilder source) {
+    return Requests.searchRequest(index).source(source);
+  }
+
+  private IndexRequest indexRequest(String index, String id, Object source,
+      Map<String, ? extends Serializable> additionalProperties) {
     var typedReference = new TypeReference<Map<String, Object>>() {};
     var sourceMap = objectMapper.<Map<String, Object>>convertValue(source, typedReference);
 
@@ -43,7 +482,18 @@ public class ElasticSearchClient {
     }
 
     var request = Requests.indexRequest(index).source(sourceMap);
+    if (id != null) {
+      request.id(id).opType(OpType.CREATE);
+    }
+    return request;
+  }
+
+  private static List<SearchHit> hits(SearchResponse response) {
+    return Arrays.asList(response.getHits().getHits());
+  }
 
-    clientFactory.highLevelClient(endpoint).index(request, RequestOptions.DEFAULT);
+  @FunctionalInterface
+  private interface AsyncCall<R> {
+    Cancellable execute(RestHighLevelClient client, ActionListener<R> listener);
   }
 }
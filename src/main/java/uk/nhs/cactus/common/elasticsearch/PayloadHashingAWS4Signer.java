@@ -0,0 +1,30 @@
+package uk.nhs.cactus.common.elasticsearch;
+
+import com.amazonaws.Request;
+import com.amazonaws.SignableRequest;
+import com.amazonaws.auth.AWS4Signer;
+import com.amazonaws.handlers.HandlerContextKey;
+
+/**
+ * An {@link AWS4Signer} that uses a payload hash computed by the caller instead of reading the
+ * request content stream. {@link AWSRequestSigningApacheInterceptor} computes the hash by streaming
+ * the Apache entity, so the payload is neither copied nor consumed.
+ * Derived signing keys are cached per date, region and service by {@link AWS4Signer} itself, so a
+ * single instance should be shared between clients.
+ */
+public class PayloadHashingAWS4Signer extends AWS4Signer {
+
+  static final HandlerContextKey<String> PAYLOAD_SHA256 =
+      new HandlerContextKey<>("PayloadSha256");
+
+  @Override
+  protected String calculateContentHash(SignableRequest<?> request) {
+    if (request instanceof Request) {
+      String payloadHash = ((Request<?>) request).getHandlerContext(PAYLOAD_SHA256);
+      if (payloadHash != null) {
+        return payloadHash;
+      }
+    }
+    return super.calculateContentHash(request);
+  }
+}
@@ -0,0 +1,142 @@
+package uk.nhs.cactus.common.elasticsearch;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.PostConstruct;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Short-lived cache of search results, for dashboards that re-run the same queries every few
+ * seconds. Results are keyed on the index and the search source's JSON rendering, and identical
+ * searches already in flight share a single request. Writes through {@link ElasticSearchClient}
+ * invalidate cached searches over the written index, any index pattern matching it, and any
+ * alias {@linkplain #link linked} to it.
+ * Disabled unless {@code es.query-cache.enabled} is set.
+ */
+@Component
+@ConditionalOnProperty("es.audit")
+public class SearchResultCache {
+
+  @Value("${es.query-cache.enabled:false}")
+  private boolean enabled;
+
+  @Value("${es.query-cache.max-entries:1000}")
+  private long maxEntries;
+
+  @Value("${es.query-cache.ttl-millis:5000}")
+  private long defaultTtlMillis;
+
+  private Cache<Key, CachedResult> cache;
+  private final ConcurrentHashMap<String, Set<String>> links = new ConcurrentHashMap<>();
+
+  @FunctionalInterface
+  interface SearchCall {
+    List<SearchHit> search() throws IOException;
+  }
+
+  @PostConstruct
+  public void init() {
+    // Size bounded with least-recently-used eviction; expiry is per entry, see CachedResult
+    cache = CacheBuilder.newBuilder()
+        .maximumSize(maxEntries)
+        .build();
+  }
+
+  /**
+   * Records that documents written to one index are visible through others, e.g. a write alias
+   * and the read alias over the same indices.
+   */
+  public void link(String index, String... visibleThrough) {
+    var linked = links.computeIfAbsent(index, key -> ConcurrentHashMap.newKeySet());
+    Collections.addAll(linked, visibleThrough);
+  }
+
+  List<SearchHit> get(String index, SearchSourceBuilder source, SearchCall search)
+      throws IOException {
+    return get(index, source, Duration.ofMillis(defaultTtlMillis), search);
+  }
+
+  List<SearchHit> get(String index, SearchSourceBuilder source, Duration ttl, SearchCall search)
+      throws IOException {
+    if (!enabled || ttl.isZero() || ttl.isNegative()) {
+      return search.search();
+    }
+
+    var key = new Key(index, source.toString());
+    try {
+      while (true) {
+        // Concurrent loads of the same key wait for the first rather than searching again
+        var result = cache.get(key, () -> new CachedResult(
+            Collections.unmodifiableList(search.search()), System.nanoTime() + ttl.toNanos()));
+        if (!result.isExpired()) {
+          return result.hits;
+        }
+        cache.asMap().remove(key, result);
+      }
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Drops cached searches that could include documents written to the index
+   */
+  void invalidate(String index) {
+    if (!enabled) {
+      return;
+    }
+
+    var written = new HashSet<String>();
+    written.add(index);
+    written.addAll(links.getOrDefault(index, Set.of()));
+
+    cache.asMap().keySet().removeIf(key -> affects(key.index, written));
+  }
+
+  private static boolean affects(String searchedIndices, Set<String> written) {
+    for (var searched : searchedIndices.split(",")) {
+      for (var name : written) {
+        if (Regex.simpleMatch(searched.trim(), name)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  @lombok.Value
+  private static class Key {
+    String index;
+    String source;
+  }
+
+  @lombok.Value
+  private static class CachedResult {
+    List<SearchHit> hits;
+    long expiresAtNanos;
+
+    boolean isExpired() {
+      return System.nanoTime() - expiresAtNanos >= 0;
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package uk.nhs.cactus.common.elasticsearch;
+
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Generates document IDs that sort in the order they were generated: a millisecond timestamp and
+ * sequence number followed by a node ID, as fixed-width lower-case hex.
+ * IDs from one node share long prefixes, which Lucene indexes and looks up far faster than random
+ * UUIDs. Generation is lock-free and stays monotonic if the clock goes backwards.
+ * Node IDs are 48 bits, so that even randomly chosen ones are very unlikely to be shared by two
+ * instances, which would then generate the same IDs.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnProperty("es.audit")
+public class TimeOrderedIdGenerator {
+
+  private static final int SEQUENCE_BITS = 12;
+  private static final int TIME_AND_SEQUENCE_DIGITS = 14;
+  private static final int NODE_DIGITS = 12;
+  private static final long NODE_MASK = (1L << (NODE_DIGITS * 4)) - 1;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /**
+   * Distinguishes IDs generated at the same moment by different instances. Random if not set.
+   * Either a number, or a name such as the host name, which is hashed to a number.
+   */
+  @Value("${es.ids.node-id:}")
+  private String configuredNodeId;
+
+  private final Clock clock;
+
+  private final AtomicLong last = new AtomicLong();
+  private long nodeId;
+
+  @PostConstruct
+  public void init() {
+    nodeId = StringUtils.isBlank(configuredNodeId)
+        ? new SecureRandom().nextLong() & NODE_MASK
+        : parseNodeId(configuredNodeId.trim()) & NODE_MASK;
+    log.debug("Generating document IDs for node {}", Long.toHexString(nodeId));
+  }
+
+  private static long parseNodeId(String nodeId) {
+    if (nodeId.chars().allMatch(Character::isDigit)) {
+      try {
+        return Long.parseLong(nodeId);
+      } catch (NumberFormatException e) {
+        // Too large, so hashed like a name
+      }
+    }
+    return Hashing.murmur3_128().hashString(nodeId, StandardCharsets.UTF_8).asLong();
+  }
+
+  public String next() {
+    var now = clock.millis() << SEQUENCE_BITS;
+    // Within a millisecond the sequence counts up, and on overflow borrows from the next one
+    var timeAndSequence = last.updateAndGet(previous -> Math.max(previous + 1, now));
+
+    var id = new char[TIME_AND_SEQUENCE_DIGITS + NODE_DIGITS];
+    writeHex(id, 0, TIME_AND_SEQUENCE_DIGITS, timeAndSequence);
+    writeHex(id, TIME_AND_SEQUENCE_DIGITS, NODE_DIGITS, nodeId);
+    return new String(id);
+  }
+
+  private static void writeHex(char[] target, int offset, int digits, long value) {
+    for (int i = offset + digits - 1; i >= offset; i--) {
+      target[i] = HEX[(int) (value & 0xf)];
+      value >>>= 4;
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package uk.nhs.cactus.common.elasticsearch.model;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Audit document fields suitable for aggregation. String fields use the keyword sub-field that
+ * ElasticSearch's dynamic mapping adds, so they work across every index in a series.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class AuditFields {
+
+  public static final String SUPPLIER_ID = "additionalProperties.supplierId.keyword";
+  public static final String OPERATION = "additionalProperties.operation.keyword";
+  public static final String INTERACTION_ID = "additionalProperties.interactionId.keyword";
+  public static final String RESPONSE_STATUS = "responseStatus.keyword";
+  public static final String REQUEST_METHOD = "requestMethod.keyword";
+  public static final String CREATED_DATE = "createdDate";
+  /**
+   * Numeric, so suitable for percentiles as well as ranges
+   */
+  public static final String DURATION_MILLIS = "durationMillis";
+
+}
@@ -0,0 +1,25 @@
+package uk.nhs.cactus.common.elasticsearch.model;
+
+import java.util.List;
+import java.util.Map;
+import lombok.Value;
+
+/**
+ * One page of a composite aggregation. Pass {@link #getAfterKey()} back to fetch the next page;
+ * it is null once there are no more buckets.
+ */
+@Value
+public class CompositePage {
+
+  List<Bucket> buckets;
+  Map<String, Object> afterKey;
+
+  @Value
+  public static class Bucket {
+    /**
+     * The bucket's value for each field, keyed by field name
+     */
+    Map<String, Object> key;
+    long count;
+  }
+}
@@ -0,0 +1,13 @@
+package uk.nhs.cactus.common.elasticsearch.model;
+
+import java.time.Instant;
+import lombok.Value;
+
+/**
+ * Number of documents in a date histogram interval starting at the given time
+ */
+@Value
+public class DateCount {
+  Instant start;
+  long count;
+}
@@ -0,0 +1,12 @@
+package uk.nhs.cactus.common.elasticsearch.model;
+
+import lombok.Value;
+
+/**
+ * Number of documents with a given value of a field
+ */
+@Value
+public class TermCount {
+  String term;
+  long count;
+}
@@ -3,6 +3,9 @@ package uk.nhs.cactus.common.security;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
 import ca.uhn.fhir.rest.client.interceptor.BearerTokenAuthInterceptor;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Component;
 
@@ -22,4 +25,20 @@ public class AuthenticatedFhirClientFactory {
 
     return client;
   }
+
+  /**
+   * Creates clients for several servers, exchanging their tokens together
+   *
+   * @see TokenExchange#getExchangedTokens(Collection)
+   */
+  public Map<String, IGenericClient> getClients(Collection<String> baseUrls) {
+    Map<String, IGenericClient> clients = new LinkedHashMap<>();
+    tokenExchange.getExchangedTokens(baseUrls).forEach((baseUrl, token) -> {
+      var client = fhirContext.newRestfulGenericClient(baseUrl);
+      token.map(BearerTokenAuthInterceptor::new)
+          .ifPresent(client::registerInterceptor);
+      clients.put(baseUrl, client);
+    });
+    return clients;
+  }
 }
@@ -15,6 +15,7 @@ import javax.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
@@ -28,6 +29,7 @@ import org.springframework.stereotype.Service;
 public class TokenAuthenticationService {
 
   private final JWTHandler jwtHandler;
+  private final ApplicationEventPublisher eventPublisher;
 
   static final long SECONDS_UNTIL_EXPIRY = 864_000; // 10 days
   private static final String TOKEN_PREFIX = "Bearer ";
@@ -111,7 +113,8 @@ public class TokenAuthenticationService {
   }
 
   /**
-   * Adds authentication to a response by setting the Authorization header
+   * Adds authentication to a response by setting the Authorization header, and announces the
+   * new token with a {@link TokenIssuedEvent}
    *
    * @param response           add authentication token to response
    * @param username           user to be identified by token
@@ -133,6 +136,7 @@ public class TokenAuthenticationService {
         .build());
     response.addHeader(HEADER_STRING, TOKEN_PREFIX + jwt);
     response.addHeader(ROLES_CLAIM, String.join(COMMA_SEPARATOR, roles));
+    eventPublisher.publishEvent(new TokenIssuedEvent(jwt, supplierId));
   }
 
   /**
@@ -3,36 +3,145 @@ package uk.nhs.cactus.common.security;
 import static org.apache.commons.lang3.StringUtils.trimToNull;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.RequestEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
+import uk.nhs.cactus.common.timing.RequestTimer;
+import uk.nhs.cactus.common.timing.RequestTimer.Phase;
 
 /**
  * Used to obtain the appropriate token to use for calling a particular url.
  * This depends on two app properties:
  * - cactus.servers: comma-separated list of urls known to accept the 'cactus' token
  * - cactus.auth.server: url to the authentication server called for the actual token exchange
+ *
+ * Optionally:
+ * - cactus.auth.multi-exchange: the auth server accepts several baseUrl parameters in one
+ *   exchange request and answers with a JSON map of base url to token
+ * - cactus.token-exchange.cache.ttl-seconds: keep exchanged tokens for this long (off if 0).
+ *   This is regardless of when the tokens themselves expire, so must be kept shorter than the
+ *   lifetime of the tokens the auth server issues
+ * - cactus.token-exchange.prefetch-servers: comma-separated list of urls whose tokens are
+ *   exchanged in the background as soon as a supplier logs in (needs the cache)
+ *
+ * Concurrent exchanges for a request use a shared pool without a queue: the calling thread always
+ * makes one exchange itself, and also makes any that find the pool busy rather than waiting.
+ * Prefetches have their own pool, so a burst of logins can't hold up requests.
  */
 @Component
 @RequiredArgsConstructor
+@Slf4j
 public class TokenExchange {
 
+  private static final ParameterizedTypeReference<Map<String, String>> EXCHANGED_TOKENS =
+      new ParameterizedTypeReference<>() {};
+
   @Value("#{'${cactus.servers:}'}")
   private List<String> cactusServices;
 
   @Value("${cactus.auth.server:#{null}}")
   private String authServer;
 
+  @Value("${cactus.auth.multi-exchange:false}")
+  private boolean multiExchange;
+
+  @Value("${cactus.token-exchange.cache.ttl-seconds:0}")
+  private long cacheTtlSeconds;
+
+  @Value("${cactus.token-exchange.cache.max-entries:10000}")
+  private long cacheMaxEntries;
+
+  @Value("${cactus.token-exchange.concurrency:8}")
+  private int concurrency;
+
+  @Value("#{'${cactus.token-exchange.prefetch-servers:}'}")
+  private List<String> prefetchServers;
+
+  /**
+   * Prefetches waiting for a thread beyond this are skipped
+   */
+  @Value("${cactus.token-exchange.prefetch.max-pending:1000}")
+  private int prefetchMaxPending;
+
   private final TokenAuthenticationService tokenAuthenticationService;
   private final RestTemplate restTemplate;
+  private final RequestTimer requestTimer;
+
+  private Cache<String, Optional<String>> cache;
+  private ExecutorService executor;
+  private ExecutorService prefetchExecutor;
+
+  @PostConstruct
+  public void init() {
+    if (cacheTtlSeconds > 0) {
+      cache = CacheBuilder.newBuilder()
+          .maximumSize(cacheMaxEntries)
+          .expireAfterWrite(cacheTtlSeconds, TimeUnit.SECONDS)
+          .build();
+    }
+
+    executor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+        new SynchronousQueue<>(), daemonThreads("token-exchange-"), (task, pool) -> {
+          if (pool.isShutdown()) {
+            throw new RejectedExecutionException("Token exchange is shut down");
+          }
+          task.run();
+        });
+    prefetchExecutor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(prefetchMaxPending), daemonThreads("token-prefetch-"),
+        (task, pool) -> log.warn("Too many token prefetches pending, skipping"));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    if (prefetchExecutor != null) {
+      prefetchExecutor.shutdownNow();
+    }
+  }
+
+  private static ThreadFactory daemonThreads(String prefix) {
+    var threadCount = new AtomicInteger();
+    return runnable -> {
+      var thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
 
   public Optional<String> getExchangedToken(String requestUrl) {
     Preconditions.checkNotNull(
@@ -40,31 +149,205 @@ public class TokenExchange {
         "Property 'cactus.auth.server' must be defined");
 
     var cactusToken = tokenAuthenticationService.requireToken();
-    if (cactusServices.stream().anyMatch(requestUrl::startsWith)) {
+    if (isCactusService(requestUrl)) {
       return Optional.of(cactusToken);
     }
 
+    var cached = getCached(cactusToken, requestUrl);
+    if (cached != null) {
+      return cached;
+    }
+
+    var start = System.nanoTime();
+    try {
+      return exchange(cactusToken, requestUrl);
+    } finally {
+      requestTimer.add(Phase.TOKEN_EXCHANGE, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Obtains the tokens for several servers at once, e.g. before a fan-out, so that their
+   * exchanges overlap rather than queue behind each other. Uses a single exchange request if the
+   * auth server supports it, otherwise exchanges concurrently.
+   *
+   * @param baseUrls the servers to be called
+   * @return the token to use for each base url, or empty if it has none
+   */
+  public Map<String, Optional<String>> getExchangedTokens(Collection<String> baseUrls) {
+    Preconditions.checkNotNull(
+        authServer,
+        "Property 'cactus.auth.server' must be defined");
+
+    var cactusToken = tokenAuthenticationService.requireToken();
+    Map<String, Optional<String>> tokens = new LinkedHashMap<>();
+    var toExchange = new LinkedHashSet<String>();
+    for (var baseUrl : baseUrls) {
+      if (isCactusService(baseUrl)) {
+        tokens.put(baseUrl, Optional.of(cactusToken));
+        continue;
+      }
+
+      var cached = getCached(cactusToken, baseUrl);
+      if (cached != null) {
+        tokens.put(baseUrl, cached);
+      } else {
+        toExchange.add(baseUrl);
+      }
+    }
+
+    if (toExchange.isEmpty()) {
+      return tokens;
+    }
+
+    var start = System.nanoTime();
+    try {
+      tokens.putAll(multiExchange
+          ? exchangeAll(cactusToken, toExchange)
+          : exchangeConcurrently(cactusToken, toExchange));
+      return tokens;
+    } finally {
+      requestTimer.add(Phase.TOKEN_EXCHANGE, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Warms the cache with the tokens a newly logged in supplier is likely to need first
+   */
+  @EventListener
+  public void onTokenIssued(TokenIssuedEvent event) {
+    if (cache == null || authServer == null || prefetchServers == null) {
+      return;
+    }
+
+    var servers = prefetchServers.stream()
+        .filter(baseUrl -> !isCactusService(baseUrl))
+        .collect(Collectors.toUnmodifiableList());
+    if (servers.isEmpty()) {
+      return;
+    }
+
+    if (multiExchange) {
+      prefetchExecutor.execute(
+          () -> prefetch(servers, () -> exchangeAll(event.getToken(), servers)));
+    } else {
+      for (var baseUrl : servers) {
+        prefetchExecutor.execute(() -> prefetch(List.of(baseUrl),
+            () -> exchange(event.getToken(), baseUrl)));
+      }
+    }
+  }
+
+  private void prefetch(List<String> baseUrls, Runnable exchange) {
+    try {
+      exchange.run();
+    } catch (RuntimeException e) {
+      log.warn("Failed to prefetch tokens for {}", baseUrls, e);
+    }
+  }
+
+  private boolean isCactusService(String baseUrl) {
+    return cactusServices.stream().anyMatch(baseUrl::startsWith);
+  }
+
+  private Optional<String> getCached(String cactusToken, String baseUrl) {
+    return cache == null ? null : cache.getIfPresent(cacheKey(cactusToken, baseUrl));
+  }
+
+  private void putCached(String cactusToken, String baseUrl, Optional<String> token) {
+    if (cache != null) {
+      cache.put(cacheKey(cactusToken, baseUrl), token);
+    }
+  }
+
+  private static String cacheKey(String cactusToken, String baseUrl) {
+    // Neither tokens nor urls contain whitespace
+    return cactusToken + ' ' + baseUrl;
+  }
+
+  private Map<String, Optional<String>> exchangeConcurrently(
+      String cactusToken, Collection<String> baseUrls) {
+    var remaining = baseUrls.iterator();
+    var first = remaining.next();
+
+    Map<String, CompletableFuture<Optional<String>>> exchanges = new LinkedHashMap<>();
+    while (remaining.hasNext()) {
+      var baseUrl = remaining.next();
+      exchanges.put(baseUrl, CompletableFuture.supplyAsync(
+          () -> exchange(cactusToken, baseUrl), executor));
+    }
+
+    Map<String, Optional<String>> tokens = new HashMap<>();
+    try {
+      tokens.put(first, exchange(cactusToken, first));
+      exchanges.forEach((baseUrl, exchange) -> tokens.put(baseUrl, exchange.join()));
+    } catch (RuntimeException e) {
+      exchanges.values().forEach(exchange -> exchange.cancel(true));
+      if (e instanceof CompletionException && e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+    return tokens;
+  }
+
+  private Map<String, Optional<String>> exchangeAll(
+      String cactusToken, Collection<String> baseUrls) {
     var exchangeUri = UriComponentsBuilder.fromHttpUrl(authServer)
         .pathSegment("exchange")
-        .queryParam("baseUrl", requestUrl)
+        .queryParam("baseUrl", baseUrls.toArray())
         .build(true)
         .toUri();
 
     var request = RequestEntity.get(exchangeUri)
         .header(HttpHeaders.AUTHORIZATION, "Bearer " + cactusToken)
+        .accept(MediaType.APPLICATION_JSON)
         .build();
 
+    Map<String, String> exchanged;
     try {
-      String token = restTemplate.exchange(request, String.class).getBody();
-      return Optional.ofNullable(trimToNull(token));
-
+      exchanged = restTemplate.exchange(request, EXCHANGED_TOKENS).getBody();
     } catch (HttpClientErrorException e) {
-      if (e.getStatusCode() == HttpStatus.NOT_FOUND) {
-        return Optional.empty();
+      if (e.getStatusCode() != HttpStatus.NOT_FOUND) {
+        throw e;
       }
+      exchanged = null;
+    }
 
-      throw e;
+    Map<String, Optional<String>> tokens = new HashMap<>();
+    for (var baseUrl : baseUrls) {
+      var token = Optional.ofNullable(exchanged)
+          .map(exchangedTokens -> trimToNull(exchangedTokens.get(baseUrl)));
+      putCached(cactusToken, baseUrl, token);
+      tokens.put(baseUrl, token);
+    }
+    return tokens;
+  }
+
+  private Optional<String> exchange(String cactusToken, String baseUrl) {
+    var exchangeUri = UriComponentsBuilder.fromHttpUrl(authServer)
+        .pathSegment("exchange")
+        .queryParam("baseUrl", baseUrl)
+        .build(true)
+        .toUri();
+
+    var request = RequestEntity.get(exchangeUri)
+        .header(HttpHeaders.AUTHORIZATION, "Bearer " + cactusToken)
+        .build();
+
+    Optional<String> token;
+    try {
+      String exchanged = restTemplate.exchange(request, String.class).getBody();
+      token = Optional.ofNullable(trimToNull(exchanged));
+    } catch (HttpClientErrorException e) {
+      if (e.getStatusCode() != HttpStatus.NOT_FOUND) {
+        throw e;
+      }
+      token = Optional.empty();
     }
+
+    putCached(cactusToken, baseUrl, token);
+    return token;
   }
 
 }
\ No newline at end of file
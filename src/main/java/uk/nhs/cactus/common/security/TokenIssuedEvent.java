@@ -0,0 +1,12 @@
+package uk.nhs.cactus.common.security;
+
+import lombok.Value;
+
+/**
+ * Published when a supplier logs in and is issued a token
+ */
+@Value
+public class TokenIssuedEvent {
+  String token;
+  String supplierId;
+}
@@ -0,0 +1,73 @@
+package uk.nhs.cactus.common.timing;
+
+import java.util.Optional;
+import org.springframework.stereotype.Component;
+
+/**
+ * Accumulates the time the current thread's request spends in each phase, from
+ * {@link #start()} to {@link #stop()}. Time added outside a request is ignored.
+ */
+@Component
+public class RequestTimer {
+
+  public enum Phase {
+    FHIR,
+    TOKEN_EXCHANGE,
+    AUDIT
+  }
+
+  private static final double NANOS_PER_MILLI = 1e6;
+
+  private final ThreadLocal<Timings> current = new ThreadLocal<>();
+
+  public void start() {
+    current.set(new Timings(System.nanoTime()));
+  }
+
+  public void stop() {
+    current.remove();
+  }
+
+  public void add(Phase phase, long nanos) {
+    var timings = current.get();
+    if (timings != null) {
+      timings.nanos[phase.ordinal()] += nanos;
+      timings.counts[phase.ordinal()]++;
+    }
+  }
+
+  /**
+   * @return the breakdown of the current request so far, or empty if there is no current request
+   */
+  public Optional<TimingBreakdown> breakdown() {
+    var timings = current.get();
+    if (timings == null) {
+      return Optional.empty();
+    }
+
+    var total = System.nanoTime() - timings.startNanos;
+    var fhir = timings.nanos[Phase.FHIR.ordinal()];
+    var tokenExchange = timings.nanos[Phase.TOKEN_EXCHANGE.ordinal()];
+    var audit = timings.nanos[Phase.AUDIT.ordinal()];
+    return Optional.of(TimingBreakdown.builder()
+        .totalMillis(total / NANOS_PER_MILLI)
+        .fhirMillis(fhir / NANOS_PER_MILLI)
+        .fhirCalls(timings.counts[Phase.FHIR.ordinal()])
+        .tokenExchangeMillis(tokenExchange / NANOS_PER_MILLI)
+        .tokenExchanges(timings.counts[Phase.TOKEN_EXCHANGE.ordinal()])
+        .auditMillis(audit / NANOS_PER_MILLI)
+        .applicationMillis(Math.max(0, total - fhir - tokenExchange - audit) / NANOS_PER_MILLI)
+        .build());
+  }
+
+  private static class Timings {
+
+    private final long startNanos;
+    private final long[] nanos = new long[Phase.values().length];
+    private final int[] counts = new int[Phase.values().length];
+
+    Timings(long startNanos) {
+      this.startNanos = startNanos;
+    }
+  }
+}
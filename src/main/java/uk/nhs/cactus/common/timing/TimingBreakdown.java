@@ -0,0 +1,45 @@
+package uk.nhs.cactus.common.timing;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Where the time handling a request went, as far as this server can tell
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Builder
+public class TimingBreakdown {
+
+  double totalMillis;
+
+  /**
+   * Waiting on outgoing FHIR calls
+   */
+  double fhirMillis;
+  int fhirCalls;
+
+  /**
+   * Exchanging the caller's token for tokens to call other servers with
+   */
+  double tokenExchangeMillis;
+  int tokenExchanges;
+
+  /**
+   * Capturing the request, response and FHIR calls for the audit. Sending the audit comes after
+   * the breakdown is taken, so isn't included.
+   */
+  double auditMillis;
+
+  /**
+   * The rest of the total: this server's own work
+   */
+  double applicationMillis;
+
+}
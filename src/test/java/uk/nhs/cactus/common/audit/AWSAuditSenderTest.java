@@ -1,20 +1,39 @@
 package uk.nhs.cactus.common.audit;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.AmazonSQSException;
 import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
 import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.net.SocketTimeoutException;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -25,6 +44,7 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.test.util.ReflectionTestUtils;
 import uk.nhs.cactus.common.audit.model.AuditEntry;
+import uk.nhs.cactus.common.audit.model.AuditProperties;
 import uk.nhs.cactus.common.audit.model.AuditSession;
 import uk.nhs.cactus.common.audit.sender.AWSAuditSender;
 import uk.nhs.cactus.common.security.TokenAuthenticationService;
@@ -96,6 +116,236 @@ public class AWSAuditSenderTest {
     verifyZeroInteractions(mockSqs);
   }
 
+  @Test
+  public void shouldKeepInteractionInOneShardedGroup() throws Exception {
+    ReflectionTestUtils.setField(sqsService, "loggingQueue", "mock.queue");
+    ReflectionTestUtils.setField(sqsService, "serviceName", "cdss");
+    ReflectionTestUtils.setField(sqsService, "groupShards", 1);
+    ReflectionTestUtils.setField(sqsService, "supplierGroupShards", "other=2, mocksupplierid=8");
+    sqsService.init();
+    when(mockAuthService.getCurrentSupplierId())
+        .thenReturn(Optional.of("mocksupplierid"));
+    when(mockMapper.writeValueAsString(any(AuditSession.class)))
+        .thenReturn("testMessageBody");
+
+    var first = testSession();
+    first.setAdditionalProperties(Map.of(AuditProperties.INTERACTION_ID, "interaction1"));
+    var second = testSession();
+    second.setAdditionalProperties(Map.of(AuditProperties.INTERACTION_ID, "interaction1"));
+    sqsService.sendAudit(first);
+    sqsService.sendAudit(second);
+
+    var captor = ArgumentCaptor.forClass(SendMessageRequest.class);
+    verify(mockSqs, times(2)).sendMessage(captor.capture());
+
+    var groups = captor.getAllValues().stream()
+        .map(SendMessageRequest::getMessageGroupId)
+        .collect(Collectors.toList());
+    assertThat(groups.get(0).matches("mocksupplierid#[0-7]"), is(true));
+    assertThat(groups.get(1), is(groups.get(0)));
+    assertThat(captor.getValue().getMessageAttributes(),
+        hasEntry("supplierId", new MessageAttributeValue()
+            .withDataType("String")
+            .withStringValue("mocksupplierid")));
+  }
+
+  @Test
+  public void init_supplierGroupShards_skipsEmptyEntries() {
+    ReflectionTestUtils.setField(sqsService, "supplierGroupShards", "busy=4, ,quiet = 2,");
+
+    sqsService.init();
+
+    assertThat(ReflectionTestUtils.getField(sqsService, "shardsBySupplier"),
+        is(Map.of("busy", 4, "quiet", 2)));
+  }
+
+  @Test
+  public void init_supplierGroupShardsWithoutShards_namesProperty() {
+    exception.expect(IllegalStateException.class);
+    exception.expectMessage(containsString("'quiet' in sqs.audit.supplier-group-shards"));
+
+    ReflectionTestUtils.setField(sqsService, "supplierGroupShards", "busy=4,quiet");
+    sqsService.init();
+  }
+
+  @Test
+  public void init_supplierGroupShardsWithoutSupplier_namesProperty() {
+    exception.expect(IllegalStateException.class);
+    exception.expectMessage(containsString("'=4' in sqs.audit.supplier-group-shards"));
+
+    ReflectionTestUtils.setField(sqsService, "supplierGroupShards", "=4");
+    sqsService.init();
+  }
+
+  @Test
+  public void init_supplierGroupShardsWithNonNumericShards_namesProperty() {
+    exception.expect(IllegalStateException.class);
+    exception.expectMessage(containsString("'busy=x' in sqs.audit.supplier-group-shards"));
+
+    ReflectionTestUtils.setField(sqsService, "supplierGroupShards", "busy=x");
+    sqsService.init();
+  }
+
+  @Test
+  public void init_supplierGroupShardsWithZeroShards_namesProperty() {
+    exception.expect(IllegalStateException.class);
+    exception.expectMessage(containsString("'busy=0' in sqs.audit.supplier-group-shards"));
+
+    ReflectionTestUtils.setField(sqsService, "supplierGroupShards", "busy=0");
+    sqsService.init();
+  }
+
+  @Test
+  public void init_supplierGroupShardsWithNegativeShards_namesProperty() {
+    exception.expect(IllegalStateException.class);
+    exception.expectMessage(containsString("'busy=-1' in sqs.audit.supplier-group-shards"));
+
+    ReflectionTestUtils.setField(sqsService, "supplierGroupShards", "quiet=2,busy=-1");
+    sqsService.init();
+  }
+  @Test
+  public void shouldRetryTransientErrorsWithSameDeduplicationId() throws Exception {
+    ReflectionTestUtils.setField(sqsService, "loggingQueue", "mock.queue");
+    ReflectionTestUtils.setField(sqsService, "serviceName", "cdss");
+    ReflectionTestUtils.setField(sqsService, "maxAttempts", 3);
+    ReflectionTestUtils.setField(sqsService, "maxPendingRetries", 10);
+    ReflectionTestUtils.setField(sqsService, "retryBaseDelayMillis", 0L);
+    when(mockAuthService.getCurrentSupplierId())
+        .thenReturn(Optional.of("mocksupplierid"));
+    when(mockMapper.writeValueAsString(any(AuditSession.class)))
+        .thenReturn("testMessageBody");
+
+    var throttled = new AmazonSQSException("Rate exceeded");
+    throttled.setErrorCode("ThrottlingException");
+    throttled.setStatusCode(400);
+    when(mockSqs.sendMessage(any(SendMessageRequest.class)))
+        .thenThrow(throttled)
+        .thenReturn(new SendMessageResult());
+
+    var session = testSession();
+    sqsService.sendAudit(session);
+    sqsService.sendAudit(session.toBuilder().build());
+
+    var captor = ArgumentCaptor.forClass(SendMessageRequest.class);
+    verify(mockSqs, timeout(1000).times(3)).sendMessage(captor.capture());
+    var deduplicationIds = captor.getAllValues().stream()
+        .map(SendMessageRequest::getMessageDeduplicationId)
+        .distinct()
+        .collect(Collectors.toList());
+    assertThat(deduplicationIds, hasSize(1));
+  }
+
+  @Test
+  public void shouldNotWaitToRetryOnCallingThread() throws Exception {
+    ReflectionTestUtils.setField(sqsService, "loggingQueue", "mock.queue");
+    ReflectionTestUtils.setField(sqsService, "serviceName", "cdss");
+    ReflectionTestUtils.setField(sqsService, "maxAttempts", 3);
+    ReflectionTestUtils.setField(sqsService, "maxPendingRetries", 10);
+    ReflectionTestUtils.setField(sqsService, "retryBaseDelayMillis", 60_000L);
+    ReflectionTestUtils.setField(sqsService, "retryMaxDelayMillis", 60_000L);
+    when(mockAuthService.getCurrentSupplierId())
+        .thenReturn(Optional.of("mocksupplierid"));
+    when(mockMapper.writeValueAsString(any(AuditSession.class)))
+        .thenReturn("testMessageBody");
+    when(mockSqs.sendMessage(any(SendMessageRequest.class)))
+        .thenThrow(new AmazonClientException("timed out", new SocketTimeoutException()));
+
+    var start = System.nanoTime();
+    sqsService.sendAudit(testSession());
+    var elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    verify(mockSqs).sendMessage(any(SendMessageRequest.class));
+    assertThat(elapsedMillis, lessThan(1000L));
+    sqsService.shutdown();
+  }
+
+  @Test
+  public void shouldNotRetryBeyondMaxPendingRetries() throws Exception {
+    ReflectionTestUtils.setField(sqsService, "loggingQueue", "mock.queue");
+    ReflectionTestUtils.setField(sqsService, "serviceName", "cdss");
+    ReflectionTestUtils.setField(sqsService, "maxAttempts", 3);
+    ReflectionTestUtils.setField(sqsService, "maxPendingRetries", 0);
+    when(mockAuthService.getCurrentSupplierId())
+        .thenReturn(Optional.of("mocksupplierid"));
+    when(mockMapper.writeValueAsString(any(AuditSession.class)))
+        .thenReturn("testMessageBody");
+    when(mockSqs.sendMessage(any(SendMessageRequest.class)))
+        .thenThrow(new AmazonClientException("timed out", new SocketTimeoutException()));
+
+    sqsService.sendAudit(testSession());
+
+    verify(mockSqs, after(200).times(1)).sendMessage(any(SendMessageRequest.class));
+  }
+
+  @Test
+  public void shouldNotRetryClientErrors() throws Exception {
+    ReflectionTestUtils.setField(sqsService, "loggingQueue", "mock.queue");
+    ReflectionTestUtils.setField(sqsService, "serviceName", "cdss");
+    ReflectionTestUtils.setField(sqsService, "maxAttempts", 3);
+    when(mockAuthService.getCurrentSupplierId())
+        .thenReturn(Optional.of("mocksupplierid"));
+    when(mockMapper.writeValueAsString(any(AuditSession.class)))
+        .thenReturn("testMessageBody");
+
+    var tooLarge = new AmazonSQSException("Too large");
+    tooLarge.setStatusCode(413);
+    when(mockSqs.sendMessage(any(SendMessageRequest.class))).thenThrow(tooLarge);
+
+    sqsService.sendAudit(testSession());
+
+    verify(mockSqs).sendMessage(any(SendMessageRequest.class));
+  }
+
+  @Test
+  public void sendBatch_splitsByCount() throws Exception {
+    var sizes = sendBatch(Collections.nCopies(12, 10));
+
+    assertThat(sizes, is(List.of(10, 2)));
+  }
+
+  @Test
+  public void sendBatch_splitsBySize() throws Exception {
+    var sizes = sendBatch(List.of(100_000, 100_000, 100_000, 10, 10));
+
+    assertThat(sizes, is(List.of(2, 3)));
+  }
+
+  @Test
+  public void sendBatch_sendsOversizedSessionAlone() throws Exception {
+    var sizes = sendBatch(List.of(10, 300_000, 10));
+
+    assertThat(sizes, is(List.of(1, 1, 1)));
+  }
+
+  /**
+   * Sends a session with a body of each size in one call
+   *
+   * @return the number of messages in each batch request
+   */
+  private List<Integer> sendBatch(List<Integer> bodySizes) throws Exception {
+    ReflectionTestUtils.setField(sqsService, "loggingQueue", "mock.queue");
+    ReflectionTestUtils.setField(sqsService, "serviceName", "cdss");
+    when(mockSqs.sendMessageBatch(any(SendMessageBatchRequest.class)))
+        .thenReturn(new SendMessageBatchResult());
+
+    var sessions = new ArrayList<AuditSession>();
+    for (var size : bodySizes) {
+      var session = testSession();
+      session.setRequestBody(String.valueOf(sessions.size()));
+      session.setAdditionalProperties(Map.of(AuditProperties.SUPPLIER_ID, "mocksupplierid"));
+      when(mockMapper.writeValueAsString(session)).thenReturn("a".repeat(size));
+      sessions.add(session);
+    }
+
+    assertThat(sqsService.sendBatch(sessions), is(0));
+
+    var captor = ArgumentCaptor.forClass(SendMessageBatchRequest.class);
+    verify(mockSqs, atLeastOnce()).sendMessageBatch(captor.capture());
+    return captor.getAllValues().stream()
+        .map(request -> request.getEntries().size())
+        .collect(Collectors.toList());
+  }
+
   private AuditSession testSession() {
     return AuditSession.builder()
         .createdDate(Instant.now())
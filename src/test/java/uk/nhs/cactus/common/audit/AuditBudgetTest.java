@@ -0,0 +1,193 @@
+package uk.nhs.cactus.common.audit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.startsWith;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.nhs.cactus.common.audit.AuditBudget.BodyGroup;
+import uk.nhs.cactus.common.audit.config.MapperConfig;
+import uk.nhs.cactus.common.audit.model.AuditEntry;
+import uk.nhs.cactus.common.audit.model.AuditSession;
+
+public class AuditBudgetTest {
+
+  private static final int MAX_BYTES = 20_000;
+
+  private ObjectMapper mapper;
+  private AuditBudget auditBudget;
+
+  @Before
+  public void setup() {
+    mapper = new MapperConfig().registryObjectMapper();
+    auditBudget = new AuditBudget(mapper);
+    ReflectionTestUtils.setField(auditBudget, "maxBytes", MAX_BYTES);
+    ReflectionTestUtils.setField(auditBudget, "priority", List.of(
+        BodyGroup.SESSION_RESPONSE, BodyGroup.FAILED_ENTRIES,
+        BodyGroup.SESSION_REQUEST, BodyGroup.ENTRIES));
+  }
+
+  @Test
+  public void fit_withinBudget_leavesSessionUnchanged() {
+    var session = session("request", "response");
+    session.getEntries().add(entry("200", "entry request", "entry response"));
+
+    auditBudget.fit(session);
+
+    assertThat(session.getRequestBody(), is("request"));
+    assertThat(session.getResponseBody(), is("response"));
+    assertThat(session.getEntries().get(0).getResponseBody(), is("entry response"));
+  }
+
+  @Test
+  public void fit_overBudget_fitsEncodedSize() throws Exception {
+    var session = session(body('q', 15_000), body('s', 15_000));
+    for (int i = 0; i < 20; i++) {
+      session.getEntries().add(entry("200", body('a', 5_000), "{\"quoted\":\"" + body('b', 5_000)));
+    }
+
+    auditBudget.fit(session);
+
+    assertThat(mapper.writeValueAsBytes(session).length, lessThanOrEqualTo(MAX_BYTES));
+  }
+
+  @Test
+  public void fit_overBudget_trimsLowestPriorityFirst() {
+    var response = body('s', 5_000);
+    var failedResponse = body('f', 5_000);
+    var session = session(body('q', 5_000), response);
+    session.getEntries().add(entry("500", null, failedResponse));
+    session.getEntries().add(entry("200", body('a', 10_000), body('b', 10_000)));
+
+    auditBudget.fit(session);
+
+    assertThat(session.getResponseBody(), is(response));
+    assertThat(session.getEntries().get(0).getResponseBody(), is(failedResponse));
+    assertThat(session.getEntries().get(1).getResponseBody(), containsString("[elided: 10000 bytes"));
+  }
+
+  @Test
+  public void trim_keepsHeadAndTailWithSizeAndDigest() {
+    var body = body('h', 500) + body('m', 1_000) + body('t', 500);
+    var digest = Hashing.sha256().hashString(body, StandardCharsets.UTF_8).toString();
+
+    var trimmed = AuditBudget.trim(body, 400);
+
+    assertThat(trimmed, startsWith("hhhh"));
+    assertThat(trimmed, endsWith("tttt"));
+    assertThat(trimmed, containsString("[elided: 2000 bytes, sha256 " + digest + "]"));
+    assertThat(AuditBudget.encodedLength(trimmed), lessThanOrEqualTo(400L));
+  }
+
+  @Test
+  public void trim_twice_keepsOriginalSizeAndDigest() {
+    var body = body('x', 2_000);
+    var digest = Hashing.sha256().hashString(body, StandardCharsets.UTF_8).toString();
+
+    var trimmed = AuditBudget.trim(AuditBudget.trim(body, 1_000), 300);
+
+    assertThat(trimmed, containsString("[elided: 2000 bytes, sha256 " + digest + "]"));
+    assertThat(AuditBudget.encodedLength(trimmed), lessThanOrEqualTo(300L));
+  }
+
+  @Test
+  public void trim_countsMultiByteCharacters() {
+    var body = "é".repeat(1_000);
+
+    var trimmed = AuditBudget.trim(body, 300);
+
+    assertThat(trimmed, containsString("[elided: 2000 bytes"));
+    assertThat(trimmed.getBytes(StandardCharsets.UTF_8).length, lessThanOrEqualTo(300));
+  }
+
+  @Test
+  public void fit_withTooManyEntries_dropsLowestPriorityEntries() throws Exception {
+    var session = session(null, null);
+    for (int i = 0; i < 200; i++) {
+      var entry = entry("200", null, null);
+      entry.setRequestHeaders(body('h', 500));
+      session.getEntries().add(entry);
+    }
+
+    auditBudget.fit(session);
+
+    assertThat(mapper.writeValueAsBytes(session).length, lessThanOrEqualTo(MAX_BYTES));
+    assertThat(session.getAdditionalProperties(),
+        hasEntry(AuditBudget.ELIDED_ENTRIES, String.valueOf(200 - session.getEntries().size())));
+  }
+
+  @Test
+  public void fit_droppingEntries_removesBodiesOnlyTheyReferred() {
+    var session = session(null, null);
+    session.setBodies(new HashMap<>());
+    for (int i = 0; i < 100; i++) {
+      var entry = entry("200", null, null);
+      entry.setRequestHeaders(body('h', 500));
+      entry.setResponseBodyRef("ref-" + i);
+      session.getEntries().add(entry);
+      session.getBodies().put("ref-" + i, "response " + i);
+    }
+
+    auditBudget.fit(session);
+
+    var referenced = session.getEntries().stream()
+        .map(AuditEntry::getResponseBodyRef)
+        .collect(Collectors.toSet());
+    assertThat(session.getEntries().size(), lessThan(100));
+    assertThat(session.getBodies().keySet(), is(referenced));
+    assertThat(session.getBodies().values(), everyItem(startsWith("response ")));
+  }
+
+  @Test
+  public void fit_disabled_leavesSessionUnchanged() {
+    ReflectionTestUtils.setField(auditBudget, "maxBytes", 0);
+    var session = session(body('q', 50_000), null);
+
+    auditBudget.fit(session);
+
+    assertThat(session.getRequestBody().length(), is(50_000));
+    assertThat(session.getEntries(), hasSize(0));
+  }
+
+  private static AuditSession session(String requestBody, String responseBody) {
+    var session = AuditSession.builder()
+        .requestUrl("/fhir/ServiceDefinition/$evaluate")
+        .requestBody(requestBody)
+        .responseStatus("200")
+        .responseBody(responseBody)
+        .build();
+    // The builder's lists are immutable, entries are added as the session progresses
+    session.setEntries(new ArrayList<>());
+    session.setAdditionalProperties(new HashMap<>());
+    return session;
+  }
+
+  private static AuditEntry entry(String status, String requestBody, String responseBody) {
+    return AuditEntry.builder()
+        .requestUrl("http://remote/fhir/Questionnaire")
+        .requestBody(requestBody)
+        .responseStatus(status)
+        .responseBody(responseBody)
+        .build();
+  }
+
+  private static String body(char c, int length) {
+    return String.valueOf(c).repeat(length);
+  }
+}
@@ -0,0 +1,116 @@
+package uk.nhs.cactus.common.audit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.nhs.cactus.common.audit.model.HttpRequest;
+import uk.nhs.cactus.common.audit.model.HttpResponse;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AuditFhirClientInterceptorTest {
+
+  private static final byte[] BUNDLE =
+      "{\"resourceType\":\"Bundle\"}".getBytes(StandardCharsets.UTF_8);
+
+  @Mock
+  private AuditService auditService;
+
+  @Mock
+  private IHttpRequest fhirRequest;
+
+  @Mock
+  private IHttpResponse fhirResponse;
+
+  @InjectMocks
+  private AuditFhirClientInterceptor interceptor;
+
+  @Test
+  public void interceptRequest_withNoAuditSession_shouldNotCaptureRequest() throws IOException {
+    when(auditService.isAuditing()).thenReturn(false);
+
+    interceptor.interceptRequest(fhirRequest);
+
+    verify(fhirRequest, never()).getRequestBodyFromStream();
+    verify(auditService, never()).startEntry(any());
+  }
+
+  @Test
+  public void interceptRequest_withExcludedUrl_shouldNotCaptureRequest() {
+    ReflectionTestUtils.setField(interceptor, "excludedUrls", List.of("http://excluded/"));
+    when(auditService.isAuditing()).thenReturn(true);
+    when(fhirRequest.getUri()).thenReturn("http://excluded/fhir/ValueSet");
+
+    interceptor.interceptRequest(fhirRequest);
+
+    verify(auditService, never()).startEntry(any());
+  }
+
+  @Test
+  public void interceptRequest_withAuditSession_shouldStartEntry() throws IOException {
+    when(auditService.isAuditing()).thenReturn(true);
+    when(fhirRequest.getUri()).thenReturn("http://remote/fhir/Patient");
+    when(fhirRequest.getRequestBodyFromStream()).thenReturn("{}");
+
+    interceptor.interceptRequest(fhirRequest);
+
+    var captor = ArgumentCaptor.forClass(HttpRequest.class);
+    verify(auditService).startEntry(captor.capture());
+    assertThat(captor.getValue().getBodyText(), is("{}"));
+  }
+
+  @Test
+  public void interceptResponse_withNoOpenEntry_shouldNotBufferResponse() throws IOException {
+    when(auditService.hasOpenEntry()).thenReturn(false);
+
+    interceptor.interceptResponse(fhirResponse);
+
+    verify(fhirResponse, never()).bufferEntity();
+    verify(fhirResponse, never()).readEntity();
+    verify(auditService, never()).endEntry(any());
+  }
+
+  @Test
+  public void interceptResponse_withApacheResponse_shouldShareBodyWithHapi() throws IOException {
+    var apacheResponse = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+    apacheResponse.setEntity(new ByteArrayEntity(BUNDLE, ContentType.APPLICATION_JSON));
+    when(auditService.hasOpenEntry()).thenReturn(true);
+    when(fhirResponse.getResponse()).thenReturn(apacheResponse);
+    when(fhirResponse.getStatus()).thenReturn(200);
+    when(fhirResponse.getAllHeaders()).thenReturn(Map.of());
+
+    interceptor.interceptResponse(fhirResponse);
+
+    var captor = ArgumentCaptor.forClass(HttpResponse.class);
+    verify(auditService).endEntry(captor.capture());
+    verify(fhirResponse, never()).bufferEntity();
+    assertThat(captor.getValue().getBody(), is(BUNDLE));
+
+    // HAPI can still read (and re-read) the body
+    assertThat(EntityUtils.toByteArray(apacheResponse.getEntity()), is(BUNDLE));
+    assertThat(apacheResponse.getEntity().isRepeatable(), is(true));
+    assertThat(apacheResponse.getEntity().getContentType().getValue(),
+        is(ContentType.APPLICATION_JSON.toString()));
+  }
+}
@@ -0,0 +1,210 @@
+package uk.nhs.cactus.common.audit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.nhs.cactus.common.audit.AuditRateLimiter.OverflowPolicy;
+import uk.nhs.cactus.common.audit.model.AuditEntry;
+import uk.nhs.cactus.common.audit.model.AuditSession;
+import uk.nhs.cactus.common.audit.sender.AuditSender;
+import uk.nhs.cactus.common.security.TokenAuthenticationService;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AuditRateLimiterTest {
+
+  @Rule
+  public ExpectedException expect = ExpectedException.none();
+
+  @Mock
+  private TokenAuthenticationService mockAuthService;
+
+  @Mock
+  private AuditSender mockSender;
+
+  @Mock
+  private AuditSender mockOverflowSender;
+
+  private final AtomicLong now = new AtomicLong(1_000_000L);
+  private AuditRateLimiter rateLimiter;
+
+  @Before
+  public void setup() {
+    rateLimiter = new AuditRateLimiter(mockAuthService, Map.of("overflowSender", mockOverflowSender));
+    ReflectionTestUtils.setField(rateLimiter, "enabled", true);
+    ReflectionTestUtils.setField(rateLimiter, "defaultPerSecond", 10.0);
+    ReflectionTestUtils.setField(rateLimiter, "supplierRates", "busy=1");
+    ReflectionTestUtils.setField(rateLimiter, "burst", 2);
+    ReflectionTestUtils.setField(rateLimiter, "overflowPolicy", OverflowPolicy.HEADERS_ONLY);
+    ReflectionTestUtils.setField(rateLimiter, "overflowSenderName", "overflowSender");
+    ReflectionTestUtils.setField(rateLimiter, "idleEvictionSeconds", 600L);
+    rateLimiter.nanoTime = now::get;
+    rateLimiter.init();
+  }
+
+  @Test
+  public void tryAcquire_allowsBurstThenRate() {
+    asSupplier("busy");
+
+    assertThat(rateLimiter.tryAcquire(), is(true));
+    assertThat(rateLimiter.tryAcquire(), is(true));
+    assertThat(rateLimiter.tryAcquire(), is(false));
+
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+    assertThat(rateLimiter.tryAcquire(), is(false));
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+    assertThat(rateLimiter.tryAcquire(), is(true));
+
+    assertThat(rateLimiter.getThrottledCounts(), is(Map.of("busy", 2L)));
+  }
+
+  @Test
+  public void tryAcquire_suppliersLimitedSeparately() {
+    asSupplier("busy");
+    rateLimiter.tryAcquire();
+    rateLimiter.tryAcquire();
+    assertThat(rateLimiter.tryAcquire(), is(false));
+
+    asSupplier("quiet");
+    assertThat(rateLimiter.tryAcquire(), is(true));
+  }
+
+  @Test
+  public void tryAcquire_disabled_alwaysAllows() {
+    ReflectionTestUtils.setField(rateLimiter, "enabled", false);
+
+    for (int i = 0; i < 10; i++) {
+      assertThat(rateLimiter.tryAcquire(), is(true));
+    }
+  }
+
+  @Test
+  public void sendThrottled_headersOnly_stripsBodies() {
+    var entry = AuditEntry.builder().requestBody("request").responseBody("response").build();
+    var session = AuditSession.builder()
+        .requestBody("request")
+        .requestHeaders("headers")
+        .responseBody("response")
+        .additionalProperties(new HashMap<>())
+        .entries(List.of(entry))
+        .build();
+
+    rateLimiter.sendThrottled(session, mockSender);
+
+    verify(mockSender).sendAudit(session);
+    assertThat(session.getRequestBody(), nullValue());
+    assertThat(session.getResponseBody(), nullValue());
+    assertThat(session.getRequestHeaders(), is("headers"));
+    assertThat(entry.getResponseBody(), nullValue());
+    assertThat(session.getAdditionalProperties(), hasEntry(AuditRateLimiter.THROTTLED, "true"));
+  }
+
+  @Test
+  public void sendThrottled_sender_routesToOverflow() {
+    ReflectionTestUtils.setField(rateLimiter, "overflowPolicy", OverflowPolicy.SENDER);
+    rateLimiter.init();
+    var session = AuditSession.builder().requestBody("request").build();
+
+    rateLimiter.sendThrottled(session, mockSender);
+
+    verify(mockOverflowSender).sendAudit(session);
+    assertThat(session.getRequestBody(), is("request"));
+  }
+
+  @Test
+  public void parseRates_skipsEmptyEntries() {
+    var rates = rateLimiter.parseRates("busy=1, ,quiet = 0.5,");
+
+    assertThat(rates, is(Map.of("busy", 1.0, "quiet", 0.5)));
+  }
+
+  @Test
+  public void parseRates_withoutRate_namesProperty() {
+    expect.expect(IllegalStateException.class);
+    expect.expectMessage(containsString("'quiet' in audit.rate-limit.supplier-rates"));
+
+    rateLimiter.parseRates("busy=1,quiet");
+  }
+
+  @Test
+  public void parseRates_withNonNumericRate_namesProperty() {
+    expect.expect(IllegalStateException.class);
+    expect.expectMessage(containsString("'busy=fast' in audit.rate-limit.supplier-rates"));
+
+    rateLimiter.parseRates("busy=fast");
+  }
+
+  @Test
+  public void parseRates_withZeroRate_namesProperty() {
+    expect.expect(IllegalStateException.class);
+    expect.expectMessage(containsString("'busy=0' in audit.rate-limit.supplier-rates"));
+
+    rateLimiter.parseRates("busy=0");
+  }
+
+  @Test
+  public void parseRates_withNegativeRate_namesProperty() {
+    expect.expect(IllegalStateException.class);
+    expect.expectMessage(containsString("'busy=-1' in audit.rate-limit.supplier-rates"));
+
+    rateLimiter.parseRates("quiet=0.5,busy=-1");
+  }
+
+  @Test
+  public void parseRates_withNonFiniteRate_namesProperty() {
+    expect.expect(IllegalStateException.class);
+    expect.expectMessage(containsString("'busy=NaN' in audit.rate-limit.supplier-rates"));
+
+    rateLimiter.parseRates("busy=NaN");
+  }
+
+  @Test
+  public void parseRates_withInfiniteRate_namesProperty() {
+    expect.expect(IllegalStateException.class);
+    expect.expectMessage(containsString("'busy=Infinity' in audit.rate-limit.supplier-rates"));
+
+    rateLimiter.parseRates("busy=Infinity");
+  }
+
+  @Test
+  public void init_withZeroDefaultRate_namesProperty() {
+    ReflectionTestUtils.setField(rateLimiter, "defaultPerSecond", 0.0);
+
+    expect.expect(IllegalStateException.class);
+    expect.expectMessage(containsString("audit.rate-limit.default-per-second '0.0'"));
+
+    rateLimiter.init();
+  }
+
+  @Test
+  public void init_withNonFiniteDefaultRate_namesProperty() {
+    ReflectionTestUtils.setField(rateLimiter, "defaultPerSecond", Double.NaN);
+
+    expect.expect(IllegalStateException.class);
+    expect.expectMessage(containsString("audit.rate-limit.default-per-second 'NaN'"));
+
+    rateLimiter.init();
+  }
+
+  private void asSupplier(String supplierId) {
+    when(mockAuthService.getCurrentSupplierId()).thenReturn(Optional.of(supplierId));
+  }
+}
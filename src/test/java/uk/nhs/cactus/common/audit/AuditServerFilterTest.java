@@ -0,0 +1,160 @@
+package uk.nhs.cactus.common.audit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.util.ContentCachingRequestWrapper;
+import uk.nhs.cactus.common.audit.model.AuditSession;
+import uk.nhs.cactus.common.audit.model.HttpRequest;
+import uk.nhs.cactus.common.audit.sender.AuditSender;
+import uk.nhs.cactus.common.testhelper.AllocationMeter;
+import uk.nhs.cactus.common.timing.RequestTimer;
+
+@RunWith(MockitoJUnitRunner.class)
+@Slf4j
+public class AuditServerFilterTest {
+
+  private static final byte[] READ_BUFFER = new byte[8192];
+
+  @Mock
+  private AuditService auditService;
+
+  @Mock
+  private AuditSender auditSender;
+
+  @Mock
+  private AuditRateLimiter auditRateLimiter;
+
+  @Mock
+  private RequestTimer requestTimer;
+
+  @Mock
+  private ServerTimingHeader serverTimingHeader;
+
+  @InjectMocks
+  private AuditServerFilter auditServerFilter;
+
+  @Test
+  public void doFilter_completesSessionWithHeaderSnapshotAndBody() throws Exception {
+    var body = "{\"resourceType\":\"Parameters\"}".getBytes(StandardCharsets.UTF_8);
+    var request = request(body);
+    request.addHeader("X-Test", "first");
+    request.addHeader("X-Test", "second");
+
+    auditServerFilter.doFilter(request, new MockHttpServletResponse(), AuditServerFilterTest::readBody);
+
+    var started = ArgumentCaptor.forClass(HttpRequest.class);
+    var completed = ArgumentCaptor.forClass(HttpRequest.class);
+    verify(auditService).startAuditSession(started.capture());
+    verify(auditService).completeAuditSession(completed.capture(), any());
+
+    assertThat(started.getValue().getBody(), nullValue());
+    assertThat(started.getValue().getHeaders().get("X-Test"), contains("first", "second"));
+    assertThat(completed.getValue().getHeaders(), is(started.getValue().getHeaders()));
+    assertThat(completed.getValue().getBody(), is(body));
+  }
+
+  @Test
+  public void doFilter_withContentCachingRequest_capturesBody() throws Exception {
+    var body = "cached body".getBytes(StandardCharsets.UTF_8);
+    var request = new ContentCachingRequestWrapper(request(body));
+
+    auditServerFilter.doFilter(request, new MockHttpServletResponse(), AuditServerFilterTest::readBody);
+
+    var completed = ArgumentCaptor.forClass(HttpRequest.class);
+    verify(auditService).completeAuditSession(completed.capture(), any());
+    assertThat(completed.getValue().getBody(), is(body));
+  }
+
+  @Test
+  public void doFilter_withUnreadBody_capturesNothing() throws Exception {
+    auditServerFilter.doFilter(request("unread".getBytes(StandardCharsets.UTF_8)),
+        new MockHttpServletResponse(), (req, res) -> {});
+
+    var completed = ArgumentCaptor.forClass(HttpRequest.class);
+    verify(auditService).completeAuditSession(completed.capture(), any());
+    assertThat(completed.getValue().getBody().length, is(0));
+  }
+
+  @Test
+  public void doFilter_timesRequest() throws Exception {
+    var session = AuditSession.builder().build();
+    when(auditService.completeAuditSession(any(), any())).thenReturn(session);
+    when(auditRateLimiter.tryAcquire()).thenReturn(true);
+    var response = new MockHttpServletResponse();
+
+    auditServerFilter.doFilter(request(new byte[0]), response, (req, res) -> {});
+
+    var inOrder = inOrder(requestTimer, serverTimingHeader, auditSender);
+    inOrder.verify(requestTimer).start();
+    inOrder.verify(serverTimingHeader).addTo(any());
+    inOrder.verify(auditSender).sendAudit(session);
+    inOrder.verify(requestTimer).stop();
+  }
+
+  @Test
+  public void doFilter_allocatesOneBodyCopyLessThanContentCaching() throws Exception {
+    assumeTrue(AllocationMeter.isSupported());
+
+    // Stub-only mocks so recorded invocations don't accumulate across iterations
+    var filter = new AuditServerFilter(
+        mock(AuditService.class, withSettings().stubOnly()),
+        mock(AuditSender.class, withSettings().stubOnly()),
+        mock(AuditRateLimiter.class, withSettings().stubOnly()),
+        mock(RequestTimer.class, withSettings().stubOnly()),
+        mock(ServerTimingHeader.class, withSettings().stubOnly()));
+    var body = new byte[256 * 1024];
+    Arrays.fill(body, (byte) 'a');
+
+    var capturing = AllocationMeter.minAllocatedBytes(20, () ->
+        filter.doFilter(request(body), new MockHttpServletResponse(),
+            AuditServerFilterTest::readBody));
+    var contentCaching = AllocationMeter.minAllocatedBytes(20, () ->
+        filter.doFilter(new ContentCachingRequestWrapper(request(body)),
+            new MockHttpServletResponse(), AuditServerFilterTest::readBody));
+
+    log.info("Allocated per audited request: {} bytes, {} bytes with ContentCachingRequestWrapper"
+        + " ({} saved)", capturing, contentCaching, contentCaching - capturing);
+    assertThat(contentCaching - capturing, greaterThan(body.length * 9L / 10));
+  }
+
+  private static MockHttpServletRequest request(byte[] body) {
+    var request = new MockHttpServletRequest("POST", "/fhir/ServiceDefinition/$evaluate");
+    request.setContentType("application/fhir+json");
+    request.setContent(body);
+    return request;
+  }
+
+  private static void readBody(ServletRequest request, ServletResponse response)
+      throws IOException {
+    var in = ((HttpServletRequest) request).getInputStream();
+    while (in.read(READ_BUFFER, 0, READ_BUFFER.length) != -1) {
+      // drain
+    }
+  }
+}
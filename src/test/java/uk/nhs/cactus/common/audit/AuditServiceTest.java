@@ -2,8 +2,15 @@ package uk.nhs.cactus.common.audit;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.hasEntry;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -15,6 +22,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 import org.hamcrest.Matchers;
 import org.junit.Rule;
 import org.junit.Test;
@@ -29,6 +37,9 @@ import uk.nhs.cactus.common.audit.model.AuditSession;
 import uk.nhs.cactus.common.audit.model.HttpRequest;
 import uk.nhs.cactus.common.audit.model.HttpResponse;
 import uk.nhs.cactus.common.security.TokenAuthenticationService;
+import uk.nhs.cactus.common.timing.RequestTimer;
+import uk.nhs.cactus.common.timing.RequestTimer.Phase;
+import uk.nhs.cactus.common.timing.TimingBreakdown;
 
 @RunWith(MockitoJUnitRunner.class)
 public class AuditServiceTest {
@@ -45,6 +56,18 @@ public class AuditServiceTest {
   @Mock
   private TokenAuthenticationService mockAuthenticationService;
 
+  @Mock
+  private AuditBudget mockAuditBudget;
+
+  @Mock
+  private EntryDeduplicator mockEntryDeduplicator;
+
+  @Mock
+  private OutboundLatencyHistograms mockLatencyHistograms;
+
+  @Mock
+  private RequestTimer mockRequestTimer;
+
   @Rule
   public ExpectedException expect = ExpectedException.none();
 
@@ -96,6 +119,52 @@ public class AuditServiceTest {
     assertThat(actual.getRequestMethod(), is("GET"));
   }
 
+  @Test
+  public void startEntry_startsTimingAfterCapturingRequest() {
+    HttpRequest request = HttpRequest.builder()
+        .uri("some/uri")
+        .headers(testHeaders())
+        .build();
+    when(mockThreadStore.getCurrentAuditSession())
+        .thenReturn(Optional.of(blankSession()));
+    var captured = new AtomicLong();
+    when(mockExchangeHelper.getBodyString(request, "some/uri"))
+        .thenAnswer(invocation -> {
+          captured.set(System.nanoTime());
+          return "test body returned";
+        });
+
+    auditService.startEntry(request);
+
+    var captor = ArgumentCaptor.forClass(AuditEntry.class);
+    verify(mockThreadStore).setCurrentEntry(captor.capture());
+    assertThat(captor.getValue().getStartNanos(), greaterThanOrEqualTo(captured.get()));
+  }
+
+  @Test
+  public void endEntry_stopsTimingBeforeCapturingResponse() {
+    AuditEntry testEntry = AuditEntry.builder()
+        .requestUrl("/testBodyPath")
+        .startNanos(System.nanoTime())
+        .build();
+    when(mockThreadStore.getCurrentEntry())
+        .thenReturn(Optional.of(testEntry));
+    HttpResponse response = HttpResponse.builder()
+        .headers(testHeaders())
+        .status(200)
+        .build();
+    var captured = new AtomicLong();
+    when(mockExchangeHelper.getBodyString(response, "/testBodyPath"))
+        .thenAnswer(invocation -> {
+          captured.set(System.nanoTime());
+          return "test response body returned";
+        });
+
+    auditService.endEntry(response);
+
+    assertThat(testEntry.getEndNanos(), lessThanOrEqualTo(captured.get()));
+  }
+
   @Test
   public void endEntry_setsFields_removesEntry() {
     AuditEntry testEntry = AuditEntry.builder()
@@ -121,6 +190,41 @@ public class AuditServiceTest {
     verify(mockThreadStore).removeCurrentEntry();
   }
 
+  @Test
+  public void endEntry_recordsTimings() {
+    AuditEntry testEntry = AuditEntry.builder()
+        .requestUrl("http://fhir.example/fhir/Patient/1")
+        .startNanos(System.nanoTime() - 5_000_000)
+        .build();
+    when(mockThreadStore.getCurrentEntry())
+        .thenReturn(Optional.of(testEntry));
+
+    auditService.endEntry(HttpResponse.builder()
+        .headers(testHeaders())
+        .timeToFirstByteMillis(3L)
+        .build());
+
+    assertThat(testEntry.getDurationMillis(), greaterThanOrEqualTo(5L));
+    assertThat(testEntry.getTimeToFirstByteMillis(), is(3L));
+    assertThat(testEntry.getEndNanos() - testEntry.getStartNanos(),
+        greaterThanOrEqualTo(5_000_000L));
+    verify(mockLatencyHistograms).record(
+        "http://fhir.example/fhir/Patient/1", testEntry.getEndNanos() - testEntry.getStartNanos());
+  }
+
+  @Test
+  public void endEntry_enforcesBudget() {
+    var session = blankSession();
+    when(mockThreadStore.getCurrentEntry())
+        .thenReturn(Optional.of(AuditEntry.builder().build()));
+    when(mockThreadStore.getCurrentAuditSession())
+        .thenReturn(Optional.of(session));
+
+    auditService.endEntry(HttpResponse.builder().headers(testHeaders()).build());
+
+    verify(mockAuditBudget).enforce(session);
+  }
+
   @Test
   public void endEntry_failsWhenNoEntry() {
     when(mockThreadStore.getCurrentEntry())
@@ -240,6 +344,31 @@ public class AuditServiceTest {
     assertThat(returned.getResponseBody(), is("test response body returned"));
     assertThat(returned.getResponseStatus(), is("100"));
     assertThat(returned.getResponseHeaders(), is("test headers"));
+    verify(mockAuditBudget).fit(returned);
+  }
+
+  @Test
+  public void completeSession_recordsTimingsBeforeFittingBudget() {
+    var session = blankSession();
+    var timings = TimingBreakdown.builder().totalMillis(12.5).build();
+    when(mockThreadStore.getCurrentAuditSession())
+        .thenReturn(Optional.of(session));
+    when(mockRequestTimer.breakdown())
+        .thenReturn(Optional.of(timings));
+    doAnswer(invocation -> {
+      AuditSession fitted = invocation.getArgument(0);
+      assertThat(fitted.getTimings(), sameInstance(timings));
+      return null;
+    }).when(mockAuditBudget).fit(session);
+
+    auditService.completeAuditSession(
+        HttpRequest.builder().build(),
+        HttpResponse.builder().headers(testHeaders()).build());
+
+    var inOrder = inOrder(mockRequestTimer, mockAuditBudget);
+    inOrder.verify(mockRequestTimer).add(eq(Phase.AUDIT), anyLong());
+    inOrder.verify(mockRequestTimer).breakdown();
+    inOrder.verify(mockAuditBudget).fit(session);
   }
 
   @Test
@@ -0,0 +1,111 @@
+package uk.nhs.cactus.common.audit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.nhs.cactus.common.audit.config.MapperConfig;
+import uk.nhs.cactus.common.audit.model.AuditSession;
+import uk.nhs.cactus.common.elasticsearch.ElasticSearchClient;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AuditWarmupTest {
+
+  private static final String QUEUE = "https://sqs.eu-west-2.amazonaws.com/1/audit";
+
+  @Spy
+  private ObjectMapper mapper = new MapperConfig().registryObjectMapper();
+
+  @Mock
+  private AmazonSQS sqs;
+
+  @Mock
+  private ElasticSearchClient elasticSearchClient;
+
+  @Captor
+  private ArgumentCaptor<GetQueueAttributesRequest> queueAttributes;
+
+  @Test
+  public void run_primesMapperAndConnectsClients() throws IOException {
+    var warmup = warmup(QUEUE, provider(AmazonSQS.class, sqs),
+        provider(ElasticSearchClient.class, elasticSearchClient));
+    when(elasticSearchClient.ping()).thenReturn(true);
+
+    warmup.run();
+
+    verify(mapper).readValue(any(byte[].class), eq(AuditSession.class));
+    verify(sqs).getQueueAttributes(queueAttributes.capture());
+    assertThat(queueAttributes.getValue().getQueueUrl(), is(QUEUE));
+    assertThat(queueAttributes.getValue().getAttributeNames(),
+        contains(QueueAttributeName.QueueArn.toString()));
+    verify(elasticSearchClient).ping();
+  }
+
+  @Test
+  public void run_withoutQueue_doesNotConnectToSqs() {
+    var warmup = warmup("", provider(AmazonSQS.class, sqs),
+        provider(ElasticSearchClient.class, null));
+
+    warmup.run();
+
+    verifyZeroInteractions(sqs);
+  }
+
+  @Test
+  public void run_withoutElasticSearch_connectsToSqs() {
+    var warmup = warmup(QUEUE, provider(AmazonSQS.class, sqs),
+        provider(ElasticSearchClient.class, null));
+
+    warmup.run();
+
+    verify(sqs).getQueueAttributes(any(GetQueueAttributesRequest.class));
+  }
+
+  @Test
+  public void run_whenConnectionsFail_completes() throws IOException {
+    var warmup = warmup(QUEUE, provider(AmazonSQS.class, sqs),
+        provider(ElasticSearchClient.class, elasticSearchClient));
+    when(sqs.getQueueAttributes(any(GetQueueAttributesRequest.class)))
+        .thenThrow(new IllegalStateException("queue unavailable"));
+    when(elasticSearchClient.ping()).thenThrow(new IOException("cluster unavailable"));
+
+    warmup.run();
+
+    verify(elasticSearchClient).ping();
+  }
+
+  private AuditWarmup warmup(String queue, ObjectProvider<AmazonSQS> sqsClient,
+      ObjectProvider<ElasticSearchClient> elasticSearchClient) {
+    var warmup = new AuditWarmup(mapper, sqsClient, elasticSearchClient);
+    ReflectionTestUtils.setField(warmup, "loggingQueue", queue);
+    return warmup;
+  }
+
+  private static <T> ObjectProvider<T> provider(Class<T> type, T bean) {
+    var beanFactory = new StaticListableBeanFactory();
+    if (bean != null) {
+      beanFactory.addBean(type.getSimpleName(), bean);
+    }
+    return beanFactory.getBeanProvider(type);
+  }
+}
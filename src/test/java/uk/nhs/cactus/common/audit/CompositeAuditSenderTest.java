@@ -0,0 +1,116 @@
+package uk.nhs.cactus.common.audit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.nhs.cactus.common.audit.model.AuditSession;
+import uk.nhs.cactus.common.audit.sender.AWSAuditSender;
+import uk.nhs.cactus.common.audit.sender.AuditSender;
+import uk.nhs.cactus.common.audit.sender.CompositeAuditSender;
+import uk.nhs.cactus.common.audit.sender.CompositeAuditSender.OverflowPolicy;
+import uk.nhs.cactus.common.audit.sender.LocalAuditSender;
+
+public class CompositeAuditSenderTest {
+
+  private static final byte[] JSON = "{}".getBytes();
+
+  private final ObjectMapper mapper = mock(ObjectMapper.class);
+  private final CountDownLatch release = new CountDownLatch(1);
+  private CompositeAuditSender compositeSender;
+
+  @After
+  public void tearDown() throws InterruptedException {
+    release.countDown();
+    if (compositeSender != null) {
+      compositeSender.stop();
+    }
+  }
+
+  @Test
+  public void sendAudit_serialisesOnceForAllSinks() throws Exception {
+    var sqs = mock(AWSAuditSender.class);
+    var local = mock(LocalAuditSender.class);
+    var session = AuditSession.builder().build();
+    when(mapper.writeValueAsBytes(session)).thenReturn(JSON);
+    start(1000, sqs, local);
+
+    compositeSender.sendAudit(session);
+
+    var sqsJson = ArgumentCaptor.forClass(byte[].class);
+    var localJson = ArgumentCaptor.forClass(byte[].class);
+    verify(sqs, timeout(1000)).sendAudit(eq(session), sqsJson.capture());
+    verify(local, timeout(1000)).sendAudit(eq(session), localJson.capture());
+    verify(mapper).writeValueAsBytes(session);
+    assertThat(sqsJson.getValue(), sameInstance(JSON));
+    assertThat(localJson.getValue(), sameInstance(JSON));
+  }
+
+  @Test
+  public void sendAudit_slowSink_doesNotHoldUpOthers() throws Exception {
+    var fast = mock(AWSAuditSender.class);
+    var slow = mock(LocalAuditSender.class);
+    doAnswer(invocation -> {
+      release.await();
+      return null;
+    }).when(slow).sendAudit(any(), any());
+    start(1, fast, slow);
+
+    for (int i = 0; i < 5; i++) {
+      compositeSender.sendAudit(AuditSession.builder().build(), JSON);
+      // The fast sink keeps up while the slow one is stuck
+      verify(fast, timeout(1000).times(i + 1)).sendAudit(any(), eq(JSON));
+    }
+
+    var stats = List.copyOf(compositeSender.getStats().values());
+    assertThat(stats.get(0).getDropped(), is(0L));
+    // One in progress and one queued, the rest dropped
+    assertThat(stats.get(1).getDropped(), greaterThanOrEqualTo(3L));
+  }
+
+  @Test
+  public void sendAudit_failingSink_countsFailures() throws Exception {
+    var failing = mock(AuditSender.class);
+    doThrow(new IllegalStateException("down")).when(failing).sendAudit(any(), any());
+    start(10, failing);
+
+    compositeSender.sendAudit(AuditSession.builder().build(), JSON);
+    compositeSender.sendAudit(AuditSession.builder().build(), JSON);
+
+    verify(failing, timeout(1000).times(2)).sendAudit(any(), any());
+    // The failure is counted just after the delegate throws
+    var deadline = System.currentTimeMillis() + 1000;
+    while (failedCount() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(failedCount(), is(2L));
+  }
+
+  private long failedCount() {
+    return compositeSender.getStats().values().iterator().next().getFailed();
+  }
+
+  private void start(int capacity, AuditSender... senders) {
+    compositeSender = new CompositeAuditSender(List.of(senders), mapper);
+    ReflectionTestUtils.setField(compositeSender, "queueCapacity", capacity);
+    ReflectionTestUtils.setField(compositeSender, "overflowPolicy", OverflowPolicy.DROP);
+    ReflectionTestUtils.setField(compositeSender, "shutdownTimeoutSeconds", 1L);
+    compositeSender.start();
+  }
+}
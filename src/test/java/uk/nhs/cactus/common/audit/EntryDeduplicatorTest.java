@@ -0,0 +1,98 @@
+package uk.nhs.cactus.common.audit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.nhs.cactus.common.audit.model.AuditEntry;
+import uk.nhs.cactus.common.audit.model.AuditSession;
+
+public class EntryDeduplicatorTest {
+
+  private static final String VALUE_SET = "{\"resourceType\":\"ValueSet\",\"id\":\"" + "x".repeat(300) + "\"}";
+
+  private EntryDeduplicator deduplicator;
+  private AuditSession session;
+
+  @Before
+  public void setup() {
+    deduplicator = new EntryDeduplicator();
+    ReflectionTestUtils.setField(deduplicator, "dedupBodies", true);
+    ReflectionTestUtils.setField(deduplicator, "minBodyBytes", 256);
+    ReflectionTestUtils.setField(deduplicator, "collapseRepeats", true);
+    session = AuditSession.builder().entries(new ArrayList<>()).build();
+  }
+
+  @Test
+  public void apply_sharedBody_storedOnce() {
+    var first = add(entry("/ValueSet/1", VALUE_SET, 10L));
+    var second = add(entry("/ValueSet/2", VALUE_SET, 10L));
+
+    assertThat(session.getEntries(), hasSize(2));
+    assertThat(session.getBodies().size(), is(1));
+    assertThat(first.getResponseBody(), nullValue());
+    assertThat(second.getResponseBodyRef(), is(first.getResponseBodyRef()));
+    assertThat(session.getBodies().get(first.getResponseBodyRef()), is(VALUE_SET));
+  }
+
+  @Test
+  public void apply_smallBody_leftInEntry() {
+    var entry = add(entry("/Patient/1", "{}", 10L));
+
+    assertThat(entry.getResponseBody(), is("{}"));
+    assertThat(entry.getResponseBodyRef(), nullValue());
+    assertThat(session.getBodies(), nullValue());
+  }
+
+  @Test
+  public void apply_consecutiveRepeats_collapsed() {
+    var first = add(entry("/ValueSet/1", VALUE_SET, 10L));
+    add(entry("/ValueSet/1", VALUE_SET, 30L));
+    add(entry("/ValueSet/1", VALUE_SET, 20L));
+    add(entry("/ValueSet/2", VALUE_SET, 5L));
+    add(entry("/ValueSet/1", VALUE_SET, 10L));
+
+    assertThat(session.getEntries(), hasSize(3));
+    assertThat(session.getEntries().get(0), is(first));
+    assertThat(first.getRepeatCount(), is(3));
+    assertThat(first.getMinDurationMillis(), is(10L));
+    assertThat(first.getMaxDurationMillis(), is(30L));
+    assertThat(first.getAvgDurationMillis(), closeTo(20.0, 0.001));
+    assertThat(session.getEntries().get(2).getRepeatCount(), nullValue());
+  }
+
+  @Test
+  public void apply_differentStatus_notCollapsed() {
+    add(entry("/ValueSet/1", VALUE_SET, 10L));
+    var failed = entry("/ValueSet/1", VALUE_SET, 10L);
+    failed.setResponseStatus("500");
+    add(failed);
+
+    assertThat(session.getEntries(), hasSize(2));
+  }
+
+  private AuditEntry add(AuditEntry entry) {
+    var entries = new ArrayList<>(session.getEntries());
+    entries.add(entry);
+    session.setEntries(List.copyOf(entries));
+    deduplicator.apply(session, entry);
+    return entry;
+  }
+
+  private static AuditEntry entry(String url, String responseBody, Long durationMillis) {
+    return AuditEntry.builder()
+        .requestMethod("GET")
+        .requestUrl(url)
+        .responseStatus("200")
+        .responseBody(responseBody)
+        .durationMillis(durationMillis)
+        .build();
+  }
+}
@@ -0,0 +1,103 @@
+package uk.nhs.cactus.common.audit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class FhirBodyCompactorTest {
+
+  private static final MediaType FHIR_JSON = MediaType.parseMediaType("application/fhir+json");
+  private static final MediaType FHIR_XML =
+      MediaType.parseMediaType("application/fhir+xml;charset=UTF-8");
+
+  private FhirBodyCompactor compactor;
+
+  @Before
+  public void setup() {
+    compactor = new FhirBodyCompactor();
+    ReflectionTestUtils.setField(compactor, "enabled", true);
+    ReflectionTestUtils.setField(compactor, "stripNarrative", true);
+  }
+
+  @Test
+  public void compact_json_minifiesAndStripsNarrative() {
+    var body = "{\n"
+        + "  \"resourceType\": \"Observation\",\n"
+        + "  \"text\": {\n"
+        + "    \"status\": \"generated\",\n"
+        + "    \"div\": \"<div xmlns=\\\"http://www.w3.org/1999/xhtml\\\">A narrative</div>\"\n"
+        + "  },\n"
+        + "  \"code\": { \"text\": \"Heart rate\" },\n"
+        + "  \"valueQuantity\": { \"value\": 72.10 }\n"
+        + "}";
+
+    var compacted = compactor.compact(body, FHIR_JSON);
+
+    assertThat(compacted, is("{\"resourceType\":\"Observation\","
+        + "\"code\":{\"text\":\"Heart rate\"},"
+        + "\"valueQuantity\":{\"value\":72.10}}"));
+  }
+
+  @Test
+  public void compact_json_keepsNarrativeIfConfigured() {
+    ReflectionTestUtils.setField(compactor, "stripNarrative", false);
+    var body = "{ \"text\": { \"status\": \"generated\" } }";
+
+    assertThat(compactor.compact(body, FHIR_JSON), is("{\"text\":{\"status\":\"generated\"}}"));
+  }
+
+  @Test
+  public void compact_xml_minifiesAndStripsNarrative() {
+    var body = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<Observation xmlns=\"http://hl7.org/fhir\">\n"
+        + "  <!-- a comment -->\n"
+        + "  <text>\n"
+        + "    <status value=\"generated\"/>\n"
+        + "    <div xmlns=\"http://www.w3.org/1999/xhtml\">A narrative</div>\n"
+        + "  </text>\n"
+        + "  <code>\n"
+        + "    <text value=\"Heart &amp; rate\"/>\n"
+        + "  </code>\n"
+        + "</Observation>\n";
+
+    var compacted = compactor.compact(body, FHIR_XML);
+
+    assertThat(compacted, is("<Observation xmlns=\"http://hl7.org/fhir\">"
+        + "<code><text value=\"Heart &amp; rate\"></text></code></Observation>"));
+  }
+
+  @Test
+  public void compact_xml_keepsWhitespaceInNarrative() {
+    ReflectionTestUtils.setField(compactor, "stripNarrative", false);
+    var body = "<Patient xmlns=\"http://hl7.org/fhir\">\n"
+        + "  <text>\n"
+        + "    <div xmlns=\"http://www.w3.org/1999/xhtml\"><b>Name</b> <i>Surname</i></div>\n"
+        + "  </text>\n"
+        + "</Patient>";
+
+    var compacted = compactor.compact(body, FHIR_XML);
+
+    assertThat(compacted, is("<Patient xmlns=\"http://hl7.org/fhir\"><text>"
+        + "<div xmlns=\"http://www.w3.org/1999/xhtml\"><b>Name</b> <i>Surname</i></div>"
+        + "</text></Patient>"));
+  }
+
+  @Test
+  public void compact_unparseable_returnsBodyUnchanged() {
+    var truncated = "{ \"resourceType\": \"Bundle\", \"entry\": [";
+
+    assertThat(compactor.compact(truncated, FHIR_JSON), is(truncated));
+  }
+
+  @Test
+  public void compact_otherContentType_returnsBodyUnchanged() {
+    var body = "{ \"a\": 1 }";
+
+    assertThat(compactor.isCompactable(MediaType.APPLICATION_JSON), is(false));
+    assertThat(compactor.compact(body, MediaType.APPLICATION_JSON), is(body));
+  }
+}
@@ -0,0 +1,158 @@
+package uk.nhs.cactus.common.audit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.nhs.cactus.common.audit.config.MapperConfig;
+import uk.nhs.cactus.common.audit.model.AuditSession;
+import uk.nhs.cactus.common.audit.sender.FileAuditSender;
+import uk.nhs.cactus.common.audit.sender.FileAuditSender.FsyncPolicy;
+
+public class FileAuditSenderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final ObjectMapper mapper = new MapperConfig().registryObjectMapper();
+  private final AtomicLong now = new AtomicLong(1_600_000_000_000L);
+  private FileAuditSender fileSender;
+
+  @Before
+  public void setup() {
+    var clock = mock(Clock.class);
+    when(clock.millis()).thenAnswer(invocation -> now.get());
+    when(clock.instant()).thenAnswer(invocation -> Instant.ofEpochMilli(now.get()));
+
+    fileSender = new FileAuditSender(mapper, clock);
+    ReflectionTestUtils.setField(fileSender, "directory", folder.getRoot().getPath());
+    ReflectionTestUtils.setField(fileSender, "prefix", "audit");
+    ReflectionTestUtils.setField(fileSender, "maxSegmentBytes", 1L << 30);
+    ReflectionTestUtils.setField(fileSender, "maxSegmentAgeSeconds", 3600L);
+    ReflectionTestUtils.setField(fileSender, "fsyncPolicy", FsyncPolicy.INTERVAL);
+    ReflectionTestUtils.setField(fileSender, "fsyncIntervalMillis", 1000L);
+    ReflectionTestUtils.setField(fileSender, "bufferBytes", 1 << 16);
+    ReflectionTestUtils.setField(fileSender, "queueCapacity", 1 << 16);
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    fileSender.stop();
+  }
+
+  @Test
+  public void sendAudit_writesOneDocumentPerLine() throws Exception {
+    fileSender.start();
+
+    for (int i = 0; i < 20_000; i++) {
+      fileSender.sendAudit(session(i));
+    }
+    fileSender.stop();
+
+    var lines = readAll();
+    assertThat(lines, hasSize(20_000));
+    assertThat(mapper.readValue(lines.get(42), AuditSession.class).getRequestUrl(), is("/fhir/42"));
+    assertThat(fileSender.getDroppedCount(), is(0L));
+  }
+
+  @Test
+  public void sendAudit_rollsOverBySize() throws Exception {
+    ReflectionTestUtils.setField(fileSender, "maxSegmentBytes", 1000L);
+    fileSender.start();
+
+    for (int i = 0; i < 100; i++) {
+      fileSender.sendAudit(session(i));
+    }
+    fileSender.stop();
+
+    assertThat(segments().length, greaterThan(1));
+    assertThat(readAll(), hasSize(100));
+  }
+
+  @Test
+  public void sendAudit_rollsOverByAge() throws Exception {
+    fileSender.start();
+
+    fileSender.sendAudit(session(1));
+    awaitWritten(1);
+    now.addAndGet(3_600_000);
+    fileSender.sendAudit(session(2));
+    fileSender.stop();
+
+    assertThat(segments().length, is(2));
+    assertThat(readAll(), hasSize(2));
+  }
+
+  @Test
+  public void sendAudit_withGzip_writesCompressedSegments() throws Exception {
+    ReflectionTestUtils.setField(fileSender, "gzip", true);
+    ReflectionTestUtils.setField(fileSender, "fsyncPolicy", FsyncPolicy.EVERY_RECORD);
+    fileSender.start();
+
+    for (int i = 0; i < 10; i++) {
+      fileSender.sendAudit(session(i), mapper.writeValueAsBytes(session(i)));
+    }
+    fileSender.stop();
+
+    assertThat(segments()[0].getName().endsWith(".ndjson.gz"), is(true));
+    assertThat(readAll(), hasSize(10));
+  }
+
+  private void awaitWritten(long count) throws InterruptedException {
+    var deadline = System.currentTimeMillis() + 5000;
+    while (fileSender.getWrittenCount() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  private File[] segments() {
+    var segments = folder.getRoot().listFiles();
+    Arrays.sort(segments);
+    return segments;
+  }
+
+  private List<String> readAll() throws IOException {
+    var lines = new ArrayList<String>();
+    for (var segment : segments()) {
+      var in = Files.newInputStream(segment.toPath());
+      var decoded = segment.getName().endsWith(".gz") ? new GZIPInputStream(in) : in;
+      try (var reader = new BufferedReader(new InputStreamReader(decoded, StandardCharsets.UTF_8))) {
+        lines.addAll(reader.lines().collect(Collectors.toList()));
+      }
+    }
+    return lines;
+  }
+
+  private static AuditSession session(int index) {
+    return AuditSession.builder()
+        .requestUrl("/fhir/" + index)
+        .requestMethod("GET")
+        .createdDate(Instant.EPOCH)
+        .responseBody("line one\nline two")
+        .build();
+  }
+}
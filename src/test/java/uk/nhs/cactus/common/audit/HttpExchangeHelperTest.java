@@ -5,8 +5,13 @@ import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
@@ -16,6 +21,9 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.nhs.cactus.common.audit.model.BodyDigest;
 import uk.nhs.cactus.common.audit.model.HttpRequest;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -24,6 +32,9 @@ public class HttpExchangeHelperTest {
   @Mock
   private GzipDecoder gzipDecoder;
 
+  @Mock
+  private FhirBodyCompactor bodyCompactor;
+
   @InjectMocks
   private HttpExchangeHelper exchangeHelper;
 
@@ -123,4 +134,112 @@ public class HttpExchangeHelperTest {
 
     assertThat(body, is(Base64.getEncoder().encodeToString(bodyBytes)));
   }
-}
\ No newline at end of file
+
+  @Test
+  public void getBodyString_withMultiByteText_shouldTruncateToMaxBytes() {
+    ReflectionTestUtils.setField(exchangeHelper, "maxBodyBytes", 5);
+    var exchange = HttpRequest.builder()
+        .bodyText("\u00e9\u00e9\u00e9\u00e9\u00e9")
+        .build();
+
+    var body = exchangeHelper.getBodyString(exchange, "/validPath");
+
+    assertThat(body, is("\u00e9\u00e9...[truncated, captured 4 of 10]"));
+  }
+
+  @Test
+  public void getBodyString_withSurrogatePair_shouldNotSplitCharacter() {
+    ReflectionTestUtils.setField(exchangeHelper, "maxBodyBytes", 4);
+    var exchange = HttpRequest.builder()
+        .bodyText("a\uD83D\uDE00bcdefghijk")
+        .build();
+
+    var body = exchangeHelper.getBodyString(exchange, "/validPath");
+
+    assertThat(body, is("a...[truncated, captured 1 of 15]"));
+  }
+
+  @Test
+  public void getBodyString_withMultiByteBody_shouldTruncateAtCharacterBoundary() {
+    ReflectionTestUtils.setField(exchangeHelper, "maxBodyBytes", 5);
+    var exchange = HttpRequest.builder()
+        .body("\u00e9\u00e9\u00e9\u00e9\u00e9".getBytes(StandardCharsets.UTF_8))
+        .header(HttpHeaders.CONTENT_TYPE, Collections.singletonList("text/plain"))
+        .build();
+
+    var body = exchangeHelper.getBodyString(exchange, "/validPath");
+
+    assertThat(body, is("\u00e9\u00e9...[truncated, captured 4 of 10]"));
+  }
+
+  @Test
+  public void getBodyString_withLegacyFhirJsonContentType_shouldReturnText() {
+    var exchange = HttpRequest.builder()
+        .body("{\"resourceType\":\"Patient\"}".getBytes(StandardCharsets.UTF_8))
+        .header(HttpHeaders.CONTENT_TYPE, List.of("application/json+fhir"))
+        .build();
+
+    var body = exchangeHelper.getBodyString(exchange, "/validPath");
+
+    assertThat(body, is("{\"resourceType\":\"Patient\"}"));
+  }
+
+  @Test
+  public void getBodyString_withLegacyFhirXmlContentType_shouldReturnText() {
+    var exchange = HttpRequest.builder()
+        .body("<Patient/>".getBytes(StandardCharsets.UTF_8))
+        .header(HttpHeaders.CONTENT_TYPE, List.of("application/xml+fhir; charset=UTF-8"))
+        .build();
+
+    var body = exchangeHelper.getBodyString(exchange, "/validPath");
+
+    assertThat(body, is("<Patient/>"));
+  }
+
+  @Test
+  public void getBodyString_withCompactableBody_shouldCompactBeforeTruncating() {
+    ReflectionTestUtils.setField(exchangeHelper, "maxBodyBytes", 20);
+    var received = "{\n  \"resourceType\": \"Patient\",\n  \"active\": true\n}";
+    var compacted = "{\"active\":true}";
+    when(bodyCompactor.isCompactable(any())).thenReturn(true);
+    when(bodyCompactor.compact(eq(received), any())).thenReturn(compacted);
+    var exchange = HttpRequest.builder()
+        .body(received.getBytes(StandardCharsets.UTF_8))
+        .header(HttpHeaders.CONTENT_TYPE, List.of("application/fhir+json"))
+        .build();
+
+    var body = exchangeHelper.getBodyString(exchange, "/validPath");
+
+    assertThat(body, is(compacted));
+    verify(bodyCompactor).compact(received, MediaType.parseMediaType("application/fhir+json"));
+  }
+
+  @Test
+  public void getBodyDigest_withCompactableBody_shouldDigestBodyAsReceived() {
+    var received = "{\n  \"resourceType\": \"Patient\"\n}".getBytes(StandardCharsets.UTF_8);
+    when(bodyCompactor.isCompactable(any())).thenReturn(true);
+    var exchange = HttpRequest.builder()
+        .body(received)
+        .header(HttpHeaders.CONTENT_TYPE, List.of("application/fhir+json"))
+        .build();
+
+    var digest = exchangeHelper.getBodyDigest(exchange);
+
+    assertThat(digest, is(BodyDigest.builder()
+        .bytes(received.length)
+        .sha256(Hashing.sha256().hashBytes(received).toString())
+        .build()));
+  }
+
+  @Test
+  public void getBodyDigest_withBodyNotCompacted_shouldReturnNull() {
+    var exchange = HttpRequest.builder()
+        .body("i am text".getBytes())
+        .header(HttpHeaders.CONTENT_TYPE, List.of("text/plain"))
+        .build();
+
+    var digest = exchangeHelper.getBodyDigest(exchange);
+
+    assertThat(digest, nullValue());
+  }
+}
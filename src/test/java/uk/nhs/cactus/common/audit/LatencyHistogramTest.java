@@ -0,0 +1,59 @@
+package uk.nhs.cactus.common.audit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void bucketOf_roundTripsWithinPrecision() {
+    for (long micros = 0; micros < 1L << 37; micros = micros * 3 / 2 + 1) {
+      var highest = LatencyHistogram.highestInBucket(LatencyHistogram.bucketOf(micros));
+
+      assertThat(highest, greaterThanOrEqualTo(micros));
+      assertThat((double) highest - micros, lessThanOrEqualTo(micros / 32.0));
+    }
+  }
+
+  @Test
+  public void percentiles_ofUniformLatencies() {
+    var histogram = new LatencyHistogram();
+    for (int millis = 1; millis <= 1000; millis++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    assertThat(histogram.getCount(), is(1000L));
+    assertThat(histogram.getPercentileMillis(50), closeTo(500, 500 * 0.04));
+    assertThat(histogram.getPercentileMillis(99), closeTo(990, 990 * 0.04));
+    assertThat(histogram.getPercentileMillis(100), is(1000.0));
+
+    var snapshot = histogram.snapshot();
+    assertThat(snapshot.getMeanMillis(), closeTo(500.5, 0.001));
+    assertThat(snapshot.getMaxMillis(), is(1000.0));
+  }
+
+  @Test
+  public void percentiles_whenEmpty() {
+    var histogram = new LatencyHistogram();
+
+    assertThat(histogram.getPercentileMillis(99), is(0.0));
+    assertThat(histogram.snapshot().getMeanMillis(), is(0.0));
+  }
+
+  @Test
+  public void record_clampsOutOfRange() {
+    var histogram = new LatencyHistogram();
+
+    histogram.record(-1);
+    histogram.record(TimeUnit.DAYS.toNanos(365));
+
+    assertThat(histogram.getCount(), is(2L));
+    assertThat(histogram.getPercentileMillis(1), is(0.0));
+  }
+}
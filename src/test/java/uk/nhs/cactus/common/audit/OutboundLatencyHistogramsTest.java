@@ -0,0 +1,78 @@
+package uk.nhs.cactus.common.audit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class OutboundLatencyHistogramsTest {
+
+  private OutboundLatencyHistograms histograms;
+
+  @Before
+  public void setup() {
+    histograms = new OutboundLatencyHistograms();
+    ReflectionTestUtils.setField(histograms, "enabled", true);
+    ReflectionTestUtils.setField(histograms, "maxServers", 2);
+  }
+
+  @Test
+  public void baseUrl_stopsAtFhirSegment() {
+    assertThat(OutboundLatencyHistograms.baseUrl("http://fhir.example:8080/fhir/Patient/1"),
+        is("http://fhir.example:8080/fhir"));
+    assertThat(OutboundLatencyHistograms.baseUrl("https://cdss.example/fhir/ServiceDefinition/x/$evaluate"),
+        is("https://cdss.example/fhir"));
+    assertThat(OutboundLatencyHistograms.baseUrl("https://ems.example/api/fhir/metadata"),
+        is("https://ems.example/api/fhir"));
+    assertThat(OutboundLatencyHistograms.baseUrl("https://ems.example/fhir/_history?_count=1"),
+        is("https://ems.example/fhir"));
+    assertThat(OutboundLatencyHistograms.baseUrl("https://ems.example/Patient?name=smith"),
+        is("https://ems.example"));
+  }
+
+  @Test
+  public void baseUrl_withoutHost() {
+    assertThat(OutboundLatencyHistograms.baseUrl("Patient/1"), is("other"));
+    assertThat(OutboundLatencyHistograms.baseUrl("not a url"), is("other"));
+  }
+
+  @Test
+  public void record_groupsByBaseUrl() {
+    histograms.record("http://a.example/fhir/Patient/1", TimeUnit.MILLISECONDS.toNanos(10));
+    histograms.record("http://a.example/fhir/Patient/2", TimeUnit.MILLISECONDS.toNanos(20));
+    histograms.record("http://b.example/fhir/Encounter/1", TimeUnit.MILLISECONDS.toNanos(30));
+
+    var snapshots = histograms.getSnapshots();
+
+    assertThat(snapshots.keySet(), contains("http://a.example/fhir", "http://b.example/fhir"));
+    assertThat(snapshots.get("http://a.example/fhir").getCount(), is(2L));
+    assertThat(snapshots.get("http://b.example/fhir").getMaxMillis(), is(30.0));
+  }
+
+  @Test
+  public void record_sharesHistogramBeyondLimit() {
+    histograms.record("http://a.example/fhir/Patient/1", 1_000);
+    histograms.record("http://b.example/fhir/Patient/1", 1_000);
+    histograms.record("http://c.example/fhir/Patient/1", 1_000);
+    histograms.record("http://d.example/fhir/Patient/1", 1_000);
+
+    var snapshots = histograms.getSnapshots();
+
+    assertThat(snapshots.keySet(),
+        contains("http://a.example/fhir", "http://b.example/fhir", "other"));
+    assertThat(snapshots.get("other").getCount(), is(2L));
+  }
+
+  @Test
+  public void record_whenDisabled() {
+    ReflectionTestUtils.setField(histograms, "enabled", false);
+
+    histograms.record("http://a.example/fhir/Patient/1", 1_000);
+
+    assertThat(histograms.getSnapshots().isEmpty(), is(true));
+  }
+}
@@ -0,0 +1,208 @@
+package uk.nhs.cactus.common.audit;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.nhs.cactus.common.audit.AuditBudget.BodyGroup;
+import uk.nhs.cactus.common.audit.config.MapperConfig;
+import uk.nhs.cactus.common.audit.model.HttpRequest;
+import uk.nhs.cactus.common.audit.model.HttpResponse;
+import uk.nhs.cactus.common.security.JWTFilter;
+import uk.nhs.cactus.common.security.JWTHandler;
+import uk.nhs.cactus.common.security.JWTRequest;
+import uk.nhs.cactus.common.security.TokenAuthenticationService;
+import uk.nhs.cactus.common.testhelper.AllocationBudgets;
+import uk.nhs.cactus.common.testhelper.AllocationMeter;
+import uk.nhs.cactus.common.timing.RequestTimer;
+
+/**
+ * Holds the bytes allocated on each part of the request hot path to the budgets in
+ * {@code allocation-budgets.properties}, so that allocation regressions fail the build rather
+ * than showing up as GC pauses in production. Real collaborators are used throughout, with
+ * their default settings, as mocks allocate as they record invocations.
+ */
+@Slf4j
+public class RequestPathAllocationTest {
+
+  private static final int ITERATIONS = 50;
+  private static final String JWT_SECRET = "allocation-budget-secret";
+  private static final String EVALUATE_PATH = "/fhir/ServiceDefinition/initial/$evaluate";
+  private static final String FHIR_JSON = "application/fhir+json";
+
+  private static final byte[] REQUEST_BODY = ("{\"resourceType\":\"Parameters\",\"parameter\":["
+      + "{\"name\":\"requestId\",\"valueId\":\"request-1\"},"
+      + "{\"name\":\"patient\",\"valueReference\":{\"reference\":\"Patient/1\"}},"
+      + "{\"name\":\"encounter\",\"valueReference\":{\"reference\":\"Encounter/1\"}}]}")
+      .getBytes(StandardCharsets.UTF_8);
+  private static final byte[] RESPONSE_BODY = ("{\"resourceType\":\"GuidanceResponse\","
+      + "\"id\":\"response-1\",\"requestId\":\"request-1\",\"status\":\"data-required\","
+      + "\"dataRequirement\":[{\"type\":\"Questionnaire\",\"profile\":"
+      + "[\"https://www.hl7.org/fhir/questionnaire\"]}]}")
+      .getBytes(StandardCharsets.UTF_8);
+  private static final byte[] READ_BUFFER = new byte[8192];
+
+  private TokenAuthenticationService authService;
+  private HttpExchangeHelper exchangeHelper;
+  private AuditService auditService;
+  private AuditServerFilter auditServerFilter;
+  private JWTFilter jwtFilter;
+  private String token;
+
+  @Before
+  public void setup() {
+    assumeTrue(AllocationMeter.isSupported());
+
+    var jwtHandler = new JWTHandler(Clock.systemUTC());
+    ReflectionTestUtils.setField(jwtHandler, "jwtSecret", JWT_SECRET);
+    authService = new TokenAuthenticationService(jwtHandler, event -> { });
+    token = jwtHandler.generate(JWTRequest.builder()
+        .username("user")
+        .supplierId("supplier")
+        .role("SUPPLIER")
+        .secondsUntilExpiry(3600L)
+        .build());
+
+    exchangeHelper = new HttpExchangeHelper(new GzipDecoder(), new FhirBodyCompactor());
+    ReflectionTestUtils.setField(exchangeHelper, "maxBodyBytes", 1048576);
+
+    var auditBudget = new AuditBudget(new MapperConfig().registryObjectMapper());
+    ReflectionTestUtils.setField(auditBudget, "maxBytes", 250000);
+    ReflectionTestUtils.setField(auditBudget, "priority", List.of(
+        BodyGroup.SESSION_RESPONSE, BodyGroup.FAILED_ENTRIES,
+        BodyGroup.SESSION_REQUEST, BodyGroup.ENTRIES));
+
+    var latencyHistograms = new OutboundLatencyHistograms();
+    ReflectionTestUtils.setField(latencyHistograms, "enabled", true);
+    ReflectionTestUtils.setField(latencyHistograms, "maxServers", 100);
+
+    var requestTimer = new RequestTimer();
+    auditService = new AuditService(new AuditThreadStore(), exchangeHelper, authService,
+        auditBudget, new EntryDeduplicator(), latencyHistograms, requestTimer);
+
+    var rateLimiter = new AuditRateLimiter(authService, Map.of());
+    ReflectionTestUtils.setField(rateLimiter, "defaultPerSecond", 50.0);
+    rateLimiter.init();
+    auditServerFilter = new AuditServerFilter(auditService, session -> { }, rateLimiter,
+        requestTimer, new ServerTimingHeader(requestTimer, authService));
+    jwtFilter = new JWTFilter(authService);
+  }
+
+  @After
+  public void tearDown() {
+    SecurityContextHolder.clearContext();
+  }
+
+  @Test
+  public void filters_withinBudget() throws Exception {
+    // Includes the mock request, response and chain, which are rebuilt for each run
+    var allocated = AllocationMeter.minAllocatedBytes(ITERATIONS, () -> {
+      new MockFilterChain(new EvaluateServlet(), jwtFilter, auditServerFilter)
+          .doFilter(evaluateRequest(), new MockHttpServletResponse());
+      SecurityContextHolder.clearContext();
+    });
+
+    log.info("Allocated per filtered request: {} bytes", allocated);
+    AllocationBudgets.assertWithinBudget("request.filters", allocated);
+  }
+
+  @Test
+  public void auditService_withinBudget() throws Exception {
+    var inbound = HttpRequest.builder()
+        .method("POST")
+        .uri(EVALUATE_PATH)
+        .remoteHost("127.0.0.1")
+        .header("Content-Type", List.of(FHIR_JSON))
+        .header("Authorization", List.of("Bearer " + token))
+        .body(REQUEST_BODY)
+        .build();
+    var outbound = HttpRequest.builder()
+        .method("GET")
+        .uri("http://cdss.example/fhir/Questionnaire/1")
+        .header("Accept", List.of(FHIR_JSON))
+        .build();
+    var response = response();
+
+    var allocated = AllocationMeter.minAllocatedBytes(ITERATIONS, () -> {
+      auditService.startAuditSession(inbound);
+      auditService.startEntry(outbound);
+      auditService.endEntry(response);
+      auditService.completeAuditSession(inbound, response);
+    });
+
+    log.info("Allocated per audit session with one entry: {} bytes", allocated);
+    AllocationBudgets.assertWithinBudget("audit.service.session", allocated);
+  }
+
+  @Test
+  public void exchangeHelper_withinBudget() throws Exception {
+    var response = response();
+
+    var allocated = AllocationMeter.minAllocatedBytes(ITERATIONS, () -> {
+      exchangeHelper.getBodyString(response, EVALUATE_PATH);
+      exchangeHelper.getBodyDigest(response);
+      exchangeHelper.getHeadersString(response);
+    });
+
+    log.info("Allocated per rendered exchange: {} bytes", allocated);
+    AllocationBudgets.assertWithinBudget("exchange.helper.render", allocated);
+  }
+
+  @Test
+  public void getAuthentication_withinBudget() throws Exception {
+    var request = evaluateRequest();
+
+    var allocated = AllocationMeter.minAllocatedBytes(ITERATIONS,
+        () -> authService.getAuthentication(request));
+
+    log.info("Allocated per authentication: {} bytes", allocated);
+    AllocationBudgets.assertWithinBudget("token.authentication", allocated);
+  }
+
+  private MockHttpServletRequest evaluateRequest() {
+    var request = new MockHttpServletRequest("POST", EVALUATE_PATH);
+    request.addHeader("Authorization", "Bearer " + token);
+    request.setContentType(FHIR_JSON);
+    request.setContent(REQUEST_BODY);
+    return request;
+  }
+
+  private static HttpResponse response() {
+    return HttpResponse.builder()
+        .status(200)
+        .headers(Map.of(
+            "Content-Type", List.of(FHIR_JSON),
+            "Cache-Control", List.of("no-cache")))
+        .body(RESPONSE_BODY)
+        .build();
+  }
+
+  private static class EvaluateServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+        throws IOException {
+      var in = request.getInputStream();
+      while (in.read(READ_BUFFER, 0, READ_BUFFER.length) != -1) {
+        // drain
+      }
+      response.setContentType(FHIR_JSON);
+      response.getOutputStream().write(RESPONSE_BODY);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package uk.nhs.cactus.common.audit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.nhs.cactus.common.security.TokenAuthenticationService;
+import uk.nhs.cactus.common.timing.RequestTimer;
+import uk.nhs.cactus.common.timing.TimingBreakdown;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ServerTimingHeaderTest {
+
+  private static final TimingBreakdown TIMINGS = TimingBreakdown.builder()
+      .totalMillis(120.04)
+      .fhirMillis(80.25)
+      .fhirCalls(3)
+      .tokenExchangeMillis(10)
+      .tokenExchanges(1)
+      .auditMillis(2.5)
+      .applicationMillis(27.29)
+      .build();
+
+  @Mock
+  private RequestTimer requestTimer;
+
+  @Mock
+  private TokenAuthenticationService authenticationService;
+
+  @InjectMocks
+  private ServerTimingHeader serverTimingHeader;
+
+  @Before
+  public void setup() {
+    ReflectionTestUtils.setField(serverTimingHeader, "enabled", true);
+    ReflectionTestUtils.setField(serverTimingHeader, "trustedSuppliers", List.of("trusted"));
+  }
+
+  @Test
+  public void format_listsMetrics() {
+    assertThat(ServerTimingHeader.format(TIMINGS), is("total;dur=120.0, "
+        + "fhir;dur=80.3;desc=\"FHIR calls (3)\", "
+        + "token;dur=10.0;desc=\"Token exchange (1)\", "
+        + "audit;dur=2.5;desc=\"Audit capture\", "
+        + "app;dur=27.3;desc=\"Application\""));
+  }
+
+  @Test
+  public void addTo_forTrustedSupplier() {
+    when(authenticationService.getCurrentSupplierId()).thenReturn(Optional.of("trusted"));
+    when(requestTimer.breakdown()).thenReturn(Optional.of(TIMINGS));
+    var response = new MockHttpServletResponse();
+
+    serverTimingHeader.addTo(response);
+
+    assertThat(response.getHeader("Server-Timing"), is(ServerTimingHeader.format(TIMINGS)));
+  }
+
+  @Test
+  public void addTo_forAnySupplier() {
+    ReflectionTestUtils.setField(serverTimingHeader, "trustedSuppliers", List.of("*"));
+    when(authenticationService.getCurrentSupplierId()).thenReturn(Optional.of("anyone"));
+    when(requestTimer.breakdown()).thenReturn(Optional.of(TIMINGS));
+    var response = new MockHttpServletResponse();
+
+    serverTimingHeader.addTo(response);
+
+    assertThat(response.getHeader("Server-Timing"), is(ServerTimingHeader.format(TIMINGS)));
+  }
+
+  @Test
+  public void addTo_skipsUntrustedSupplier() {
+    when(authenticationService.getCurrentSupplierId()).thenReturn(Optional.of("untrusted"));
+    var response = new MockHttpServletResponse();
+
+    serverTimingHeader.addTo(response);
+
+    assertThat(response.getHeader("Server-Timing"), nullValue());
+  }
+
+  @Test
+  public void addTo_skipsUnauthenticated() {
+    ReflectionTestUtils.setField(serverTimingHeader, "trustedSuppliers", List.of("*"));
+    when(authenticationService.getCurrentSupplierId()).thenReturn(Optional.empty());
+    var response = new MockHttpServletResponse();
+
+    serverTimingHeader.addTo(response);
+
+    assertThat(response.getHeader("Server-Timing"), nullValue());
+  }
+
+  @Test
+  public void addTo_whenDisabled() {
+    ReflectionTestUtils.setField(serverTimingHeader, "enabled", false);
+    var response = new MockHttpServletResponse();
+
+    serverTimingHeader.addTo(response);
+
+    assertThat(response.getHeader("Server-Timing"), nullValue());
+  }
+}
@@ -0,0 +1,84 @@
+package uk.nhs.cactus.common.audit.config;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.net.URI;
+import java.util.Map;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.springframework.http.HttpMethod;
+import uk.nhs.cactus.common.audit.config.RestClientConfig.TargetTimeoutRequestFactory;
+
+public class RestClientConfigTest {
+
+  @Rule
+  public ExpectedException expect = ExpectedException.none();
+
+  private final RestClientConfig config = new RestClientConfig();
+
+  @Test
+  public void parseTargetTimeouts_withEmptyProperty_shouldReturnNoOverrides() {
+    assertThat(config.parseTargetTimeouts(""), is(Map.of()));
+  }
+
+  @Test
+  public void parseTargetTimeouts_withTargets_shouldParseConnectAndReadTimeouts() {
+    var configs = config.parseTargetTimeouts("auth.cactus=100/2000, fhir.remote = 250/5000");
+
+    assertThat(configs.get("auth.cactus").getConnectTimeout(), is(100));
+    assertThat(configs.get("auth.cactus").getSocketTimeout(), is(2000));
+    assertThat(configs.get("fhir.remote").getConnectTimeout(), is(250));
+    assertThat(configs.get("fhir.remote").getSocketTimeout(), is(5000));
+  }
+
+  @Test
+  public void parseTargetTimeouts_withoutTimeouts_shouldNameProperty() {
+    expect.expect(IllegalStateException.class);
+    expect.expectMessage(containsString("'auth.cactus' in cactus.http.target-timeouts"));
+
+    config.parseTargetTimeouts("auth.cactus");
+  }
+
+  @Test
+  public void parseTargetTimeouts_withOneTimeout_shouldNameProperty() {
+    expect.expect(IllegalStateException.class);
+    expect.expectMessage(containsString("'auth.cactus=100' in cactus.http.target-timeouts"));
+
+    config.parseTargetTimeouts("fhir.remote=250/5000, auth.cactus=100");
+  }
+
+  @Test
+  public void parseTargetTimeouts_withNonNumericTimeout_shouldNameProperty() {
+    expect.expect(IllegalStateException.class);
+    expect.expectMessage(containsString("cactus.http.target-timeouts"));
+
+    config.parseTargetTimeouts("auth.cactus=100/2s");
+  }
+
+  @Test
+  public void createHttpContext_withConfiguredHost_shouldUseTargetConfig() {
+    var targetConfig = RequestConfig.custom().setSocketTimeout(1234).build();
+    var factory = new TargetTimeoutRequestFactory(Map.of("auth.cactus", targetConfig));
+
+    var context = (HttpClientContext) factory.createHttpContext(
+        HttpMethod.GET, URI.create("http://auth.cactus/exchange"));
+
+    assertThat(context.getRequestConfig(), is(targetConfig));
+  }
+
+  @Test
+  public void createHttpContext_withOtherHost_shouldUseDefaults() {
+    var factory = new TargetTimeoutRequestFactory(Map.of());
+
+    var context = factory.createHttpContext(
+        HttpMethod.GET, URI.create("http://other.host/exchange"));
+
+    assertThat(context, nullValue());
+  }
+}
@@ -0,0 +1,52 @@
+package uk.nhs.cactus.common.audit.model;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.util.ContentCachingRequestWrapper;
+
+public class HttpRequestTest {
+
+  private static final byte[] BODY = "{\"resourceType\":\"Parameters\"}"
+      .getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  public void from_contentCachingRequest_capturesBodyRead() throws IOException {
+    var requestWrapper = new ContentCachingRequestWrapper(request());
+    StreamUtils.drain(requestWrapper.getInputStream());
+
+    var httpRequest = HttpRequest.from(requestWrapper);
+
+    assertThat(httpRequest.getMethod(), is("POST"));
+    assertThat(httpRequest.getUri(), is("/fhir/ServiceDefinition/$evaluate"));
+    assertThat(httpRequest.getHeaders().get("X-Test"), contains("first", "second"));
+    assertThat(httpRequest.getBody(), is(BODY));
+  }
+
+  @Test
+  public void headersFrom_doesNotReadBody() {
+    var request = request();
+
+    var httpRequest = HttpRequest.headersFrom(request);
+
+    assertThat(httpRequest.getRemoteHost(), is("localhost"));
+    assertThat(httpRequest.getHeaders().get("X-Test"), contains("first", "second"));
+    assertThat(httpRequest.getBody(), nullValue());
+    assertThat(httpRequest.withBody(BODY).getBody(), is(BODY));
+  }
+
+  private static MockHttpServletRequest request() {
+    var request = new MockHttpServletRequest("POST", "/fhir/ServiceDefinition/$evaluate");
+    request.addHeader("X-Test", "first");
+    request.addHeader("X-Test", "second");
+    request.setContent(BODY);
+    return request;
+  }
+}
@@ -0,0 +1,137 @@
+package uk.nhs.cactus.common.audit.replay;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.nhs.cactus.common.audit.config.MapperConfig;
+import uk.nhs.cactus.common.audit.model.AuditSession;
+
+public class AuditReplayerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final ObjectMapper mapper = new MapperConfig().registryObjectMapper();
+  private final List<String> published = Collections.synchronizedList(new ArrayList<>());
+
+  @Test
+  public void replay_publishesEverySessionFromPlainAndGzipFiles() throws Exception {
+    var plain = write("audit-1.ndjson", false, 0, 250);
+    var gzipped = write("audit-2.ndjson.gz", true, 250, 500);
+
+    var result = replayer(this::record).replay(List.of(plain, gzipped));
+
+    assertThat(result.getRead(), is(500L));
+    assertThat(result.getPublished(), is(500L));
+    assertThat(published, containsInAnyOrder(urls(0, 500).toArray()));
+  }
+
+  @Test
+  public void replay_skipsUnreadableLines() throws Exception {
+    var file = write("audit.ndjson", false, 0, 3);
+    Files.writeString(file, "not json\n\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+    var result = replayer(this::record).replay(List.of(file));
+
+    assertThat(result.getPublished(), is(3L));
+    assertThat(result.getUnreadable(), is(1L));
+  }
+
+  @Test
+  public void replay_afterFailure_resumesFromCheckpoint() throws Exception {
+    var file = write("audit.ndjson", false, 0, 100);
+    var checkpoint = folder.getRoot().toPath().resolve("replay.checkpoint");
+
+    // Fail the batch holding session 55, so only sessions before it are checkpointed
+    var first = AuditReplayer.builder()
+        .target(batch -> {
+          if (urls(batch).contains("/fhir/55")) {
+            throw new IOException("unavailable");
+          }
+          return record(batch);
+        })
+        .batchSize(10)
+        .parallelism(1)
+        .checkpointFile(checkpoint)
+        .build()
+        .replay(List.of(file));
+    assertThat(first.getFailed(), is(10L));
+
+    published.clear();
+    var second = AuditReplayer.builder()
+        .target(this::record)
+        .batchSize(10)
+        .parallelism(1)
+        .checkpointFile(checkpoint)
+        .build()
+        .replay(List.of(file));
+
+    assertThat(second.getRead(), is(50L));
+    assertThat(published, containsInAnyOrder(urls(50, 100).toArray()));
+
+    published.clear();
+    var third = replayerWithCheckpoint(checkpoint).replay(List.of(file));
+    assertThat(third.getRead(), is(0L));
+    assertThat(published, hasSize(0));
+  }
+
+  private AuditReplayer replayer(ReplayTarget target) {
+    return AuditReplayer.builder()
+        .target(target)
+        .mapper(mapper)
+        .batchSize(64)
+        .parallelism(4)
+        .build();
+  }
+
+  private AuditReplayer replayerWithCheckpoint(Path checkpoint) {
+    return AuditReplayer.builder()
+        .target(this::record)
+        .checkpointFile(checkpoint)
+        .build();
+  }
+
+  private int record(List<AuditSession> batch) {
+    published.addAll(urls(batch));
+    return 0;
+  }
+
+  private Path write(String name, boolean gzip, int from, int to) throws IOException {
+    var path = folder.getRoot().toPath().resolve(name);
+    OutputStream file = Files.newOutputStream(path);
+    try (var out = gzip ? new GZIPOutputStream(file) : file) {
+      for (int i = from; i < to; i++) {
+        var session = AuditSession.builder().requestUrl("/fhir/" + i).build();
+        out.write(mapper.writeValueAsBytes(session));
+        out.write('\n');
+      }
+    }
+    return path;
+  }
+
+  private static List<String> urls(List<AuditSession> batch) {
+    return batch.stream().map(AuditSession::getRequestUrl).collect(toList());
+  }
+
+  private static List<String> urls(int from, int to) {
+    return IntStream.range(from, to).mapToObj(i -> "/fhir/" + i).collect(toList());
+  }
+}
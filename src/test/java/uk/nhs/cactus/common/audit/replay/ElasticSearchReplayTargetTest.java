@@ -0,0 +1,129 @@
+package uk.nhs.cactus.common.audit.replay;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import uk.nhs.cactus.common.audit.model.AuditProperties;
+import uk.nhs.cactus.common.audit.model.AuditSession;
+import uk.nhs.cactus.common.elasticsearch.AuditIndexManager;
+import uk.nhs.cactus.common.elasticsearch.ElasticSearchClient;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ElasticSearchReplayTargetTest {
+
+  private static final Instant CREATED = Instant.parse("2020-06-01T12:00:00Z");
+
+  @Mock
+  private ElasticSearchClient elasticSearchClient;
+
+  @Mock
+  private AuditIndexManager indexManager;
+
+  @Captor
+  private ArgumentCaptor<Map<String, AuditSession>> sessionsById;
+
+  @Captor
+  private ArgumentCaptor<BiFunction<String, AuditSession, Map<String, ? extends Serializable>>>
+      metadata;
+
+  private ElasticSearchReplayTarget target;
+
+  @Before
+  public void setup() {
+    target = new ElasticSearchReplayTarget(elasticSearchClient, indexManager, "cdss");
+  }
+
+  @Test
+  public void publish_addsSameMetadataAsLocalSender() throws IOException {
+    var session = AuditSession.builder()
+        .createdDate(CREATED)
+        .additionalProperties(Map.of(AuditProperties.SUPPLIER_ID, "supplier"))
+        .build();
+    when(indexManager.writeIndexFor("supplier")).thenReturn("supplier-audit-write");
+    var id = ElasticSearchReplayTarget.documentId(session);
+
+    target.publish(List.of(session));
+
+    verify(elasticSearchClient).storeAll(eq("supplier-audit-write"), sessionsById.capture(),
+        metadata.capture());
+    assertThat(sessionsById.getValue(), is(Map.of(id, session)));
+    assertThat(metadata.getValue().apply(id, session), is(Map.of(
+        "requestId", id,
+        "@timestamp", CREATED,
+        "@owner", "cdss")));
+  }
+
+  @Test
+  public void publish_groupsBySupplier() throws IOException {
+    var first = AuditSession.builder()
+        .requestUrl("first")
+        .additionalProperties(Map.of(AuditProperties.SUPPLIER_ID, "first"))
+        .build();
+    var anonymous = AuditSession.builder().requestUrl("anonymous").build();
+    when(indexManager.writeIndexFor(any())).thenAnswer(invocation ->
+        invocation.getArgument(0) + "-audit-write");
+
+    target.publish(List.of(first, anonymous));
+
+    verify(elasticSearchClient).storeAll(eq("first-audit-write"), any(), any());
+    verify(elasticSearchClient).storeAll(eq("anonymous-audit-write"), any(), any());
+  }
+
+  @Test
+  public void publish_again_usesSameIds() throws IOException {
+    var session = AuditSession.builder()
+        .createdDate(CREATED)
+        .requestMethod("POST")
+        .requestUrl("/fhir/ServiceDefinition/1/$evaluate")
+        .additionalProperties(Map.of(AuditProperties.INTERACTION_ID, "interaction"))
+        .build();
+    when(indexManager.writeIndexFor(any())).thenReturn("anonymous-audit-write");
+
+    // As when resuming re-sends a batch that was in flight, after reading it from the file again
+    target.publish(List.of(session));
+    target.publish(List.of(session.toBuilder().build()));
+
+    verify(elasticSearchClient, times(2)).storeAll(any(), sessionsById.capture(), any());
+    var ids = sessionsById.getAllValues();
+    assertThat(ids.get(1).keySet(), is(ids.get(0).keySet()));
+  }
+
+  @Test
+  public void documentId_sortsByCreationAndDistinguishesSessions() {
+    var first = AuditSession.builder()
+        .createdDate(CREATED)
+        .requestUrl("/fhir/first")
+        .build();
+    var later = first.toBuilder().createdDate(CREATED.plusMillis(1)).build();
+    var other = first.toBuilder().requestUrl("/fhir/other").build();
+    var undated = first.toBuilder().createdDate(null).build();
+
+    var id = ElasticSearchReplayTarget.documentId(first);
+
+    assertThat(id.matches("[0-9a-f]{36}"), is(true));
+    assertThat(ElasticSearchReplayTarget.documentId(later).compareTo(id), greaterThan(0));
+    assertThat(ElasticSearchReplayTarget.documentId(other), not(id));
+    assertThat(ElasticSearchReplayTarget.documentId(undated),
+        is(ElasticSearchReplayTarget.documentId(undated.toBuilder().build())));
+  }
+}
@@ -0,0 +1,96 @@
+package uk.nhs.cactus.common.elasticsearch;
+
+import static org.apache.http.protocol.HttpCoreContext.HTTP_TARGET_HOST;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.startsWith;
+
+import com.amazonaws.auth.AWS4Signer;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import org.apache.http.HttpHost;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+public class AWSRequestSigningApacheInterceptorTest {
+
+  private static final Date SIGNING_DATE = new Date(1_590_000_000_000L);
+  private static final byte[] BODY = "{\"index\":{}}\n{\"a\":1}\n".getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  public void process_withRepeatableEntity_shouldSignWithoutReplacingEntity() throws IOException {
+    var entity = new ByteArrayEntity(BODY, ContentType.APPLICATION_JSON);
+    var request = new BasicHttpEntityEnclosingRequest("POST", "/_bulk?refresh=true");
+    request.setEntity(entity);
+
+    interceptor(hashingSigner()).process(request, context());
+
+    assertThat(request.getEntity(), sameInstance(entity));
+    assertThat(request.getEntity().isRepeatable(), is(true));
+    assertThat(request.getFirstHeader("Authorization").getValue(), startsWith("AWS4-HMAC-SHA256"));
+  }
+
+  @Test
+  public void process_withPayloadHashingSigner_shouldMatchStreamingSigner() throws IOException {
+    var hashedRequest = new BasicHttpEntityEnclosingRequest("POST", "/_bulk?refresh=true");
+    hashedRequest.setEntity(new ByteArrayEntity(BODY, ContentType.APPLICATION_JSON));
+    var streamedRequest = new BasicHttpEntityEnclosingRequest("POST", "/_bulk?refresh=true");
+    streamedRequest.setEntity(new ByteArrayEntity(BODY, ContentType.APPLICATION_JSON));
+
+    var streamingSigner = new AWS4Signer();
+    streamingSigner.setServiceName("es");
+    streamingSigner.setRegionName("eu-west-2");
+    streamingSigner.setOverrideDate(SIGNING_DATE);
+
+    interceptor(hashingSigner()).process(hashedRequest, context());
+    interceptor(streamingSigner).process(streamedRequest, context());
+
+    assertThat(hashedRequest.getFirstHeader("Authorization").getValue(),
+        is(streamedRequest.getFirstHeader("Authorization").getValue()));
+  }
+
+  @Test
+  public void process_withNonRepeatableEntity_shouldBufferOnce() throws IOException {
+    var entity = new BasicHttpEntity();
+    entity.setContent(new ByteArrayInputStream(BODY));
+    entity.setContentLength(BODY.length);
+    var request = new BasicHttpEntityEnclosingRequest("PUT", "/index/_doc/1");
+    request.setEntity(entity);
+
+    interceptor(hashingSigner()).process(request, context());
+
+    assertThat(request.getEntity().isRepeatable(), is(true));
+    assertThat(EntityUtils.toByteArray(request.getEntity()), is(BODY));
+  }
+
+  static PayloadHashingAWS4Signer hashingSigner() {
+    var signer = new PayloadHashingAWS4Signer();
+    signer.setServiceName("es");
+    signer.setRegionName("eu-west-2");
+    signer.setOverrideDate(SIGNING_DATE);
+    return signer;
+  }
+
+  static AWSRequestSigningApacheInterceptor interceptor(AWS4Signer signer) {
+    return new AWSRequestSigningApacheInterceptor("es", signer,
+        new AWSStaticCredentialsProvider(new BasicAWSCredentials("AKIDEXAMPLE", "secret")));
+  }
+
+  static HttpContext context() {
+    var context = new BasicHttpContext();
+    context.setAttribute(HTTP_TARGET_HOST,
+        new HttpHost("search-audit.eu-west-2.es.amazonaws.com", 443, "https"));
+    return context;
+  }
+}
@@ -0,0 +1,67 @@
+package uk.nhs.cactus.common.elasticsearch;
+
+import static uk.nhs.cactus.common.elasticsearch.AWSRequestSigningApacheInterceptorTest.context;
+import static uk.nhs.cactus.common.elasticsearch.AWSRequestSigningApacheInterceptorTest.interceptor;
+
+import com.amazonaws.auth.AWS4Signer;
+import java.io.IOException;
+import java.util.Arrays;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.junit.Test;
+
+/**
+ * Measures the signing overhead for a 1MB bulk payload, comparing the payload hashing signer with
+ * the SDK's stream-reading {@link AWS4Signer}.
+ * Not run as part of the build (the class name doesn't match the surefire includes); run it
+ * directly from the IDE or with {@code mvn test -Dtest=AWSRequestSigningBenchmark}.
+ */
+@Slf4j
+public class AWSRequestSigningBenchmark {
+
+  private static final int PAYLOAD_BYTES = 1 << 20;
+  private static final int WARMUP_ITERATIONS = 200;
+  private static final int ITERATIONS = 1000;
+
+  @Test
+  public void signBulkPayload() throws IOException {
+    var payload = new byte[PAYLOAD_BYTES];
+    Arrays.fill(payload, (byte) 'a');
+
+    var streamingSigner = new AWS4Signer();
+    streamingSigner.setServiceName("es");
+    streamingSigner.setRegionName("eu-west-2");
+
+    var hashingSigner = new PayloadHashingAWS4Signer();
+    hashingSigner.setServiceName("es");
+    hashingSigner.setRegionName("eu-west-2");
+
+    run("AWS4Signer (stream)", interceptor(streamingSigner), payload);
+    run("PayloadHashingAWS4Signer", interceptor(hashingSigner), payload);
+  }
+
+  private void run(String name, AWSRequestSigningApacheInterceptor interceptor, byte[] payload)
+      throws IOException {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      sign(interceptor, payload);
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      sign(interceptor, payload);
+    }
+    long elapsed = System.nanoTime() - start;
+
+    log.info(String.format("%-28s %8.1f us/op for %d byte payloads",
+        name, elapsed / 1000.0 / ITERATIONS, payload.length));
+  }
+
+  private void sign(AWSRequestSigningApacheInterceptor interceptor, byte[] payload)
+      throws IOException {
+    var request = new BasicHttpEntityEnclosingRequest("POST", "/_bulk");
+    request.setEntity(new ByteArrayEntity(payload, ContentType.APPLICATION_JSON));
+    interceptor.process(request, context());
+  }
+}
@@ -0,0 +1,118 @@
+package uk.nhs.cactus.common.elasticsearch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AuditIndexManagerTest {
+
+  private static final Instant LONG_EXPIRED = Instant.now().minus(Duration.ofDays(90));
+  private static final Instant EXPIRED = Instant.now().minus(Duration.ofDays(40));
+  private static final Instant RECENT = Instant.now().minus(Duration.ofDays(1));
+
+  @InjectMocks
+  private AuditIndexManager indexManager;
+
+  @Mock
+  private ElasticSearchClient elasticSearchClient;
+
+  @Mock
+  private SearchResultCache searchCache;
+
+  @Captor
+  private ArgumentCaptor<Collection<String>> deleted;
+
+  @Captor
+  private ArgumentCaptor<Map<String, Object>> mappings;
+
+  @Before
+  public void setup() {
+    ReflectionTestUtils.setField(indexManager, "retention", "30d");
+  }
+
+  @Test
+  public void deleteExpired_groupsIndicesBySupplierSeries() throws IOException {
+    when(elasticSearchClient.indexCreationDates(any())).thenReturn(Map.of(
+        "supplier-a-audit-000001", LONG_EXPIRED,
+        "supplier-a-audit-000002", EXPIRED,
+        "supplier-a-audit-000003", EXPIRED,
+        "supplier-a-audit-000004", RECENT,
+        "supplier-b-audit-000001", LONG_EXPIRED,
+        "supplier-b-audit-000002", EXPIRED,
+        "supplier-b-audit-000003", RECENT));
+
+    indexManager.deleteExpired();
+
+    verify(elasticSearchClient).deleteIndices(deleted.capture());
+    assertThat(deleted.getValue(), containsInAnyOrder(
+        "supplier-a-audit-000001", "supplier-a-audit-000002", "supplier-b-audit-000001"));
+  }
+
+  @Test
+  public void deleteExpired_keepsWriteIndex() throws IOException {
+    // A supplier that has stopped sending audits no longer rolls over
+    when(elasticSearchClient.indexCreationDates(any())).thenReturn(Map.of(
+        "supplier-audit-000009", EXPIRED,
+        "supplier-audit-000010", EXPIRED));
+
+    indexManager.deleteExpired();
+
+    verify(elasticSearchClient).deleteIndices(deleted.capture());
+    assertThat(deleted.getValue(), containsInAnyOrder("supplier-audit-000009"));
+  }
+
+  @Test
+  public void deleteExpired_keepsIndexUntilRetentionAfterRollover() throws IOException {
+    // Created long ago, but written to until a supplier's first audit in months rolled it over
+    when(elasticSearchClient.indexCreationDates(any())).thenReturn(Map.of(
+        "supplier-audit-000001", LONG_EXPIRED,
+        "supplier-audit-000002", RECENT));
+
+    indexManager.deleteExpired();
+
+    verify(elasticSearchClient, never()).deleteIndices(any());
+  }
+
+  @Test
+  public void deleteExpired_ignoresOtherIndicesMatchingPattern() throws IOException {
+    when(elasticSearchClient.indexCreationDates(any())).thenReturn(Map.of(
+        "billing-audit-archive", EXPIRED,
+        "billing-audit-2020.01", EXPIRED,
+        "other-audit-logs-000001", EXPIRED,
+        "supplier-audit-000001", RECENT));
+
+    indexManager.deleteExpired();
+
+    verify(elasticSearchClient, never()).deleteIndices(any());
+  }
+
+  @Test
+  public void writeIndexFor_installsTemplateWithoutMappingSharedBodies() throws IOException {
+    indexManager.writeIndexFor("supplier");
+
+    verify(elasticSearchClient).putTemplate(any(), any(), mappings.capture());
+    var properties = (Map<?, ?>) mappings.getValue().get("properties");
+    // Keyed by body hash, so mapping them would add fields without limit
+    assertThat(properties.get("bodies"), is(Map.of("type", "object", "enabled", false)));
+  }
+}
@@ -0,0 +1,154 @@
+package uk.nhs.cactus.common.elasticsearch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CachingAWSCredentialsProviderTest {
+
+  private static final Duration REFRESH_AFTER = Duration.ofMinutes(1);
+  private static final Duration EXPIRE_AFTER = Duration.ofMinutes(4);
+  private static final Instant NOW = Instant.parse("2020-06-01T12:00:00Z");
+
+  private static final AWSCredentials FIRST = new BasicAWSCredentials("first", "secret");
+  private static final AWSCredentials SECOND = new BasicAWSCredentials("second", "secret");
+
+  @Mock
+  private AWSCredentialsProvider delegate;
+
+  private final AtomicLong nanoTime = new AtomicLong();
+  private final List<Runnable> refreshes = new ArrayList<>();
+  private final Map<AWSCredentials, Instant> expiries = new HashMap<>();
+
+  private CachingAWSCredentialsProvider provider;
+
+  @Before
+  public void setup() {
+    provider = new CachingAWSCredentialsProvider(delegate, REFRESH_AFTER, EXPIRE_AFTER,
+        refreshes::add, credentials -> Optional.ofNullable(expiries.get(credentials)),
+        Clock.fixed(NOW, ZoneOffset.UTC), nanoTime::get);
+  }
+
+  @Test
+  public void getCredentials_beforeRefreshAfter_usesCache() {
+    when(delegate.getCredentials()).thenReturn(FIRST);
+
+    provider.getCredentials();
+    advance(REFRESH_AFTER.minusSeconds(1));
+
+    assertThat(provider.getCredentials(), sameInstance(FIRST));
+    assertThat(refreshes, empty());
+    verify(delegate).getCredentials();
+  }
+
+  @Test
+  public void getCredentials_afterRefreshAfter_refreshesInBackground() {
+    when(delegate.getCredentials()).thenReturn(FIRST, SECOND);
+    provider.getCredentials();
+    advance(REFRESH_AFTER);
+
+    assertThat(provider.getCredentials(), sameInstance(FIRST));
+    assertThat(provider.getCredentials(), sameInstance(FIRST));
+    assertThat("only one refresh is started", refreshes, hasSize(1));
+
+    refreshes.get(0).run();
+
+    assertThat(provider.getCredentials(), sameInstance(SECOND));
+  }
+
+  @Test
+  public void getCredentials_afterExpireAfter_reloadsOnCallingThread() {
+    when(delegate.getCredentials()).thenReturn(FIRST, SECOND);
+    provider.getCredentials();
+    advance(EXPIRE_AFTER);
+
+    assertThat(provider.getCredentials(), sameInstance(SECOND));
+    assertThat(refreshes, empty());
+  }
+
+  @Test
+  public void getCredentials_afterFailedRefresh_keepsCachedUntilExpiry() {
+    when(delegate.getCredentials())
+        .thenReturn(FIRST)
+        .thenThrow(new IllegalStateException("metadata service unavailable"))
+        .thenReturn(SECOND);
+    provider.getCredentials();
+    advance(REFRESH_AFTER);
+    provider.getCredentials();
+
+    refreshes.get(0).run();
+
+    assertThat(provider.getCredentials(), sameInstance(FIRST));
+    assertThat("a failed refresh can be retried", refreshes, hasSize(2));
+
+    advance(EXPIRE_AFTER);
+    assertThat(provider.getCredentials(), sameInstance(SECOND));
+  }
+
+  @Test
+  public void getCredentials_nearCredentialsExpiry_refreshesEarly() {
+    expiries.put(FIRST, NOW.plus(Duration.ofSeconds(330)));
+    when(delegate.getCredentials()).thenReturn(FIRST);
+    provider.getCredentials();
+
+    // Refreshing starts 5 minutes before the credentials expire, rather than after a minute
+    advance(Duration.ofSeconds(29));
+    provider.getCredentials();
+    assertThat(refreshes, empty());
+    advance(Duration.ofSeconds(1));
+    provider.getCredentials();
+    assertThat(refreshes, hasSize(1));
+  }
+
+  @Test
+  public void getCredentials_withinExpiryMargin_reloadsOnCallingThread() {
+    expiries.put(FIRST, NOW.plus(Duration.ofMinutes(3)));
+    when(delegate.getCredentials()).thenReturn(FIRST, SECOND);
+    provider.getCredentials();
+
+    // Before the 4 minute expire-after, but within a minute of the credentials expiring
+    advance(Duration.ofMinutes(2));
+
+    assertThat(provider.getCredentials(), sameInstance(SECOND));
+    verify(delegate, times(2)).getCredentials();
+  }
+
+  @Test
+  public void refresh_dropsCache() {
+    when(delegate.getCredentials()).thenReturn(FIRST, SECOND);
+    provider.getCredentials();
+
+    provider.refresh();
+
+    assertThat(provider.getCredentials(), sameInstance(SECOND));
+    verify(delegate).refresh();
+  }
+
+  private void advance(Duration duration) {
+    nanoTime.addAndGet(duration.toNanos());
+  }
+}
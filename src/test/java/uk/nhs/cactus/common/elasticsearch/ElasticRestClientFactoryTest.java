@@ -0,0 +1,146 @@
+package uk.nhs.cactus.common.elasticsearch;
+
+import static org.apache.http.protocol.HttpCoreContext.HTTP_TARGET_HOST;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+
+import com.amazonaws.SDKGlobalConfiguration;
+import java.io.IOException;
+import java.util.List;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.protocol.BasicHttpContext;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.sniff.Sniffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ElasticRestClientFactoryTest {
+
+  private static final String AWS_LONDON = "https://search-audit-a1.eu-west-2.es.amazonaws.com";
+  private static final String AWS_IRELAND = "https://search-audit-b2.eu-west-1.es.amazonaws.com";
+  private static final String LOCAL = "http://localhost:9200";
+
+  private final ElasticRestClientFactory clientFactory = new ElasticRestClientFactory();
+
+  @Before
+  public void setup() {
+    // Picked up by the default credentials chain, so that requests can be signed
+    System.setProperty(SDKGlobalConfiguration.ACCESS_KEY_SYSTEM_PROPERTY, "access-key");
+    System.setProperty(SDKGlobalConfiguration.SECRET_KEY_SYSTEM_PROPERTY, "secret-key");
+  }
+
+  @After
+  public void tearDown() {
+    clientFactory.shutdown();
+    System.clearProperty(SDKGlobalConfiguration.ACCESS_KEY_SYSTEM_PROPERTY);
+    System.clearProperty(SDKGlobalConfiguration.SECRET_KEY_SYSTEM_PROPERTY);
+  }
+
+  @Test
+  public void hosts_parsesCommaSeparatedEndpoints() {
+    var hosts = ElasticRestClientFactory.hosts(" http://es1:9200, https://es2:9243,,");
+
+    assertThat(hosts, contains(HttpHost.create("http://es1:9200"),
+        HttpHost.create("https://es2:9243")));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void hosts_withBlankEndpoints_fails() {
+    ElasticRestClientFactory.hosts(" ");
+  }
+
+  @Test
+  public void highLevelClient_spreadsAcrossEveryEndpoint() throws IOException {
+    try (var client = clientFactory.highLevelClient("http://es1:9200,http://es2:9200")) {
+      var hosts = client.getLowLevelClient().getNodes().stream().map(Node::getHost);
+
+      assertThat(hosts.map(HttpHost::getHostName).toArray(), is(new Object[]{"es1", "es2"}));
+    }
+  }
+
+  @Test
+  public void signingInterceptor_withoutAwsHosts_isEmpty() {
+    var interceptor = clientFactory.signingInterceptor(
+        ElasticRestClientFactory.hosts(LOCAL + ",http://es2:9200"));
+
+    assertThat(interceptor.isPresent(), is(false));
+  }
+
+  @Test
+  public void signingInterceptor_withMixedHosts_signsOnlyAwsRequests()
+      throws IOException, HttpException {
+    var hosts = ElasticRestClientFactory.hosts(AWS_LONDON + "," + LOCAL);
+    var interceptor = clientFactory.signingInterceptor(hosts).orElseThrow();
+
+    var awsRequest = new BasicHttpRequest("GET", "/_search");
+    interceptor.process(awsRequest, targeting(hosts.get(0)));
+    var localRequest = new BasicHttpRequest("GET", "/_search");
+    interceptor.process(localRequest, targeting(hosts.get(1)));
+
+    assertThat(awsRequest.getFirstHeader("Authorization").getValue(),
+        startsWith("AWS4-HMAC-SHA256 Credential=access-key/"));
+    assertThat(localRequest.getFirstHeader("Authorization"), nullValue());
+  }
+
+  @Test
+  public void signingInterceptor_withAwsRegions_signsForEachHostsRegion()
+      throws IOException, HttpException {
+    var hosts = ElasticRestClientFactory.hosts(AWS_LONDON + "," + AWS_IRELAND);
+    var interceptor = clientFactory.signingInterceptor(hosts).orElseThrow();
+
+    var londonRequest = new BasicHttpRequest("GET", "/_search");
+    interceptor.process(londonRequest, targeting(hosts.get(0)));
+    var irelandRequest = new BasicHttpRequest("GET", "/_search");
+    interceptor.process(irelandRequest, targeting(hosts.get(1)));
+
+    assertThat(londonRequest.getFirstHeader("Authorization").getValue().contains("/eu-west-2/es/"),
+        is(true));
+    assertThat(irelandRequest.getFirstHeader("Authorization").getValue().contains("/eu-west-1/es/"),
+        is(true));
+  }
+
+  @Test
+  public void signingInterceptor_withOneAwsRegion_usesRegionInterceptorDirectly() {
+    var interceptor = clientFactory.signingInterceptor(
+        ElasticRestClientFactory.hosts(AWS_LONDON)).orElseThrow();
+
+    assertThat(interceptor, instanceOf(AWSRequestSigningApacheInterceptor.class));
+  }
+
+  @Test
+  public void highLevelClient_withSniffing_sniffsOnlyNonAwsEndpoints() throws IOException {
+    ReflectionTestUtils.setField(clientFactory, "sniffEnabled", true);
+    ReflectionTestUtils.setField(clientFactory, "sniffIntervalMillis", 300000);
+    ReflectionTestUtils.setField(clientFactory, "sniffAfterFailureDelayMillis", 60000);
+
+    try (var awsClient = clientFactory.highLevelClient(AWS_LONDON + "," + LOCAL)) {
+      assertThat(sniffers(), hasSize(0));
+    }
+    var localClient = clientFactory.highLevelClient(LOCAL);
+    assertThat(sniffers(), hasSize(1));
+
+    // Stops the sniffer before the client it uses
+    clientFactory.shutdown();
+    localClient.close();
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<Sniffer> sniffers() {
+    return (List<Sniffer>) ReflectionTestUtils.getField(clientFactory, "sniffers");
+  }
+
+  private static BasicHttpContext targeting(HttpHost host) {
+    var context = new BasicHttpContext();
+    context.setAttribute(HTTP_TARGET_HOST, host);
+    return context;
+  }
+}
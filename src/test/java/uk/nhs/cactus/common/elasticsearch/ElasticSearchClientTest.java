@@ -0,0 +1,325 @@
+package uk.nhs.cactus.common.elasticsearch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.http.HttpHost;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.nhs.cactus.common.elasticsearch.model.AuditFields;
+import uk.nhs.cactus.common.elasticsearch.model.CompositePage;
+import uk.nhs.cactus.common.elasticsearch.model.DateCount;
+import uk.nhs.cactus.common.elasticsearch.model.TermCount;
+import uk.nhs.cactus.common.loadtest.StandIn;
+import uk.nhs.cactus.common.loadtest.StandIn.Fault;
+import uk.nhs.cactus.common.loadtest.StandIn.Response;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ElasticSearchClientTest {
+
+  private static final String INDEX = "supplier-audit";
+
+  @Mock
+  private ElasticRestClientFactory clientFactory;
+
+  @Mock
+  private RestClient restClient;
+
+  @Mock
+  private Cancellable cancellable;
+
+  private ElasticSearchClient esClient;
+  private StandIn elasticSearch;
+  private String searchPath;
+  private JsonNode searchBody;
+
+  @Before
+  public void setup() {
+    esClient = new ElasticSearchClient(clientFactory, new ObjectMapper(), new SearchResultCache());
+    ReflectionTestUtils.setField(esClient, "endpoint", "http://localhost:9200");
+    ReflectionTestUtils.setField(esClient, "maxInFlight", 2);
+    ReflectionTestUtils.setField(esClient, "timeoutMillis", 10_000L);
+    esClient.init();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (elasticSearch != null) {
+      elasticSearch.close();
+    }
+  }
+
+  /**
+   * Answers searches from a local server with the given aggregation, recording the request
+   */
+  private void respondWithAggregation(String typedName, String aggregation) throws IOException {
+    elasticSearch = new StandIn("elasticsearch", new Fault(0, 0, 0), Response.json(500, "{}"))
+        .route("/", (exchange, body) -> {
+          searchPath = exchange.getRequestURI().toString();
+          searchBody = new ObjectMapper().readTree(body);
+          return Response.json(200, "{\"took\":1,\"timed_out\":false,"
+              + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+              + "\"hits\":{\"max_score\":null,\"hits\":[]},"
+              + "\"aggregations\":{\"" + typedName + "#result\":" + aggregation + "}}");
+        });
+    when(clientFactory.highLevelClient("http://localhost:9200"))
+        .thenReturn(new RestHighLevelClient(
+            RestClient.builder(HttpHost.create(elasticSearch.url()))));
+  }
+
+  /**
+   * Answers every request from a local server with the given response
+   */
+  private void respondWith(int status, String json) throws IOException {
+    elasticSearch = new StandIn("elasticsearch", new Fault(0, 0, 0), Response.json(500, "{}"))
+        .route("/", (exchange, body) -> Response.json(status, json));
+    when(clientFactory.highLevelClient("http://localhost:9200"))
+        .thenReturn(new RestHighLevelClient(
+            RestClient.builder(HttpHost.create(elasticSearch.url()))));
+  }
+
+  @Test
+  public void storeAsync_withExistingId_fails() throws IOException {
+    // Generated IDs are unique, so an existing one means two different documents were given it
+    respondWith(409, "{\"error\":{\"type\":\"version_conflict_engine_exception\","
+        + "\"reason\":\"document already exists\"},\"status\":409}");
+
+    var store = esClient.storeAsync(INDEX, "0172c5b7e1c00001", Map.of("a", 1), Map.of());
+
+    var cause = causeOf(store);
+    assertThat(cause, instanceOf(ElasticsearchStatusException.class));
+    assertThat(((ElasticsearchStatusException) cause).status(), is(RestStatus.CONFLICT));
+  }
+
+  @Test
+  public void storeAll_withExistingIds_countsOnlyOtherFailures() throws IOException {
+    respondWith(200, "{\"took\":1,\"errors\":true,\"items\":["
+        + bulkItem("stored", 409, "version_conflict_engine_exception") + ","
+        + bulkItem("rejected", 429, "es_rejected_execution_exception") + ","
+        + "{\"create\":{\"_index\":\"" + INDEX + "\",\"_type\":\"_doc\",\"_id\":\"new\","
+        + "\"_version\":1,\"result\":\"created\",\"status\":201,\"_seq_no\":0,"
+        + "\"_primary_term\":1,"
+        + "\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0}}}]}");
+
+    var failed = esClient.storeAll(INDEX,
+        Map.of("stored", Map.of("a", 1), "rejected", Map.of("a", 2), "new", Map.of("a", 3)),
+        (id, source) -> Map.of());
+
+    assertThat(failed, is(1));
+  }
+
+  private static String bulkItem(String id, int status, String type) {
+    return "{\"create\":{\"_index\":\"" + INDEX + "\",\"_type\":\"_doc\",\"_id\":\"" + id
+        + "\",\"status\":" + status + ",\"error\":{\"type\":\"" + type
+        + "\",\"reason\":\"" + type + "\"}}}";
+  }
+
+  @Test
+  public void countBy_requestsTermsOnly() throws IOException {
+    respondWithAggregation("sterms", "{\"doc_count_error_upper_bound\":0,"
+        + "\"sum_other_doc_count\":0,\"buckets\":["
+        + "{\"key\":\"supplier-a\",\"doc_count\":5},{\"key\":\"supplier-b\",\"doc_count\":2}]}");
+
+    var counts = esClient.countBy(INDEX, QueryBuilders.termQuery(AuditFields.OPERATION, "evaluate"),
+        AuditFields.SUPPLIER_ID, 5);
+
+    assertThat(counts, contains(new TermCount("supplier-a", 5), new TermCount("supplier-b", 2)));
+    assertThat(searchPath, startsWith("/" + INDEX + "/_search"));
+    assertThat(searchBody.path("size").asInt(), is(0));
+    // Disabled, as the total isn't needed
+    assertThat(searchBody.path("track_total_hits").asInt(), is(-1));
+    assertThat(searchBody.at("/query/term/" + AuditFields.OPERATION + "/value").asText(),
+        is("evaluate"));
+    var terms = searchBody.at("/aggregations/result/terms");
+    assertThat(terms.path("field").asText(), is(AuditFields.SUPPLIER_ID));
+    assertThat(terms.path("size").asInt(), is(5));
+  }
+
+  @Test
+  public void countByDate_parsesBucketDates() throws IOException {
+    respondWithAggregation("date_histogram", "{\"buckets\":["
+        + "{\"key_as_string\":\"2020-06-01T00:00:00.000Z\",\"key\":1590969600000,\"doc_count\":3},"
+        + "{\"key_as_string\":\"2020-06-02T00:00:00.000Z\",\"key\":1591056000000,"
+        + "\"doc_count\":0}]}");
+
+    var counts = esClient.countByDate(INDEX, null, AuditFields.CREATED_DATE,
+        DateHistogramInterval.DAY);
+
+    assertThat(counts, contains(
+        new DateCount(Instant.parse("2020-06-01T00:00:00Z"), 3),
+        new DateCount(Instant.parse("2020-06-02T00:00:00Z"), 0)));
+    assertThat(searchBody.at("/query/match_all").isObject(), is(true));
+    var histogram = searchBody.at("/aggregations/result/date_histogram");
+    assertThat(histogram.path("field").asText(), is(AuditFields.CREATED_DATE));
+    assertThat(histogram.path("calendar_interval").asText(), is("1d"));
+  }
+
+  @Test
+  public void percentiles_returnsValuesInRequestedOrder() throws IOException {
+    respondWithAggregation("tdigest_percentiles",
+        "{\"values\":{\"50.0\":120.0,\"95.0\":480.0,\"99.0\":910.5}}");
+
+    var percentiles = esClient.percentiles(INDEX, null, AuditFields.DURATION_MILLIS, 99, 50, 95);
+
+    assertThat(percentiles.keySet(), contains(99.0, 50.0, 95.0));
+    assertThat(percentiles.values(), contains(910.5, 120.0, 480.0));
+    var request = searchBody.at("/aggregations/result/percentiles");
+    assertThat(request.path("field").asText(), is(AuditFields.DURATION_MILLIS));
+    assertThat(request.path("percents").toString(), is("[50.0,95.0,99.0]"));
+  }
+
+  @Test
+  public void countByComposite_fullPage_returnsAfterKey() throws IOException {
+    respondWithAggregation("composite", "{\"after_key\":{\"" + AuditFields.SUPPLIER_ID
+        + "\":\"b\"},\"buckets\":["
+        + "{\"key\":{\"" + AuditFields.SUPPLIER_ID + "\":\"a\"},\"doc_count\":4},"
+        + "{\"key\":{\"" + AuditFields.SUPPLIER_ID + "\":\"b\"},\"doc_count\":1}]}");
+
+    var page = esClient.countByComposite(INDEX, null, List.of(AuditFields.SUPPLIER_ID), 2,
+        Map.of(AuditFields.SUPPLIER_ID, "0"));
+
+    assertThat(page.getBuckets(), contains(
+        new CompositePage.Bucket(Map.of(AuditFields.SUPPLIER_ID, "a"), 4),
+        new CompositePage.Bucket(Map.of(AuditFields.SUPPLIER_ID, "b"), 1)));
+    assertThat(page.getAfterKey(), is(Map.of(AuditFields.SUPPLIER_ID, "b")));
+    var composite = searchBody.at("/aggregations/result/composite");
+    assertThat(composite.path("size").asInt(), is(2));
+    assertThat(composite.at("/after/" + AuditFields.SUPPLIER_ID).asText(),
+        is("0"));
+    assertThat(composite.at("/sources/0/" + AuditFields.SUPPLIER_ID + "/terms/field").asText(),
+        is(AuditFields.SUPPLIER_ID));
+  }
+
+  @Test
+  public void countByComposite_lastPage_hasNoAfterKey() throws IOException {
+    respondWithAggregation("composite", "{\"after_key\":{\"" + AuditFields.SUPPLIER_ID
+        + "\":\"a\"},\"buckets\":["
+        + "{\"key\":{\"" + AuditFields.SUPPLIER_ID + "\":\"a\"},\"doc_count\":4}]}");
+
+    var page = esClient.countByComposite(INDEX, null, List.of(AuditFields.SUPPLIER_ID), 2, null);
+
+    assertThat(page.getBuckets().size(), is(1));
+    assertThat(page.getAfterKey(), nullValue());
+  }
+
+  private void mockAsyncClient() {
+    when(clientFactory.highLevelClient("http://localhost:9200"))
+        .thenReturn(new RestHighLevelClient(restClient, client -> { }, List.of()) { });
+    when(restClient.performRequestAsync(any(Request.class), any(ResponseListener.class)))
+        .thenReturn(cancellable);
+  }
+
+  @Test
+  public void searchAsync_limitsRequestsInFlight() {
+    mockAsyncClient();
+
+    esClient.searchAsync(INDEX, new SearchSourceBuilder());
+    esClient.searchAsync(INDEX, new SearchSourceBuilder());
+    var rejected = esClient.searchAsync(INDEX, new SearchSourceBuilder());
+
+    assertThat(causeOf(rejected), instanceOf(RejectedExecutionException.class));
+    verify(restClient, times(2))
+        .performRequestAsync(any(Request.class), any(ResponseListener.class));
+  }
+
+  @Test
+  public void searchAsync_withoutResponse_timesOut() {
+    ReflectionTestUtils.setField(esClient, "timeoutMillis", 50L);
+    mockAsyncClient();
+
+    var search = esClient.searchAsync(INDEX, new SearchSourceBuilder());
+
+    assertThat(causeOf(search), instanceOf(TimeoutException.class));
+    verify(cancellable, timeout(1000)).cancel();
+    assertThat(permits(), is(2));
+  }
+
+  @Test
+  public void searchAsync_cancel_releasesPermitAndAbortsRequest() {
+    mockAsyncClient();
+    var search = esClient.searchAsync(INDEX, new SearchSourceBuilder());
+    assertThat(permits(), is(1));
+
+    search.cancel(true);
+
+    verify(cancellable).cancel();
+    assertThat(permits(), is(2));
+  }
+
+  @Test
+  public void storeAsync_cancel_releasesPermitAndAbortsRequest() {
+    mockAsyncClient();
+    var store = esClient.storeAsync(INDEX, Map.of("a", 1), Map.of());
+
+    store.cancel(true);
+
+    verify(cancellable).cancel();
+    assertThat(permits(), is(2));
+  }
+
+  @Test
+  public void storeAsync_failure_releasesPermit() {
+    mockAsyncClient();
+    var listener = ArgumentCaptor.forClass(ResponseListener.class);
+    var store = esClient.storeAsync(INDEX, Map.of("a", 1), Map.of());
+    verify(restClient).performRequestAsync(any(Request.class), listener.capture());
+
+    listener.getValue().onFailure(new IOException("connection reset"));
+
+    assertThat(causeOf(store), instanceOf(IOException.class));
+    assertThat(permits(), is(2));
+  }
+
+  private int permits() {
+    return ((Semaphore) ReflectionTestUtils.getField(esClient, "inFlight"))
+        .availablePermits();
+  }
+
+  private static Throwable causeOf(CompletableFuture<?> future) {
+    try {
+      future.get(1, TimeUnit.SECONDS);
+      throw new AssertionError("Expected the future to fail");
+    } catch (ExecutionException e) {
+      return e.getCause();
+    } catch (InterruptedException | TimeoutException e) {
+      throw new AssertionError("Expected the future to fail", e);
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package uk.nhs.cactus.common.elasticsearch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SearchResultCacheTest {
+
+  private final AtomicInteger searches = new AtomicInteger();
+  private SearchResultCache cache;
+
+  @Before
+  public void setup() {
+    cache = new SearchResultCache();
+    ReflectionTestUtils.setField(cache, "enabled", true);
+    ReflectionTestUtils.setField(cache, "maxEntries", 100L);
+    ReflectionTestUtils.setField(cache, "defaultTtlMillis", 60_000L);
+    cache.init();
+  }
+
+  @Test
+  public void get_sameQuery_searchesOnce() throws Exception {
+    var first = cache.get("supplier-audit-read", query("abc"), this::search);
+    var second = cache.get("supplier-audit-read", query("abc"), this::search);
+
+    assertThat(searches.get(), is(1));
+    assertThat(second, sameInstance(first));
+  }
+
+  @Test
+  public void get_differentQueryOrIndex_searchesAgain() throws Exception {
+    cache.get("supplier-audit-read", query("abc"), this::search);
+    cache.get("supplier-audit-read", query("def"), this::search);
+    cache.get("other-audit-read", query("abc"), this::search);
+
+    assertThat(searches.get(), is(3));
+  }
+
+  @Test
+  public void get_afterTtl_searchesAgain() throws Exception {
+    cache.get("index", query("abc"), Duration.ofMillis(1), this::search);
+    Thread.sleep(5);
+    cache.get("index", query("abc"), Duration.ofMillis(1), this::search);
+
+    assertThat(searches.get(), is(2));
+  }
+
+  @Test
+  public void get_disabled_alwaysSearches() throws Exception {
+    ReflectionTestUtils.setField(cache, "enabled", false);
+
+    cache.get("index", query("abc"), this::search);
+    cache.get("index", query("abc"), this::search);
+
+    assertThat(searches.get(), is(2));
+  }
+
+  @Test
+  public void get_concurrentIdenticalQueries_shareOneSearch() throws Exception {
+    var started = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    SearchResultCache.SearchCall slowSearch = () -> {
+      started.countDown();
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return search();
+    };
+
+    var first = CompletableFuture.supplyAsync(() -> get(slowSearch));
+    started.await(5, TimeUnit.SECONDS);
+    var second = CompletableFuture.supplyAsync(() -> get(slowSearch));
+    Thread.sleep(50);
+    release.countDown();
+
+    assertThat(first.get(5, TimeUnit.SECONDS), sameInstance(second.get(5, TimeUnit.SECONDS)));
+    assertThat(searches.get(), is(1));
+  }
+
+  @Test
+  public void invalidate_dropsMatchingIndicesPatternsAndLinkedAliases() throws Exception {
+    cache.link("supplier-audit-write", "supplier-audit-read");
+    cache.get("supplier-audit-read", query("abc"), this::search);
+    cache.get("*-audit-*", query("abc"), this::search);
+    cache.get("other-audit-read", query("abc"), this::search);
+
+    cache.invalidate("supplier-audit-write");
+    cache.get("supplier-audit-read", query("abc"), this::search);
+    cache.get("*-audit-*", query("abc"), this::search);
+    cache.get("other-audit-read", query("abc"), this::search);
+
+    assertThat(searches.get(), is(5));
+  }
+
+  private List<SearchHit> get(SearchResultCache.SearchCall search) {
+    try {
+      return cache.get("index", query("abc"), search);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private List<SearchHit> search() {
+    searches.incrementAndGet();
+    return List.of();
+  }
+
+  private static SearchSourceBuilder query(String value) {
+    return new SearchSourceBuilder().query(QueryBuilders.termQuery("field", value));
+  }
+}
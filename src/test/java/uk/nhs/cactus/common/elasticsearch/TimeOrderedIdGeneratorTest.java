@@ -0,0 +1,117 @@
+package uk.nhs.cactus.common.elasticsearch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TimeOrderedIdGeneratorTest {
+
+  @InjectMocks
+  private TimeOrderedIdGenerator generator;
+
+  @Mock
+  private Clock clock;
+
+  @Before
+  public void setup() {
+    ReflectionTestUtils.setField(generator, "configuredNodeId", "42");
+    generator.init();
+  }
+
+  @Test
+  public void next_sortsInGenerationOrder() {
+    when(clock.millis()).thenReturn(1_000L, 1_000L, 2_000L, 1_500L);
+
+    var ids = List.of(generator.next(), generator.next(), generator.next(), generator.next());
+
+    for (int i = 1; i < ids.size(); i++) {
+      assertThat(ids.get(i).compareTo(ids.get(i - 1)), greaterThan(0));
+    }
+    assertThat(ids.get(0).length(), is(26));
+    assertThat(ids.get(0), endsWith("00000000002a"));
+  }
+
+  @Test
+  public void init_withHostName_hashesNodeId() {
+    when(clock.millis()).thenReturn(1_000L);
+
+    var first = nodeIdFor("cdss-7f9c4d-x2k8p");
+    var again = nodeIdFor("cdss-7f9c4d-x2k8p");
+    var other = nodeIdFor("cdss-7f9c4d-q4m1z");
+
+    assertThat(first.matches("[0-9a-f]{12}"), is(true));
+    assertThat(again, is(first));
+    assertThat(other.equals(first), is(false));
+  }
+
+  @Test
+  public void init_withoutNodeId_choosesDistinctRandomNodeIds() {
+    when(clock.millis()).thenReturn(1_000L);
+
+    var nodeIds = new HashSet<String>();
+    for (int i = 0; i < 1_000; i++) {
+      nodeIds.add(nodeIdFor(""));
+    }
+
+    // Collisions among a thousand 16-bit IDs are all but certain, among 48-bit IDs negligible
+    assertThat(nodeIds.size(), is(1_000));
+  }
+
+  @Test
+  public void next_uniqueAcrossThreads() throws Exception {
+    when(clock.millis()).thenReturn(1_000L);
+    var ids = ConcurrentHashMap.<String>newKeySet();
+    var threads = new ArrayList<Thread>();
+    var start = new CountDownLatch(1);
+
+    for (int t = 0; t < 8; t++) {
+      threads.add(new Thread(() -> generate(start, ids)));
+    }
+    threads.forEach(Thread::start);
+    start.countDown();
+    for (var thread : threads) {
+      thread.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    // Far more than fit in one millisecond's sequence, so also covers overflow
+    assertThat(ids.size(), is(8 * 10_000));
+  }
+
+  private void generate(CountDownLatch start, Set<String> ids) {
+    try {
+      start.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    for (int i = 0; i < 10_000; i++) {
+      ids.add(generator.next());
+    }
+  }
+
+  private String nodeIdFor(String configuredNodeId) {
+    var named = new TimeOrderedIdGenerator(clock);
+    ReflectionTestUtils.setField(named, "configuredNodeId", configuredNodeId);
+    named.init();
+    return named.next().substring(14);
+  }
+}
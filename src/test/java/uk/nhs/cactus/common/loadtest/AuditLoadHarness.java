@@ -0,0 +1,302 @@
+package uk.nhs.cactus.common.loadtest;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import uk.nhs.cactus.common.audit.sender.CompositeAuditSender;
+import uk.nhs.cactus.common.loadtest.StandIn.Fault;
+import uk.nhs.cactus.common.loadtest.StandIn.Response;
+import uk.nhs.cactus.common.security.JWTHandler;
+import uk.nhs.cactus.common.security.JWTRequest;
+
+/**
+ * Drives concurrent evaluations through {@link LoadTestApplication}, with local stand-ins for SQS,
+ * ElasticSearch, the auth server and a downstream FHIR server, and reports request latency and
+ * the latency and loss of audit delivery. Runs offline.
+ * Not run as part of the build (the class name doesn't match the surefire includes); run it with
+ * {@code mvn test -Ploadtest}, setting any of the following as system properties:
+ * <ul>
+ *   <li>{@code loadtest.sink}: {@code sqs} (default), {@code es} (the dev profile) or
+ *   {@code both} (the audit-fanout profile)</li>
+ *   <li>{@code loadtest.requests}, {@code loadtest.warmup-requests},
+ *   {@code loadtest.concurrency} and {@code loadtest.suppliers}</li>
+ *   <li>{@code loadtest.<sqs|es|auth|fhir>.latency-millis} and
+ *   {@code loadtest.<sqs|es|auth|fhir>.failure-rate}, with {@code loadtest.jitter} as a fraction
+ *   of the latency</li>
+ *   <li>{@code loadtest.drain-seconds}: how long to wait for audits still in flight</li>
+ * </ul>
+ * With no failures injected, every audit must arrive.
+ */
+@Slf4j
+public class AuditLoadHarness {
+
+  private static final String JWT_SECRET = "load-test-secret";
+  private static final Map<String, Long> DEFAULT_LATENCY_MILLIS = Map.of(
+      "sqs", 20L,
+      "es", 10L,
+      "auth", 5L,
+      "fhir", 30L);
+
+  private final String sink = System.getProperty("loadtest.sink", "sqs");
+  private final int requests = Integer.getInteger("loadtest.requests", 2000);
+  private final int warmupRequests = Integer.getInteger("loadtest.warmup-requests", 200);
+  private final int concurrency = Integer.getInteger("loadtest.concurrency", 16);
+  private final int suppliers = Integer.getInteger("loadtest.suppliers", 4);
+  private final long drainSeconds = Long.getLong("loadtest.drain-seconds", 15);
+  private final double jitter = Double.parseDouble(System.getProperty("loadtest.jitter", "0.2"));
+
+  private final DeliveryTracker tracker = new DeliveryTracker();
+  private final LatencyRecorder requestLatency = new LatencyRecorder();
+  private final LongAdder responses = new LongAdder();
+  private final LongAdder errorResponses = new LongAdder();
+  private final LongAdder transportErrors = new LongAdder();
+
+  @Test
+  public void run() throws Exception {
+    // The SDK signs requests even to the stand-in
+    System.setProperty("aws.accessKeyId", "stand-in");
+    System.setProperty("aws.secretKey", "stand-in");
+
+    try (var sqs = new SqsStandIn(fault("sqs"), tracker);
+        var es = new ElasticSearchStandIn(fault("es"), tracker);
+        var auth = authServer();
+        var fhir = fhirServer()) {
+
+      var app = startApplication(sqs, es, auth, fhir);
+      try {
+        var tokens = tokens(app.getBean(JWTHandler.class));
+        var baseUrl = "http://localhost:" + app.getEnvironment().getProperty("local.server.port");
+
+        drive(baseUrl, tokens, 0, warmupRequests);
+        requestLatency.clear();
+        responses.reset();
+        errorResponses.reset();
+        transportErrors.reset();
+
+        var start = System.nanoTime();
+        drive(baseUrl, tokens, warmupRequests, warmupRequests + requests);
+        var elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        var lost = drain();
+        report(elapsedSeconds, lost, app, List.of(sqs.getStandIn(), es.getStandIn(), auth, fhir));
+        if (sqs.getDeduplicated() > 0) {
+          log.info("SQS deduplicated {} repeated sends", sqs.getDeduplicated());
+        }
+
+        if (noFailuresInjected()) {
+          lost.forEach((name, count) -> assertThat("audits lost by " + name, count, is(0L)));
+        }
+      } finally {
+        app.close();
+      }
+    }
+  }
+
+  private ConfigurableApplicationContext startApplication(SqsStandIn sqs, ElasticSearchStandIn es,
+      StandIn auth, StandIn fhir) {
+    var properties = new ArrayList<>(List.of(
+        "server.port=0",
+        "spring.main.banner-mode=off",
+        "logging.level.uk.nhs.cactus=WARN",
+        // The harness logs its report at INFO
+        "logging.level.uk.nhs.cactus.common.loadtest=INFO",
+        "service.name=loadtest",
+        "cactus.jwt.secret=" + JWT_SECRET,
+        "cactus.auth.server=" + auth.url(),
+        // Generous, so that injected latency shows up as latency rather than failures
+        "cactus.http.connect-timeout=1000",
+        "cactus.http.read-timeout=5000",
+        "loadtest.fhir-server=" + fhir.url() + "/fhir",
+        "sqs.audit.queue=" + sqs.queueUrl(),
+        "aws.sqs.endpoint=" + sqs.url()));
+
+    var builder = new SpringApplicationBuilder(LoadTestApplication.class);
+    switch (sink) {
+      case "sqs":
+        break;
+      case "es":
+        builder.profiles("dev");
+        properties.add("es.audit=" + es.url());
+        break;
+      case "both":
+        builder.profiles("audit-fanout");
+        properties.add("es.audit=" + es.url());
+        break;
+      default:
+        throw new IllegalArgumentException("loadtest.sink must be sqs, es or both, not " + sink);
+    }
+    return builder.properties(properties.toArray(String[]::new)).run();
+  }
+
+  private List<String> sinks() {
+    switch (sink) {
+      case "es":
+        return List.of(ElasticSearchStandIn.SINK);
+      case "both":
+        return List.of(SqsStandIn.SINK, ElasticSearchStandIn.SINK);
+      default:
+        return List.of(SqsStandIn.SINK);
+    }
+  }
+
+  private StandIn authServer() throws Exception {
+    return new StandIn("auth", fault("auth"), Response.of(500, "text/plain", "Injected"))
+        .route("/exchange", (exchange, body) ->
+            Response.of(200, "text/plain", "exchanged-" + UUID.randomUUID()));
+  }
+
+  private StandIn fhirServer() throws Exception {
+    var failure = Response.of(500, Payloads.FHIR_JSON, "{\"resourceType\":\"OperationOutcome\","
+        + "\"issue\":[{\"severity\":\"error\",\"code\":\"transient\"}]}");
+    return new StandIn("fhir", fault("fhir"), failure)
+        .route("/fhir/Patient/", (exchange, body) -> {
+          var path = exchange.getRequestURI().getPath();
+          var id = path.substring(path.lastIndexOf('/') + 1);
+          return Response.of(200, Payloads.FHIR_JSON, Payloads.patient(id));
+        })
+        .route("/fhir/HealthcareService", (exchange, body) ->
+            Response.of(200, Payloads.FHIR_JSON, Payloads.healthcareServices()));
+  }
+
+  private Fault fault(String service) {
+    var latency = Long.getLong("loadtest." + service + ".latency-millis",
+        DEFAULT_LATENCY_MILLIS.get(service));
+    var failureRate = Double.parseDouble(
+        System.getProperty("loadtest." + service + ".failure-rate", "0"));
+    return new Fault(latency, jitter, failureRate);
+  }
+
+  private boolean noFailuresInjected() {
+    return DEFAULT_LATENCY_MILLIS.keySet().stream()
+        .allMatch(service -> fault(service).getFailureRate() == 0);
+  }
+
+  private List<String> tokens(JWTHandler jwtHandler) {
+    var tokens = new ArrayList<String>();
+    for (int supplier = 1; supplier <= suppliers; supplier++) {
+      tokens.add(jwtHandler.generate(JWTRequest.builder()
+          .username("load-test")
+          .supplierId("supplier-" + supplier)
+          .secondsUntilExpiry(3600L)
+          .build()));
+    }
+    return tokens;
+  }
+
+  /**
+   * Sends the numbered requests from a fixed number of workers, each waiting for its response
+   * before sending the next
+   */
+  private void drive(String baseUrl, List<String> tokens, int from, int to)
+      throws InterruptedException {
+    ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+    var client = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(5))
+        .build();
+
+    var next = new AtomicInteger(from);
+    for (int worker = 0; worker < concurrency; worker++) {
+      workers.execute(() -> {
+        for (int number = next.getAndIncrement(); number < to; number = next.getAndIncrement()) {
+          send(client, baseUrl, tokens.get(number % tokens.size()), number);
+        }
+      });
+    }
+    workers.shutdown();
+    if (!workers.awaitTermination(1, TimeUnit.HOURS)) {
+      throw new IllegalStateException("Load test did not finish");
+    }
+  }
+
+  private void send(HttpClient client, String baseUrl, String token, int number) {
+    var request = HttpRequest.newBuilder(URI.create(baseUrl + DeliveryTracker.requestPath(number)))
+        .header("Authorization", "Bearer " + token)
+        .header("Content-Type", Payloads.FHIR_JSON)
+        .timeout(Duration.ofSeconds(30))
+        .POST(BodyPublishers.ofString(Payloads.evaluateParameters("patient-" + number)))
+        .build();
+
+    var start = System.nanoTime();
+    try {
+      var response = client.send(request, BodyHandlers.ofByteArray());
+      var end = System.nanoTime();
+      // Failed requests are audited too, so every response should have an audit
+      tracker.completed(number, end);
+      requestLatency.record(end - start);
+      responses.increment();
+      if (response.statusCode() >= 400) {
+        errorResponses.increment();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      transportErrors.increment();
+      log.warn("Request {} failed: {}", number, e.toString());
+    }
+  }
+
+  /**
+   * Waits for audits still in flight to arrive
+   *
+   * @return the number of audits lost by each sink
+   */
+  private Map<String, Long> drain() throws InterruptedException {
+    var expected = responses.sum();
+    var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainSeconds);
+    while (System.nanoTime() - deadline < 0 && sinks().stream()
+        .anyMatch(name -> tracker.delivered(name, warmupRequests) < expected)) {
+      Thread.sleep(100);
+    }
+
+    var lost = new HashMap<String, Long>();
+    for (var name : sinks()) {
+      lost.put(name, Math.max(0, expected - tracker.delivered(name, warmupRequests)));
+    }
+    return lost;
+  }
+
+  private void report(double elapsedSeconds, Map<String, Long> lost,
+      ConfigurableApplicationContext app, List<StandIn> standIns) {
+    log.info("Sink {}, {} requests from {} workers in {}s ({} requests/s)", sink, responses.sum(),
+        concurrency, String.format("%.1f", elapsedSeconds),
+        String.format("%.0f", responses.sum() / elapsedSeconds));
+    log.info("Request latency: {}", requestLatency.summary());
+    log.info("Error responses: {}, transport errors: {}", errorResponses.sum(),
+        transportErrors.sum());
+
+    for (var name : sinks()) {
+      log.info("Audits to {}: {} delivered, {} lost, {} duplicates; delivery latency: {}",
+          name, tracker.delivered(name, warmupRequests), lost.get(name), tracker.duplicates(name),
+          tracker.deliveryLatency(name, warmupRequests).summary());
+    }
+    for (var standIn : standIns) {
+      if (standIn.getRequests() > 0) {
+        log.info("Stand-in {}: {} requests, {} failures injected", standIn.getName(),
+            standIn.getRequests(), standIn.getFailures());
+      }
+    }
+    app.getBeanProvider(CompositeAuditSender.class).ifAvailable(composite ->
+        log.info("Fan-out sinks: {}", composite.getStats()));
+  }
+}
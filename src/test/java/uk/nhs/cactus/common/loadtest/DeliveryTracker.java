@@ -0,0 +1,71 @@
+package uk.nhs.cactus.common.loadtest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Matches audits arriving at the sink stand-ins with the requests that produced them, by the
+ * request number in the audited URL, to measure delivery latency, loss and duplicates.
+ */
+public class DeliveryTracker {
+
+  private static final Pattern REQUEST_NUMBER = Pattern.compile("load-(\\d+)");
+
+  private final Map<Integer, Long> completedNanos = new ConcurrentHashMap<>();
+  private final Map<String, Map<Integer, Long>> arrivedNanos = new ConcurrentHashMap<>();
+  private final Map<String, LongAdder> duplicates = new ConcurrentHashMap<>();
+
+  public static String requestPath(int requestNumber) {
+    return "/fhir/ServiceDefinition/load-" + requestNumber + "/$evaluate";
+  }
+
+  public void completed(int requestNumber, long nanos) {
+    completedNanos.put(requestNumber, nanos);
+  }
+
+  /**
+   * Records an audit arriving at a sink
+   *
+   * @param auditedUrl the request URL recorded in the audit
+   */
+  public void arrived(String sink, String auditedUrl) {
+    var now = System.nanoTime();
+    var matcher = REQUEST_NUMBER.matcher(auditedUrl == null ? "" : auditedUrl);
+    if (!matcher.find()) {
+      return;
+    }
+
+    var arrivals = arrivedNanos.computeIfAbsent(sink, key -> new ConcurrentHashMap<>());
+    if (arrivals.putIfAbsent(Integer.parseInt(matcher.group(1)), now) != null) {
+      duplicates.computeIfAbsent(sink, key -> new LongAdder()).increment();
+    }
+  }
+
+  public int delivered(String sink, int fromRequest) {
+    return (int) arrivedNanos.getOrDefault(sink, Map.of()).keySet().stream()
+        .filter(number -> number >= fromRequest)
+        .count();
+  }
+
+  public long duplicates(String sink) {
+    var count = duplicates.get(sink);
+    return count == null ? 0 : count.sum();
+  }
+
+  /**
+   * Time from the client receiving each response to its audit arriving at the sink. An audit
+   * can arrive before the client has read the response, which counts as zero.
+   */
+  public LatencyRecorder deliveryLatency(String sink, int fromRequest) {
+    var latency = new LatencyRecorder();
+    arrivedNanos.getOrDefault(sink, Map.of()).forEach((number, arrived) -> {
+      var completed = completedNanos.get(number);
+      if (number >= fromRequest && completed != null) {
+        latency.record(Math.max(0, arrived - completed));
+      }
+    });
+    return latency;
+  }
+}
@@ -0,0 +1,171 @@
+package uk.nhs.cactus.common.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import uk.nhs.cactus.common.loadtest.StandIn.Fault;
+import uk.nhs.cactus.common.loadtest.StandIn.Response;
+
+/**
+ * Stands in for an ElasticSearch cluster, with the index management, document index, bulk and
+ * search APIs the audit senders use. Documents aren't kept, only their IDs, so searches find
+ * nothing.
+ */
+public class ElasticSearchStandIn implements AutoCloseable {
+
+  public static final String SINK = "elasticsearch";
+
+  private static final String SEARCH_RESPONSE = "{\"took\":1,\"timed_out\":false,"
+      + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+      + "\"hits\":{\"total\":{\"value\":0,\"relation\":\"eq\"},\"max_score\":null,\"hits\":[]}}";
+
+  private final StandIn standIn;
+  private final DeliveryTracker tracker;
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final Set<String> indices = ConcurrentHashMap.newKeySet();
+  private final Set<String> documentIds = ConcurrentHashMap.newKeySet();
+  private final AtomicLong sequence = new AtomicLong();
+
+  public ElasticSearchStandIn(Fault fault, DeliveryTracker tracker) throws IOException {
+    this.tracker = tracker;
+    this.standIn = new StandIn(SINK, fault, error(503, "unavailable_shards_exception",
+        "Injected by the ElasticSearch stand-in"))
+        .route("/", this::handle);
+  }
+
+  public String url() {
+    return standIn.url();
+  }
+
+  public StandIn getStandIn() {
+    return standIn;
+  }
+
+  private Response handle(HttpExchange exchange, byte[] body) throws IOException {
+    var method = exchange.getRequestMethod();
+    var path = exchange.getRequestURI().getPath().split("/");
+    // Leading slash leaves an empty first segment
+    var first = path.length > 1 ? path[1] : "";
+    var second = path.length > 2 ? path[2] : "";
+
+    if (first.isEmpty()) {
+      return Response.json(200, "{\"tagline\":\"You Know, for Search\"}");
+    }
+    if (first.equals("_template")) {
+      return Response.json(200, "{\"acknowledged\":true}");
+    }
+    if (first.equals("_alias")) {
+      return Response.json(indices.contains(second) ? 200 : 404, "{}");
+    }
+    if (first.equals("_bulk") || second.equals("_bulk")) {
+      return bulk(second.equals("_bulk") ? first : null, body);
+    }
+    if (second.equals("_search")) {
+      return Response.json(200, SEARCH_RESPONSE);
+    }
+    if (second.equals("_doc") || second.equals("_create")) {
+      var id = path.length > 3 ? path[3] : UUID.randomUUID().toString();
+      var create = second.equals("_create")
+          || "op_type=create".equals(exchange.getRequestURI().getQuery());
+      var result = index(first, id, create, body);
+      if (result.has("error")) {
+        // Single document errors have only the error and status, as from any other API
+        result.retain("error", "status");
+      }
+      return Response.json(result.path("status").asInt(), mapper.writeValueAsString(result));
+    }
+    if (second.isEmpty() && method.equals("HEAD")) {
+      return Response.json(indices.contains(first) ? 200 : 404, "{}");
+    }
+    if (second.isEmpty() && method.equals("PUT")) {
+      return createIndex(first, body);
+    }
+    return error(400, "illegal_argument_exception", "Not supported by the ElasticSearch stand-in");
+  }
+
+  private Response createIndex(String index, byte[] body) throws IOException {
+    indices.add(index);
+    if (body.length > 0) {
+      mapper.readTree(body).path("aliases").fieldNames().forEachRemaining(indices::add);
+    }
+    return Response.json(200, "{\"acknowledged\":true,\"shards_acknowledged\":true,"
+        + "\"index\":\"" + index + "\"}");
+  }
+
+  private Response bulk(String defaultIndex, byte[] body) throws IOException {
+    var items = mapper.createArrayNode();
+    var errors = false;
+    var lines = new String(body, StandardCharsets.UTF_8).split("\n");
+    for (int i = 0; i + 1 < lines.length; i += 2) {
+      var action = mapper.readTree(lines[i]);
+      var name = action.fieldNames().next();
+      var metadata = action.path(name);
+      var index = metadata.path("_index").asText(defaultIndex);
+      var id = metadata.hasNonNull("_id") ? metadata.get("_id").asText() : UUID.randomUUID().toString();
+
+      var result = index(index, id, name.equals("create"),
+          lines[i + 1].getBytes(StandardCharsets.UTF_8));
+      errors |= result.has("error");
+      items.addObject().set(name, result);
+    }
+
+    var response = mapper.createObjectNode()
+        .put("took", 1)
+        .put("errors", errors);
+    response.set("items", items);
+    return Response.json(200, mapper.writeValueAsString(response));
+  }
+
+  private ObjectNode index(String index, String id, boolean create, byte[] source)
+      throws IOException {
+    var result = mapper.createObjectNode()
+        .put("_index", index)
+        .put("_type", "_doc")
+        .put("_id", id);
+
+    if (!documentIds.add(index + "/" + id) && create) {
+      result.set("error", errorBody("version_conflict_engine_exception",
+          "[" + id + "]: version conflict, document already exists"));
+      return result.put("status", 409);
+    }
+
+    tracker.arrived(SINK, mapper.readTree(source).path("requestUrl").asText());
+    result.put("_version", 1)
+        .put("result", "created")
+        .put("_seq_no", sequence.getAndIncrement())
+        .put("_primary_term", 1)
+        .putObject("_shards")
+        .put("total", 1)
+        .put("successful", 1)
+        .put("failed", 0);
+    return result.put("status", 201);
+  }
+
+  private JsonNode errorBody(String type, String reason) {
+    var error = mapper.createObjectNode()
+        .put("type", type)
+        .put("reason", reason);
+    error.putArray("root_cause").addObject()
+        .put("type", type)
+        .put("reason", reason);
+    return error;
+  }
+
+  private static Response error(int status, String type, String reason) {
+    return Response.json(status, "{\"error\":{\"root_cause\":[{\"type\":\"" + type
+        + "\",\"reason\":\"" + reason + "\"}],\"type\":\"" + type
+        + "\",\"reason\":\"" + reason + "\"},\"status\":" + status + "}");
+  }
+
+  @Override
+  public void close() {
+    standIn.close();
+  }
+}
@@ -0,0 +1,46 @@
+package uk.nhs.cactus.common.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Records latencies in nanoseconds and reports exact percentiles
+ */
+public class LatencyRecorder {
+
+  private long[] values = new long[1024];
+  private int count;
+
+  public synchronized void record(long nanos) {
+    if (count == values.length) {
+      values = Arrays.copyOf(values, count * 2);
+    }
+    values[count++] = nanos;
+  }
+
+  public synchronized void clear() {
+    count = 0;
+  }
+
+  public synchronized int count() {
+    return count;
+  }
+
+  /**
+   * @return the latency at the percentile (0-100) in milliseconds, or 0 if nothing was recorded
+   */
+  public synchronized double percentileMillis(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    var sorted = Arrays.copyOf(values, count);
+    Arrays.sort(sorted);
+    var index = (int) Math.ceil(percentile / 100 * count) - 1;
+    return sorted[Math.max(0, Math.min(index, count - 1))] / 1e6;
+  }
+
+  public String summary() {
+    return String.format("p50 %.1fms, p90 %.1fms, p99 %.1fms, max %.1fms (n=%d)",
+        percentileMillis(50), percentileMillis(90), percentileMillis(99), percentileMillis(100),
+        count());
+  }
+}
@@ -0,0 +1,93 @@
+package uk.nhs.cactus.common.loadtest;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+import lombok.RequiredArgsConstructor;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.HealthcareService;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.elasticsearch.rest.RestClientAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.servlet.SecurityAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.servlet.UserDetailsServiceAutoConfiguration;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import uk.nhs.cactus.common.audit.AuditFhirClientInterceptor;
+import uk.nhs.cactus.common.audit.AuditServerFilter;
+import uk.nhs.cactus.common.security.AuthenticatedFhirClientFactory;
+import uk.nhs.cactus.common.security.JWTFilter;
+
+/**
+ * A minimal CDSS-like service using the common audit and security components: each evaluation is
+ * authenticated and audited, and reads a patient and searches for services on a downstream FHIR
+ * server with an exchanged token, which are audited as entries of the evaluation.
+ * Spring Security and the ElasticSearch client auto-configuration are left out, as services
+ * configure those for themselves.
+ */
+@SpringBootApplication(
+    scanBasePackages = "uk.nhs.cactus.common",
+    exclude = {
+        SecurityAutoConfiguration.class,
+        UserDetailsServiceAutoConfiguration.class,
+        RestClientAutoConfiguration.class})
+public class LoadTestApplication {
+
+  @Bean
+  public FhirContext fhirContext() {
+    var fhirContext = FhirContext.forDstu3();
+    // The stand-in doesn't serve a capability statement
+    fhirContext.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+    return fhirContext;
+  }
+
+  /**
+   * Authentication must come first, so the audit is sent with the supplier ID
+   */
+  @Bean
+  public FilterRegistrationBean<JWTFilter> jwtFilterRegistration(JWTFilter filter) {
+    var registration = new FilterRegistrationBean<>(filter);
+    registration.setOrder(1);
+    return registration;
+  }
+
+  @Bean
+  public FilterRegistrationBean<AuditServerFilter> auditFilterRegistration(
+      AuditServerFilter filter) {
+    var registration = new FilterRegistrationBean<>(filter);
+    registration.setOrder(2);
+    return registration;
+  }
+
+  @RestController
+  @RequiredArgsConstructor
+  public static class EvaluateController {
+
+    @Value("${loadtest.fhir-server}")
+    private String fhirServer;
+
+    private final AuthenticatedFhirClientFactory clientFactory;
+    private final AuditFhirClientInterceptor auditInterceptor;
+    private final FhirContext fhirContext;
+
+    @PostMapping(value = "/fhir/ServiceDefinition/{id}/$evaluate", produces = Payloads.FHIR_JSON)
+    public String evaluate(@PathVariable String id, @RequestBody String parameters) {
+      var client = clientFactory.getClient(fhirServer);
+      client.registerInterceptor(auditInterceptor);
+
+      client.read().resource(Patient.class).withId(id).execute();
+      client.search().forResource(HealthcareService.class)
+          .where(HealthcareService.ACTIVE.exactly().code("true"))
+          .returnBundle(Bundle.class)
+          .execute();
+
+      // Parsed as a service would, for its share of the CPU and allocation
+      fhirContext.newJsonParser().parseResource(parameters);
+      return Payloads.guidanceResponse();
+    }
+  }
+}
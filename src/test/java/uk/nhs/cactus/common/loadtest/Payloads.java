@@ -0,0 +1,158 @@
+package uk.nhs.cactus.common.loadtest;
+
+import ca.uhn.fhir.context.FhirContext;
+import java.util.Date;
+import org.hl7.fhir.dstu3.model.Address.AddressUse;
+import org.hl7.fhir.dstu3.model.BooleanType;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
+import org.hl7.fhir.dstu3.model.CodeableConcept;
+import org.hl7.fhir.dstu3.model.Coding;
+import org.hl7.fhir.dstu3.model.ContactPoint.ContactPointSystem;
+import org.hl7.fhir.dstu3.model.ContactPoint.ContactPointUse;
+import org.hl7.fhir.dstu3.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.dstu3.model.GuidanceResponse;
+import org.hl7.fhir.dstu3.model.GuidanceResponse.GuidanceResponseStatus;
+import org.hl7.fhir.dstu3.model.HealthcareService;
+import org.hl7.fhir.dstu3.model.HumanName.NameUse;
+import org.hl7.fhir.dstu3.model.Narrative.NarrativeStatus;
+import org.hl7.fhir.dstu3.model.Parameters;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.Reference;
+import org.hl7.fhir.dstu3.model.StringType;
+
+/**
+ * FHIR resources of the size and shape exchanged during a CDSS evaluation
+ */
+public class Payloads {
+
+  public static final String FHIR_JSON = "application/fhir+json;charset=UTF-8";
+
+  private static final FhirContext FHIR = FhirContext.forDstu3();
+  private static final int HEALTHCARE_SERVICES = 5;
+
+  private static final String PATIENT = FHIR.newJsonParser().encodeResourceToString(buildPatient());
+  private static final String HEALTHCARE_SERVICES_BUNDLE =
+      FHIR.newJsonParser().encodeResourceToString(buildHealthcareServices());
+  private static final String GUIDANCE_RESPONSE =
+      FHIR.newJsonParser().encodeResourceToString(buildGuidanceResponse());
+
+  public static String patient(String id) {
+    return PATIENT.replace("\"id\":\"1\"", "\"id\":\"" + id + "\"");
+  }
+
+  public static String healthcareServices() {
+    return HEALTHCARE_SERVICES_BUNDLE;
+  }
+
+  public static String guidanceResponse() {
+    return GUIDANCE_RESPONSE;
+  }
+
+  /**
+   * @return the body of an $evaluate request for the patient
+   */
+  public static String evaluateParameters(String patientId) {
+    var parameters = new Parameters();
+    parameters.addParameter().setName("requestId").setValue(new StringType(patientId + "-request"));
+    parameters.addParameter().setName("patient")
+        .setValue(new Reference("Patient/" + patientId));
+    parameters.addParameter().setName("inputData").setResource(new Parameters()
+        .addParameter(new Parameters.ParametersParameterComponent()
+            .setName("symptom")
+            .setValue(concept("http://snomed.info/sct", "21522001", "Abdominal pain"))));
+    for (int question = 1; question <= 8; question++) {
+      parameters.addParameter().setName("answer")
+          .setValue(new StringType("Question " + question + ": answered yes after a short pause"));
+    }
+    return FHIR.newJsonParser().encodeResourceToString(parameters);
+  }
+
+  private static Patient buildPatient() {
+    var patient = new Patient();
+    patient.setId("1");
+    patient.getText()
+        .setStatus(NarrativeStatus.GENERATED)
+        .setDivAsString("<div xmlns=\"http://www.w3.org/1999/xhtml\">"
+            + "<table><tbody>"
+            + "<tr><td>Name</td><td>Jane <b>SMITH</b></td></tr>"
+            + "<tr><td>NHS Number</td><td>943 476 5919</td></tr>"
+            + "<tr><td>Date of birth</td><td>14 March 1985</td></tr>"
+            + "<tr><td>Address</td><td>1 Trevelyan Square, Boar Lane, Leeds, LS1 6AE</td></tr>"
+            + "</tbody></table></div>");
+    patient.addIdentifier()
+        .setSystem("https://fhir.nhs.uk/Id/nhs-number")
+        .setValue("9434765919");
+    patient.addName()
+        .setUse(NameUse.OFFICIAL)
+        .setFamily("Smith")
+        .addGiven("Jane")
+        .addGiven("Anne")
+        .addPrefix("Mrs");
+    patient.addTelecom()
+        .setSystem(ContactPointSystem.PHONE)
+        .setUse(ContactPointUse.MOBILE)
+        .setValue("07700 900123");
+    patient.addTelecom()
+        .setSystem(ContactPointSystem.EMAIL)
+        .setUse(ContactPointUse.HOME)
+        .setValue("jane.smith@example.com");
+    patient.setGender(AdministrativeGender.FEMALE);
+    patient.setBirthDate(new Date(479606400000L));
+    patient.addAddress()
+        .setUse(AddressUse.HOME)
+        .addLine("1 Trevelyan Square")
+        .addLine("Boar Lane")
+        .setCity("Leeds")
+        .setPostalCode("LS1 6AE")
+        .setCountry("GB");
+    patient.getGeneralPractitionerFirstRep()
+        .setReference("Organization/B82005")
+        .setDisplay("Beech House Surgery");
+    patient.setActive(true);
+    return patient;
+  }
+
+  private static Bundle buildHealthcareServices() {
+    var bundle = new Bundle();
+    bundle.setType(BundleType.SEARCHSET);
+    bundle.setTotal(HEALTHCARE_SERVICES);
+    for (int i = 1; i <= HEALTHCARE_SERVICES; i++) {
+      var service = new HealthcareService();
+      service.setId("HealthcareService/service-" + i);
+      service.setActive(true);
+      service.setName("Urgent Treatment Centre " + i);
+      service.setComment("Walk-in service for minor injuries and illnesses, open every day");
+      service.getType().add(concept("https://fhir.nhs.uk/STU3/CodeSystem/DoS-ServiceType",
+          "UTC", "Urgent Treatment Centre"));
+      service.addTelecom()
+          .setSystem(ContactPointSystem.PHONE)
+          .setValue("0113 000 000" + i);
+      service.addAvailableTime()
+          .setAllDayElement(new BooleanType(false))
+          .setAvailableStartTime("08:00:00")
+          .setAvailableEndTime("22:00:00");
+      bundle.addEntry()
+          .setFullUrl("http://localhost/fhir/HealthcareService/service-" + i)
+          .setResource(service);
+    }
+    return bundle;
+  }
+
+  private static GuidanceResponse buildGuidanceResponse() {
+    var response = new GuidanceResponse();
+    response.setId("1");
+    response.setStatus(GuidanceResponseStatus.DATAREQUIRED);
+    response.setOccurrenceDateTime(new Date());
+    response.setModule(new Reference("ServiceDefinition/1"));
+    response.setReason(concept("http://snomed.info/sct", "21522001", "Abdominal pain"));
+    response.addDataRequirement()
+        .setType("Questionnaire")
+        .addProfile("https://www.hl7.org/fhir/questionnaire.html");
+    return response;
+  }
+
+  private static CodeableConcept concept(String system, String code, String display) {
+    return new CodeableConcept().addCoding(new Coding(system, code, display)).setText(display);
+  }
+}
@@ -0,0 +1,147 @@
+package uk.nhs.cactus.common.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import org.apache.http.client.utils.URLEncodedUtils;
+import uk.nhs.cactus.common.loadtest.StandIn.Fault;
+import uk.nhs.cactus.common.loadtest.StandIn.Response;
+
+/**
+ * Stands in for an SQS FIFO queue, speaking enough of the query protocol for the SDK to send
+ * messages: {@code SendMessage} replies carry the body and attribute checksums the SDK verifies.
+ */
+public class SqsStandIn implements AutoCloseable {
+
+  public static final String SINK = "sqs";
+
+  private static final String NAMESPACE = "http://queue.amazonaws.com/doc/2012-11-05/";
+  private static final Pattern ATTRIBUTE_NAME = Pattern.compile("MessageAttribute\\.(\\d+)\\.Name");
+  private static final byte STRING_TYPE = 1;
+
+  private final StandIn standIn;
+  private final DeliveryTracker tracker;
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final Set<String> deduplicationIds = ConcurrentHashMap.newKeySet();
+  private final LongAdder deduplicated = new LongAdder();
+  private final AtomicLong sequence = new AtomicLong();
+
+  public SqsStandIn(Fault fault, DeliveryTracker tracker) throws IOException {
+    this.tracker = tracker;
+    this.standIn = new StandIn(SINK, fault, error(500, "Receiver", "InternalError"))
+        .route("/", this::handle);
+  }
+
+  public String queueUrl() {
+    return standIn.url() + "/000000000000/audit.fifo";
+  }
+
+  public String url() {
+    return standIn.url();
+  }
+
+  public StandIn getStandIn() {
+    return standIn;
+  }
+
+  /**
+   * @return messages the queue dropped as repeats of a deduplication ID it had already accepted
+   */
+  public long getDeduplicated() {
+    return deduplicated.sum();
+  }
+
+  private Response handle(HttpExchange exchange, byte[] body) throws IOException {
+    var params = new HashMap<String, String>();
+    for (var pair : URLEncodedUtils.parse(new String(body, StandardCharsets.UTF_8),
+        StandardCharsets.UTF_8)) {
+      params.put(pair.getName(), pair.getValue());
+    }
+
+    if (!"SendMessage".equals(params.get("Action"))) {
+      return error(400, "Sender", "InvalidAction");
+    }
+
+    var messageBody = params.getOrDefault("MessageBody", "");
+    var deduplicationId = params.get("MessageDeduplicationId");
+    // A FIFO queue accepts a repeat of a deduplication ID, but doesn't deliver it again
+    if (deduplicationId == null || deduplicationIds.add(deduplicationId)) {
+      tracker.arrived(SINK, mapper.readTree(messageBody).path("requestUrl").asText());
+    } else {
+      deduplicated.increment();
+    }
+
+    return Response.of(200, "text/xml", "<SendMessageResponse xmlns=\"" + NAMESPACE + "\">"
+        + "<SendMessageResult>"
+        + "<MD5OfMessageBody>" + md5(messageBody) + "</MD5OfMessageBody>"
+        + "<MD5OfMessageAttributes>" + attributesMd5(params) + "</MD5OfMessageAttributes>"
+        + "<MessageId>" + UUID.randomUUID() + "</MessageId>"
+        + "<SequenceNumber>" + String.format("%020d", sequence.incrementAndGet()) + "</SequenceNumber>"
+        + "</SendMessageResult>"
+        + "<ResponseMetadata><RequestId>" + UUID.randomUUID() + "</RequestId></ResponseMetadata>"
+        + "</SendMessageResponse>");
+  }
+
+  private static String md5(String value) {
+    return Hashing.md5().hashString(value, StandardCharsets.UTF_8).toString();
+  }
+
+  /**
+   * The checksum the SDK computes over string message attributes: for each attribute in name
+   * order, the length-prefixed name and data type, a type marker, then the length-prefixed value
+   */
+  private static String attributesMd5(Map<String, String> params) {
+    var attributes = new TreeMap<String, String[]>();
+    params.keySet().forEach(key -> {
+      var matcher = ATTRIBUTE_NAME.matcher(key);
+      if (matcher.matches()) {
+        var prefix = "MessageAttribute." + matcher.group(1) + ".Value.";
+        attributes.put(params.get(key), new String[]{
+            params.get(prefix + "DataType"), params.get(prefix + "StringValue")});
+      }
+    });
+
+    var hasher = Hashing.md5().newHasher();
+    attributes.forEach((name, typeAndValue) -> {
+      putLengthPrefixed(hasher, name);
+      putLengthPrefixed(hasher, typeAndValue[0]);
+      hasher.putByte(STRING_TYPE);
+      putLengthPrefixed(hasher, typeAndValue[1]);
+    });
+    return hasher.hash().toString();
+  }
+
+  private static void putLengthPrefixed(Hasher hasher, String value) {
+    var bytes = value.getBytes(StandardCharsets.UTF_8);
+    // Big-endian, as the SDK writes it with a ByteBuffer
+    hasher.putBytes(new byte[]{
+        (byte) (bytes.length >>> 24), (byte) (bytes.length >>> 16),
+        (byte) (bytes.length >>> 8), (byte) bytes.length});
+    hasher.putBytes(bytes);
+  }
+
+  private static Response error(int status, String type, String code) {
+    return Response.of(status, "text/xml", "<ErrorResponse xmlns=\"" + NAMESPACE + "\">"
+        + "<Error><Type>" + type + "</Type><Code>" + code + "</Code>"
+        + "<Message>Injected by the SQS stand-in</Message></Error>"
+        + "<RequestId>" + UUID.randomUUID() + "</RequestId>"
+        + "</ErrorResponse>");
+  }
+
+  @Override
+  public void close() {
+    standIn.close();
+  }
+}
@@ -0,0 +1,166 @@
+package uk.nhs.cactus.common.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A local HTTP server standing in for a remote service, with injected latency and failures.
+ * Requests are routed by longest matching path prefix.
+ */
+@Slf4j
+public class StandIn implements AutoCloseable {
+
+  @FunctionalInterface
+  public interface Route {
+    Response handle(HttpExchange exchange, byte[] body) throws IOException;
+  }
+
+  @Value
+  public static class Response {
+    int status;
+    String contentType;
+    byte[] body;
+
+    public static Response json(int status, String json) {
+      return new Response(status, "application/json", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Response of(int status, String contentType, String body) {
+      return new Response(status, contentType, body.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Latency of each response, varied uniformly by up to the jitter fraction either way, and the
+   * fraction of requests failed with a server error
+   */
+  @Value
+  public static class Fault {
+    long latencyMillis;
+    double jitter;
+    double failureRate;
+
+    boolean delayAndFail() {
+      var random = ThreadLocalRandom.current();
+      var spread = (long) (latencyMillis * jitter);
+      var delay = latencyMillis + (spread > 0 ? random.nextLong(-spread, spread + 1) : 0);
+      if (delay > 0) {
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return random.nextDouble() < failureRate;
+    }
+  }
+
+  private final String name;
+  private final Fault fault;
+  private final Response failure;
+  private final HttpServer server;
+  private final ExecutorService executor;
+  // Reverse order, so that the longest of several matching prefixes is found first
+  private final Map<String, Route> routes =
+      new ConcurrentSkipListMap<String, Route>((a, b) -> b.compareTo(a));
+
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+
+  public StandIn(String name, Fault fault, Response failure) throws IOException {
+    this.name = name;
+    this.fault = fault;
+    this.failure = failure;
+    var threads = new AtomicInteger();
+    this.executor = Executors.newCachedThreadPool(runnable -> {
+      var thread = new Thread(runnable, name + "-stand-in-" + threads.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 256);
+    server.setExecutor(executor);
+    server.createContext("/", this::dispatch);
+    server.start();
+  }
+
+  public StandIn route(String pathPrefix, Route route) {
+    routes.put(pathPrefix, route);
+    return this;
+  }
+
+  public String url() {
+    return "http://localhost:" + server.getAddress().getPort();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  public long getFailures() {
+    return failures.sum();
+  }
+
+  private void dispatch(HttpExchange exchange) throws IOException {
+    try {
+      requests.increment();
+      var body = exchange.getRequestBody().readAllBytes();
+
+      Response response;
+      if (fault.delayAndFail()) {
+        failures.increment();
+        response = failure;
+      } else {
+        response = handle(exchange, body);
+      }
+      send(exchange, response);
+    } catch (RuntimeException e) {
+      log.error("{} stand-in failed handling {}", name, exchange.getRequestURI(), e);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private Response handle(HttpExchange exchange, byte[] body) throws IOException {
+    var path = exchange.getRequestURI().getPath();
+    for (var route : routes.entrySet()) {
+      if (path.startsWith(route.getKey())) {
+        return route.getValue().handle(exchange, body);
+      }
+    }
+    log.warn("{} stand-in has no route for {} {}", name, exchange.getRequestMethod(), path);
+    return Response.json(404, "{}");
+  }
+
+  private static void send(HttpExchange exchange, Response response) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", response.getContentType());
+    var headOnly = "HEAD".equals(exchange.getRequestMethod());
+    var length = response.getBody().length;
+    exchange.sendResponseHeaders(response.getStatus(), headOnly || length == 0 ? -1 : length);
+    if (!headOnly && length > 0) {
+      exchange.getResponseBody().write(response.getBody());
+    }
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}
@@ -1,15 +1,21 @@
 package uk.nhs.cactus.common.security;
 
 import static org.hamcrest.Matchers.hasProperty;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.hamcrest.MockitoHamcrest.argThat;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -42,4 +48,26 @@ public class AuthenticatedFhirClientFactoryTest {
     verify(mockClient)
         .registerInterceptor(argThat(hasProperty("token", is("correctToken"))));
   }
-}
\ No newline at end of file
+
+  @Test
+  public void getClients() {
+    var authenticatedClient = mock(IGenericClient.class);
+    var anonymousClient = mock(IGenericClient.class);
+    when(fhirContext.newRestfulGenericClient("authenticated")).thenReturn(authenticatedClient);
+    when(fhirContext.newRestfulGenericClient("anonymous")).thenReturn(anonymousClient);
+    Map<String, Optional<String>> tokens = new LinkedHashMap<>();
+    tokens.put("authenticated", Optional.of("correctToken"));
+    tokens.put("anonymous", Optional.empty());
+    when(tokenExchange.getExchangedTokens(List.of("authenticated", "anonymous")))
+        .thenReturn(tokens);
+
+    var clients = clientFactory.getClients(List.of("authenticated", "anonymous"));
+
+    assertThat(clients.keySet(), contains("authenticated", "anonymous"));
+    assertThat(clients.get("authenticated"), is(authenticatedClient));
+    assertThat(clients.get("anonymous"), is(anonymousClient));
+    verify(authenticatedClient)
+        .registerInterceptor(argThat(hasProperty("token", is("correctToken"))));
+    verify(anonymousClient, never()).registerInterceptor(any());
+  }
+}
@@ -1,6 +1,7 @@
 package uk.nhs.cactus.common.security;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import ca.uhn.fhir.rest.server.exceptions.AuthenticationException;
@@ -17,6 +18,7 @@ import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.HttpHeaders;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.mock.web.MockServletContext;
@@ -34,6 +36,9 @@ public class TokenAuthenticationServiceTest {
   @Mock
   Clock clock;
 
+  @Mock
+  ApplicationEventPublisher eventPublisher;
+
   @InjectMocks
   TokenAuthenticationService authService;
 
@@ -118,6 +123,7 @@ public class TokenAuthenticationServiceTest {
 
     String header = response.getHeader(HttpHeaders.AUTHORIZATION);
     assertThat(header).isEqualTo("Bearer token");
+    verify(eventPublisher).publishEvent(new TokenIssuedEvent("token", "supplier"));
   }
 
   @Test
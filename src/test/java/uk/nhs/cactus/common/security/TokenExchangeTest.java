@@ -1,17 +1,31 @@
 package uk.nhs.cactus.common.security;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.samePropertyValuesAs;
 import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.mockito.hamcrest.MockitoHamcrest.argThat;
+import static org.springframework.test.util.ReflectionTestUtils.getField;
 import static org.springframework.test.util.ReflectionTestUtils.setField;
 
 import java.net.URI;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -19,18 +33,27 @@ import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.RequestEntity;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
+import uk.nhs.cactus.common.timing.RequestTimer;
 
-@SuppressWarnings({"OptionalGetWithoutIsPresent", "ConstantConditions"})
+@SuppressWarnings({"OptionalGetWithoutIsPresent", "ConstantConditions", "unchecked"})
 @RunWith(MockitoJUnitRunner.class)
 public class TokenExchangeTest {
 
   private static final String CACTUS_SERVICES = "cactusServices";
   private static final String AUTH_SERVER = "authServer";
+  private static final String MULTI_EXCHANGE = "multiExchange";
+  private static final String CACHE_TTL_SECONDS = "cacheTtlSeconds";
+  private static final String CACHE_MAX_ENTRIES = "cacheMaxEntries";
+  private static final String CONCURRENCY = "concurrency";
+  private static final String PREFETCH_SERVERS = "prefetchServers";
+  private static final String PREFETCH_MAX_PENDING = "prefetchMaxPending";
 
   private static final List<String> VALID_CACTUS_SERVICES = List.of("cactus-ems", "cactus-cdss");
   private static final String VALID_AUTH_SERVER = "http://cactus.auth/server";
@@ -42,12 +65,37 @@ public class TokenExchangeTest {
   @Mock
   private RestTemplate restTemplate;
 
+  @Mock
+  private RequestTimer requestTimer;
+
   @InjectMocks
   private TokenExchange tokenExchange;
 
   @Rule
   public ExpectedException expectedException = ExpectedException.none();
 
+  @Before
+  public void setup() {
+    setField(tokenExchange, PREFETCH_MAX_PENDING, 10);
+  }
+
+  @After
+  public void tearDown() {
+    tokenExchange.shutdown();
+  }
+
+  private void enableCache() {
+    setField(tokenExchange, CACHE_TTL_SECONDS, 60L);
+    setField(tokenExchange, CACHE_MAX_ENTRIES, 100L);
+  }
+
+  private RequestEntity<Void> exchangeRequest(String baseUrl) {
+    return RequestEntity
+        .get(URI.create("http://cactus.auth/server/exchange?baseUrl=" + baseUrl))
+        .header("Authorization", "Bearer <validToken>")
+        .build();
+  }
+
   @Test
   public void getExchangedToken_withNullRequestUrl_shouldFail() {
     setField(tokenExchange, CACTUS_SERVICES, VALID_CACTUS_SERVICES);
@@ -147,4 +195,143 @@ public class TokenExchangeTest {
 
     assertThat(exchangedToken.get(), is("<exchangedToken>"));
   }
-}
\ No newline at end of file
+
+  @Test
+  public void getExchangedToken_withCache_shouldExchangeOnce() {
+    setField(tokenExchange, CACTUS_SERVICES, VALID_CACTUS_SERVICES);
+    setField(tokenExchange, AUTH_SERVER, VALID_AUTH_SERVER);
+    setField(tokenExchange, CONCURRENCY, 1);
+    enableCache();
+    tokenExchange.init();
+    when(tokenAuthenticationService.requireToken()).thenReturn(VALID_TOKEN);
+    when(restTemplate.exchange(
+        argThat(samePropertyValuesAs(exchangeRequest("non-cactus-ems"))), eq(String.class)))
+        .thenReturn(ResponseEntity.ok("<exchangedToken>"));
+
+    tokenExchange.getExchangedToken("non-cactus-ems");
+    var exchangedToken = tokenExchange.getExchangedToken("non-cactus-ems");
+
+    assertThat(exchangedToken.get(), is("<exchangedToken>"));
+    verify(restTemplate, times(1)).exchange(any(RequestEntity.class), eq(String.class));
+  }
+
+  @Test
+  public void getExchangedTokens_shouldExchangeEachServer() {
+    setField(tokenExchange, CACTUS_SERVICES, VALID_CACTUS_SERVICES);
+    setField(tokenExchange, AUTH_SERVER, VALID_AUTH_SERVER);
+    setField(tokenExchange, CONCURRENCY, 2);
+    tokenExchange.init();
+    when(tokenAuthenticationService.requireToken()).thenReturn(VALID_TOKEN);
+    when(restTemplate.exchange(
+        argThat(samePropertyValuesAs(exchangeRequest("non-cactus-a"))), eq(String.class)))
+        .thenReturn(ResponseEntity.ok("<tokenA>"));
+    when(restTemplate.exchange(
+        argThat(samePropertyValuesAs(exchangeRequest("non-cactus-b"))), eq(String.class)))
+        .thenThrow(HttpClientErrorException.create(HttpStatus.NOT_FOUND, null, null, null, null));
+
+    var tokens = tokenExchange.getExchangedTokens(
+        List.of("cactus-ems", "non-cactus-a", "non-cactus-b"));
+
+    assertThat(tokens, is(Map.of(
+        "cactus-ems", Optional.of(VALID_TOKEN),
+        "non-cactus-a", Optional.of("<tokenA>"),
+        "non-cactus-b", Optional.empty())));
+  }
+
+  @Test
+  public void getExchangedTokens_withPoolBusy_shouldExchangeOnCallingThread() {
+    setField(tokenExchange, CACTUS_SERVICES, VALID_CACTUS_SERVICES);
+    setField(tokenExchange, AUTH_SERVER, VALID_AUTH_SERVER);
+    setField(tokenExchange, CONCURRENCY, 1);
+    tokenExchange.init();
+    when(tokenAuthenticationService.requireToken()).thenReturn(VALID_TOKEN);
+    var threads = new ConcurrentHashMap<String, Thread>();
+    var firstExchanged = new CountDownLatch(1);
+    when(restTemplate.exchange(any(RequestEntity.class), eq(String.class)))
+        .thenAnswer(invocation -> {
+          RequestEntity<?> request = invocation.getArgument(0);
+          var baseUrl = request.getUrl().getQuery().substring("baseUrl=".length());
+          threads.put(baseUrl, Thread.currentThread());
+          if (baseUrl.equals("non-cactus-b")) {
+            // Keeps the only pool thread busy until the calling thread has made its exchanges
+            firstExchanged.await(5, TimeUnit.SECONDS);
+          } else if (baseUrl.equals("non-cactus-a")) {
+            firstExchanged.countDown();
+          }
+          return ResponseEntity.ok("<token>");
+        });
+
+    var tokens = tokenExchange.getExchangedTokens(
+        List.of("non-cactus-a", "non-cactus-b", "non-cactus-c"));
+
+    assertThat(tokens.size(), is(3));
+    assertThat(threads.get("non-cactus-a"), is(Thread.currentThread()));
+    assertThat(threads.get("non-cactus-b"), is(not(Thread.currentThread())));
+    assertThat(threads.get("non-cactus-c"), is(Thread.currentThread()));
+  }
+
+  @Test
+  public void getExchangedTokens_withMultiExchange_shouldSendOneRequest() {
+    setField(tokenExchange, CACTUS_SERVICES, VALID_CACTUS_SERVICES);
+    setField(tokenExchange, AUTH_SERVER, VALID_AUTH_SERVER);
+    setField(tokenExchange, MULTI_EXCHANGE, true);
+    when(tokenAuthenticationService.requireToken()).thenReturn(VALID_TOKEN);
+
+    var expectedRequest = RequestEntity
+        .get(URI.create(
+            "http://cactus.auth/server/exchange?baseUrl=non-cactus-a&baseUrl=non-cactus-b"))
+        .header("Authorization", "Bearer <validToken>")
+        .accept(MediaType.APPLICATION_JSON)
+        .build();
+    when(restTemplate.exchange(
+        argThat(samePropertyValuesAs(expectedRequest)), any(ParameterizedTypeReference.class)))
+        .thenReturn(ResponseEntity.ok(Map.of("non-cactus-a", "<tokenA>")));
+
+    var tokens = tokenExchange.getExchangedTokens(
+        List.of("cactus-ems", "non-cactus-a", "non-cactus-b"));
+
+    assertThat(tokens, is(Map.of(
+        "cactus-ems", Optional.of(VALID_TOKEN),
+        "non-cactus-a", Optional.of("<tokenA>"),
+        "non-cactus-b", Optional.empty())));
+    verify(restTemplate, never()).exchange(any(RequestEntity.class), eq(String.class));
+  }
+
+  @Test
+  public void onTokenIssued_shouldPrefetchServers() throws Exception {
+    setField(tokenExchange, CACTUS_SERVICES, VALID_CACTUS_SERVICES);
+    setField(tokenExchange, AUTH_SERVER, VALID_AUTH_SERVER);
+    setField(tokenExchange, CONCURRENCY, 1);
+    setField(tokenExchange, PREFETCH_SERVERS, List.of("cactus-ems", "non-cactus-ems"));
+    enableCache();
+    tokenExchange.init();
+    when(restTemplate.exchange(
+        argThat(samePropertyValuesAs(exchangeRequest("non-cactus-ems"))), eq(String.class)))
+        .thenReturn(ResponseEntity.ok("<exchangedToken>"));
+
+    tokenExchange.onTokenIssued(new TokenIssuedEvent(VALID_TOKEN, "supplier"));
+
+    var executor = (ExecutorService) getField(tokenExchange, "prefetchExecutor");
+    executor.shutdown();
+    assertThat(executor.awaitTermination(5, TimeUnit.SECONDS), is(true));
+
+    when(tokenAuthenticationService.requireToken()).thenReturn(VALID_TOKEN);
+    var exchangedToken = tokenExchange.getExchangedToken("non-cactus-ems");
+
+    assertThat(exchangedToken.get(), is("<exchangedToken>"));
+    verify(restTemplate, times(1)).exchange(any(RequestEntity.class), eq(String.class));
+  }
+
+  @Test
+  public void onTokenIssued_withoutCache_shouldNotPrefetch() {
+    setField(tokenExchange, CACTUS_SERVICES, VALID_CACTUS_SERVICES);
+    setField(tokenExchange, AUTH_SERVER, VALID_AUTH_SERVER);
+    setField(tokenExchange, CONCURRENCY, 1);
+    setField(tokenExchange, PREFETCH_SERVERS, List.of("non-cactus-ems"));
+    tokenExchange.init();
+
+    tokenExchange.onTokenIssued(new TokenIssuedEvent(VALID_TOKEN, "supplier"));
+
+    verifyZeroInteractions(restTemplate);
+  }
+}
@@ -0,0 +1,93 @@
+package uk.nhs.cactus.common.testhelper;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Checks allocation measurements against the budgets checked in to
+ * {@code src/test/resources/allocation-budgets.properties}, allowing
+ * {@code allocation.budget.tolerance} (10% by default) for JVM noise.
+ * After an intended change, or on a new JDK, run the tests with
+ * {@code -Dallocation.budget.record=true} to rewrite the budgets from the current measurements.
+ */
+public final class AllocationBudgets {
+
+  public static final String RECORD_PROPERTY = "allocation.budget.record";
+  public static final String TOLERANCE_PROPERTY = "allocation.budget.tolerance";
+
+  private static final double DEFAULT_TOLERANCE = 0.1;
+  // Small budgets vary by more than a percentage, e.g. as thread-local allocation buffers refill
+  private static final long MIN_SLACK_BYTES = 1024;
+
+  private static final String RESOURCE = "allocation-budgets.properties";
+  private static final Path SOURCE = Paths.get("src", "test", "resources", RESOURCE);
+  private static final List<String> HEADER = List.of(
+      "# Bytes allocated per run of the request hot path, see RequestPathAllocationTest.",
+      "# Rewrite with -D" + RECORD_PROPERTY + "=true after an intended change or on a new JDK.");
+
+  private AllocationBudgets() {
+  }
+
+  /**
+   * Fails if the allocation is over the named budget plus tolerance, or records it as the budget
+   * in record mode. Also fails if there is no budget, so that a new measurement isn't silently
+   * left unchecked.
+   */
+  public static synchronized void assertWithinBudget(String name, long allocatedBytes)
+      throws IOException {
+    if (Boolean.getBoolean(RECORD_PROPERTY)) {
+      record(name, allocatedBytes);
+      return;
+    }
+
+    var budget = load().getProperty(name);
+    assertThat("No allocation budget for " + name + ", record one with -D"
+        + RECORD_PROPERTY + "=true", budget, notNullValue());
+
+    var budgetBytes = Long.parseLong(budget.trim());
+    var tolerance = Double.parseDouble(
+        System.getProperty(TOLERANCE_PROPERTY, String.valueOf(DEFAULT_TOLERANCE)));
+    var limit = budgetBytes + Math.max(MIN_SLACK_BYTES, (long) (budgetBytes * tolerance));
+    assertThat(String.format("Bytes allocated by %s, against a budget of %d."
+            + " If the increase is intended, re-record with -D%s=true",
+        name, budgetBytes, RECORD_PROPERTY), allocatedBytes, lessThanOrEqualTo(limit));
+  }
+
+  private static Properties load() throws IOException {
+    var budgets = new Properties();
+    try (InputStream in = AllocationBudgets.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+      if (in != null) {
+        budgets.load(in);
+      }
+    }
+    return budgets;
+  }
+
+  private static void record(String name, long allocatedBytes) throws IOException {
+    // From the source tree rather than the classpath, so budgets recorded in one run accumulate
+    var budgets = new Properties();
+    if (Files.exists(SOURCE)) {
+      try (var in = Files.newBufferedReader(SOURCE)) {
+        budgets.load(in);
+      }
+    }
+    budgets.setProperty(name, String.valueOf(allocatedBytes));
+
+    var lines = new ArrayList<>(HEADER);
+    for (var key : new TreeSet<>(budgets.stringPropertyNames())) {
+      lines.add(key + "=" + budgets.getProperty(key));
+    }
+    Files.write(SOURCE, lines);
+  }
+}
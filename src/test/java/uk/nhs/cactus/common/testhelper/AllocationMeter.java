@@ -0,0 +1,45 @@
+package uk.nhs.cactus.common.testhelper;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the bytes allocated on the current thread while running a task, using the HotSpot
+ * per-thread allocation counter.
+ */
+public final class AllocationMeter {
+
+  private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private AllocationMeter() {
+  }
+
+  public static boolean isSupported() {
+    return THREAD_BEAN.isThreadAllocatedMemorySupported()
+        && THREAD_BEAN.isThreadAllocatedMemoryEnabled();
+  }
+
+  /**
+   * Runs the task a number of times after warming it up, and returns the smallest allocation
+   * seen, which filters out one-off costs such as class loading.
+   */
+  public static long minAllocatedBytes(int iterations, ThrowingRunnable task) throws Exception {
+    for (int i = 0; i < iterations; i++) {
+      task.run();
+    }
+
+    var min = Long.MAX_VALUE;
+    var threadId = Thread.currentThread().getId();
+    for (int i = 0; i < iterations; i++) {
+      var before = THREAD_BEAN.getThreadAllocatedBytes(threadId);
+      task.run();
+      min = Math.min(min, THREAD_BEAN.getThreadAllocatedBytes(threadId) - before);
+    }
+    return min;
+  }
+
+  @FunctionalInterface
+  public interface ThrowingRunnable {
+    void run() throws Exception;
+  }
+}
@@ -0,0 +1,58 @@
+package uk.nhs.cactus.common.timing;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import uk.nhs.cactus.common.timing.RequestTimer.Phase;
+
+public class RequestTimerTest {
+
+  private final RequestTimer requestTimer = new RequestTimer();
+
+  @After
+  public void tearDown() {
+    requestTimer.stop();
+  }
+
+  @Test
+  public void breakdown_addsUpPhases() throws Exception {
+    requestTimer.start();
+    requestTimer.add(Phase.FHIR, TimeUnit.MILLISECONDS.toNanos(3));
+    requestTimer.add(Phase.FHIR, TimeUnit.MILLISECONDS.toNanos(2));
+    requestTimer.add(Phase.TOKEN_EXCHANGE, TimeUnit.MILLISECONDS.toNanos(1));
+    requestTimer.add(Phase.AUDIT, TimeUnit.MICROSECONDS.toNanos(500));
+    Thread.sleep(10);
+
+    var breakdown = requestTimer.breakdown().orElseThrow();
+
+    assertThat(breakdown.getFhirMillis(), is(5.0));
+    assertThat(breakdown.getFhirCalls(), is(2));
+    assertThat(breakdown.getTokenExchangeMillis(), is(1.0));
+    assertThat(breakdown.getTokenExchanges(), is(1));
+    assertThat(breakdown.getAuditMillis(), is(0.5));
+    assertThat(breakdown.getTotalMillis(), greaterThanOrEqualTo(10.0));
+    assertThat(breakdown.getApplicationMillis(),
+        closeTo(breakdown.getTotalMillis() - 6.5, 0.000001));
+  }
+
+  @Test
+  public void breakdown_withoutRequest() {
+    requestTimer.add(Phase.FHIR, 1_000);
+
+    assertThat(requestTimer.breakdown().isPresent(), is(false));
+  }
+
+  @Test
+  public void start_resetsTimings() {
+    requestTimer.start();
+    requestTimer.add(Phase.FHIR, 1_000);
+    requestTimer.start();
+
+    assertThat(requestTimer.breakdown().orElseThrow().getFhirCalls(), is(0));
+  }
+}